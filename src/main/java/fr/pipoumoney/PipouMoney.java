@@ -3,30 +3,52 @@ package fr.pipoumoney;
 import fr.pipoumoney.commands.PipouMoneyCommand;
 import fr.pipoumoney.commands.PipouMoneyTabCompleter;
 import fr.pipoumoney.config.PluginConfig;
-import fr.pipoumoney.db.Database;
-import fr.pipoumoney.db.repositories.AccountsRepository;
-import fr.pipoumoney.db.repositories.AuditRepository;
+import fr.pipoumoney.db.JdbcStorageEngine;
+import fr.pipoumoney.db.archive.ArchiveStore;
 import fr.pipoumoney.economy.VaultPipouMoneyEconomy;
+import fr.pipoumoney.listeners.AsyncTabCompleteListener;
 import fr.pipoumoney.listeners.JoinListener;
 import fr.pipoumoney.listeners.QuitListener;
 import fr.pipoumoney.placeholders.PipouMoneyExpansion;
 import fr.pipoumoney.services.AccountService;
+import fr.pipoumoney.services.AccountSyncService;
 import fr.pipoumoney.services.AntiAbuseService;
+import fr.pipoumoney.services.AuditArchiveService;
+import fr.pipoumoney.services.AuditExportService;
 import fr.pipoumoney.services.AuditService;
+import fr.pipoumoney.services.FlushScheduler;
+import fr.pipoumoney.services.OnlineNameIndex;
+import fr.pipoumoney.services.TimingWheel;
 import fr.pipoumoney.services.TopCacheService;
+import fr.pipoumoney.services.TxCacheService;
+import fr.pipoumoney.storage.AccountStore;
+import fr.pipoumoney.storage.AuditStore;
+import fr.pipoumoney.storage.CircuitBreaker;
+import fr.pipoumoney.storage.GuardedAccountStore;
+import fr.pipoumoney.storage.GuardedAuditStore;
+import fr.pipoumoney.storage.StorageEngine;
+import fr.pipoumoney.storage.StorageUnavailableException;
 import fr.pipoumoney.text.Messages;
 import net.milkbowl.vault.economy.Economy;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -38,13 +60,18 @@ public final class PipouMoney extends JavaPlugin {
     private PluginConfig cfg;
     private Messages messages;
 
-    private Database db;
-    private AccountsRepository accountsRepo;
-    private AuditRepository auditRepo;
+    private StorageEngine storage;
+    private CircuitBreaker breaker;
+    private AccountStore accountStore;
+    private AuditStore auditStore;
+    private Integer breakerTaskId;
 
     private AccountService accounts;
+    private FlushScheduler flushScheduler;
     private AuditService audit;
     private AntiAbuseService antiAbuse;
+    private AuditExportService auditExport;
+    private AuditArchiveService auditArchive;
 
     private Economy vaultProvider;
 
@@ -53,10 +80,23 @@ public final class PipouMoney extends JavaPlugin {
 
     private volatile long lastFlushAtMs = 0L;
     private volatile long lastFlushDurationMs = 0L;
+    private volatile AccountStore.FlushResult lastFlush = AccountStore.FlushResult.EMPTY;
 
     private TopCacheService topCache;
     private Integer topCacheTaskId;
 
+    private AccountSyncService accountSync;
+    private Integer syncTaskId;
+    private volatile long lastSyncPruneMs = 0L;
+
+    private TxCacheService txCache;
+
+    private final OnlineNameIndex onlineNames = new OnlineNameIndex();
+    private PipouMoneyCommand commands;
+
+    private final TimingWheel expiry = new TimingWheel(1000L, 512);
+    private Integer expiryTaskId;
+
     @Override
     public void onEnable() {
         saveDefaultConfig();
@@ -76,8 +116,12 @@ public final class PipouMoney extends JavaPlugin {
 
         scheduleAutosave();
         scheduleTopCache();
+        scheduleSync();
+        scheduleBreakerRetry();
+        scheduleExpiry();
 
         audit.purgeOnStartAsync(cfg.audit());
+        archiveOnStart();
 
         logInfo("Enabled.");
     }
@@ -86,9 +130,25 @@ public final class PipouMoney extends JavaPlugin {
     public void onDisable() {
         cancelAutosave();
         cancelTopCache();
-        try { if (accounts != null) accounts.flushDirty(); } catch (Exception ignored) {}
+        cancelSync();
+        cancelBreakerRetry();
+        cancelExpiry();
+        if (commands != null) commands.close();
+        // One real attempt on the raw stores: through the breaker an open circuit would skip it.
+        if (accounts != null) {
+            try { accounts.flushDirty(storage.accounts(), cfg.flushChunkSize()); }
+            catch (Exception e) { logWarn("Final save failed: " + e.getMessage()); }
+            if (accounts.dirtySize() > 0) logWarn("Storage unavailable, " + accounts.dirtySize() + " account(s) not saved.");
+        }
+        if (audit != null) {
+            if (!audit.flushPending(storage.audit(), 5000L)) {
+                logWarn("Audit write still running after 5s, giving up on " + audit.buffered() + " buffered transaction(s).");
+            } else if (audit.buffered() > 0) {
+                logWarn("Storage unavailable, " + audit.buffered() + " transaction(s) not written.");
+            }
+        }
         if (vaultProvider != null) getServer().getServicesManager().unregister(Economy.class, vaultProvider);
-        if (db != null) db.closeQuietly();
+        if (storage != null) storage.closeQuietly();
     }
 
     private void ensureMessagesFile() {
@@ -104,32 +164,65 @@ public final class PipouMoney extends JavaPlugin {
         this.cfg = PluginConfig.load(getConfig());
 
         File msg = new File(getDataFolder(), "messages.yml");
-        this.messages = new Messages(YamlConfiguration.loadConfiguration(msg), cfg);
+        var msgCfg = YamlConfiguration.loadConfiguration(msg);
+        // Keys added since the file was written fall back to the bundled text instead of [MISSING].
+        try (var in = new InputStreamReader(Objects.requireNonNull(getResource("messages.yml")), StandardCharsets.UTF_8)) {
+            msgCfg.setDefaults(YamlConfiguration.loadConfiguration(in));
+            msgCfg.options().copyDefaults(true);
+        } catch (IOException e) {
+            logWarn("Could not read the bundled messages.yml: " + e.getMessage());
+        }
+        this.messages = new Messages(msgCfg, cfg);
         if (audit != null) audit.setEnabled(cfg.audit().enabled());
-        this.antiAbuse = new AntiAbuseService(cfg.antiAbuse());
+        configureFlushScheduler();
+        this.antiAbuse = new AntiAbuseService(cfg.antiAbuse(), expiry);
 
         scheduleAutosave();
         scheduleTopCache();
+        scheduleSync();
     }
 
     private boolean openDbAndWarmup() {
         try {
-            db = Database.open(getDataFolder(), cfg);
+            storage = StorageEngine.open(getDataFolder(), cfg, this::runAsync);
+            if (storage instanceof JdbcStorageEngine jdbc) {
+                for (String w : jdbc.database().warnings()) logWarn(w);
+            }
 
-            accountsRepo = new AccountsRepository(db);
-            auditRepo = new AuditRepository(db);
+            var b = cfg.breaker();
+            breaker = new CircuitBreaker(b.failureThreshold(), b.openSeconds() * 1000L, b.maxOpenSeconds() * 1000L);
+            accountStore = new GuardedAccountStore(storage.accounts(), breaker);
+            auditStore = new GuardedAuditStore(storage.audit(), breaker);
 
-            accounts = new AccountService(accountsRepo, cfg.format().decimals());
+            accounts = new AccountService(accountStore, cfg.format().decimals(), cfg.storage().deltaBalances());
             accounts.warmup();
+            flushScheduler = new FlushScheduler(accounts);
+            configureFlushScheduler();
 
-            audit = new AuditService(auditRepo, this::runAsync, cfg.audit().enabled());
+            accountSync = new AccountSyncService(accountStore, accounts);
+            accountSync.start();
 
-            topCache = new TopCacheService(accountsRepo, cfg.balances().min(), cfg.topCache().size());
+            txCache = new TxCacheService(cfg.txCache().enabled(), cfg.txCache().size(), cfg.txCache().ttlSeconds());
+            audit = new AuditService(auditStore, txCache, this::runAsync, cfg.audit().enabled(), b.maxBufferedAudit());
+            auditExport = new AuditExportService(auditStore, new File(getDataFolder(), "exports"), this::runAsync);
+
+            ArchiveStore archiveStore = new ArchiveStore(new File(getDataFolder(), "archive"));
+            try { archiveStore.load(); }
+            catch (Exception e) { logWarn("Archive load failed: " + e.getMessage()); }
+            auditArchive = new AuditArchiveService(auditStore, archiveStore, txCache, this::runAsync);
+
+            topCache = new TopCacheService(accountStore, cfg.balances().min(), cfg.topCache().size());
             runAsync(() -> {
                 try { topCache.refresh(); }
                 catch (Exception e) { logWarn("TopCache refresh failed: " + e.getMessage()); }
             });
 
+            breaker.onClose(() -> {
+                logInfo("Storage reachable again, writing back buffered changes.");
+                requestAsyncFlush();
+                audit.retryAsync();
+            });
+
             return true;
         } catch (Exception e) {
             logSevere("DB init failed: " + e.getMessage());
@@ -137,13 +230,26 @@ public final class PipouMoney extends JavaPlugin {
         }
     }
 
+    private void archiveOnStart() {
+        var a = cfg.audit();
+        if (!a.enabled() || !a.archiveEnabled()) return;
+
+        auditArchive.archiveAsync(
+                a.archiveOlderThanDays(),
+                a.archiveSegmentRows(),
+                r -> { if (r.rows() > 0) logInfo("Archived " + r.rows() + " transactions into " + r.segments() + " segment(s)."); },
+                e -> logWarn("Archive failed: " + e.getMessage())
+        );
+    }
+
     private void registerListeners() {
+        onlineNames.reset(Bukkit.getOnlinePlayers().stream().map(Player::getName).toList());
         getServer().getPluginManager().registerEvents(new JoinListener(this), this);
         getServer().getPluginManager().registerEvents(new QuitListener(this), this);
     }
 
     private void registerCommands() {
-        PipouMoneyCommand executor = new PipouMoneyCommand(this);
+        PipouMoneyCommand executor = commands = new PipouMoneyCommand(this);
         PipouMoneyTabCompleter tab = new PipouMoneyTabCompleter(this);
 
         Objects.requireNonNull(getCommand("money"), "Command money missing in plugin.yml").setExecutor(executor);
@@ -157,6 +263,16 @@ public final class PipouMoney extends JavaPlugin {
 
         Objects.requireNonNull(getCommand("baltop"), "Command baltop missing in plugin.yml").setExecutor(executor);
         Objects.requireNonNull(getCommand("baltop"), "Command baltop missing in plugin.yml").setTabCompleter(tab);
+
+        if (AsyncTabCompleteListener.supported()) {
+            var labels = new HashMap<String, PluginCommand>();
+            for (String name : List.of("money", "bal", "pay", "baltop")) {
+                PluginCommand cmd = Objects.requireNonNull(getCommand(name));
+                labels.put(name, cmd);
+                for (String alias : cmd.getAliases()) labels.put(alias.toLowerCase(Locale.ROOT), cmd);
+            }
+            getServer().getPluginManager().registerEvents(new AsyncTabCompleteListener(tab, labels), this);
+        }
     }
 
     private void hookVault() {
@@ -189,19 +305,29 @@ public final class PipouMoney extends JavaPlugin {
         }
     }
 
+    private void configureFlushScheduler() {
+        if (flushScheduler == null) return;
+        flushScheduler.configure(cfg.flushDirtyThreshold(), cfg.flushMaxStalenessSeconds(),
+                cfg.flushChunkSize(), cfg.flushTargetChunkMs());
+    }
+
+    // Called on every balance change: triggers are coalesced by the scheduler's minimum gap
+    // and by flushQueued, so a busy server does not flush once per operation.
     public void maybeAutoFlush() {
-        if (accounts.dirtySize() >= cfg.flushDirtyThreshold()) requestAsyncFlush();
+        if (!cfg.autosaveEnabled() || flushQueued.get() || !flushScheduler.thresholdReached()) return;
+        if (flushScheduler.shouldFlush(System.currentTimeMillis())) requestAsyncFlush();
     }
 
     public void requestAsyncFlush() {
         if (!flushQueued.compareAndSet(false, true)) return;
 
         runAsync(() -> {
-            long start = System.currentTimeMillis();
             try {
-                accounts.flushDirty();
-                lastFlushAtMs = System.currentTimeMillis();
-                lastFlushDurationMs = Math.max(0, lastFlushAtMs - start);
+                var r = accounts.flushDirty(flushScheduler.chunkSize());
+                flushScheduler.recordFlush(r, System.currentTimeMillis());
+                recordFlush(r);
+            } catch (StorageUnavailableException ignored) {
+                // Accounts stay dirty until the breaker closes again.
             } catch (Exception e) {
                 logWarn("Flush failed: " + e.getMessage());
             } finally {
@@ -210,9 +336,17 @@ public final class PipouMoney extends JavaPlugin {
         });
     }
 
+    public void recordFlush(AccountStore.FlushResult r) {
+        lastFlushAtMs = System.currentTimeMillis();
+        lastFlushDurationMs = r.durationMs();
+        lastFlush = r;
+    }
+
     public void resetStats() {
         lastFlushAtMs = 0L;
         lastFlushDurationMs = 0L;
+        lastFlush = AccountStore.FlushResult.EMPTY;
+        if (txCache != null) txCache.resetStats();
     }
 
     public String formattedLastFlush() {
@@ -225,12 +359,18 @@ public final class PipouMoney extends JavaPlugin {
         if (cfg == null) return;
         if (!cfg.autosaveEnabled()) return;
 
-        long periodTicks = cfg.autosaveMinutes() * 60L * 20L;
+        if (flushScheduler == null) return;
+
         autosaveTaskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(
                 this,
-                this::requestAsyncFlush,
-                periodTicks,
-                periodTicks
+                () -> {
+                    long now = System.currentTimeMillis();
+                    flushScheduler.sample(now);
+                    if (breaker.isOpen() || flushQueued.get()) return;
+                    if (flushScheduler.shouldFlush(now)) requestAsyncFlush();
+                },
+                20L,
+                20L
         );
     }
 
@@ -266,6 +406,96 @@ public final class PipouMoney extends JavaPlugin {
         }
     }
 
+    private void scheduleSync() {
+        cancelSync();
+        if (cfg == null || accountSync == null) return;
+
+        accountStore.setChangeNode(cfg.sync().enabled() ? accountSync.nodeId() : null);
+        if (!cfg.sync().enabled()) return;
+
+        long periodTicks = cfg.sync().pollSeconds() * 20L;
+        syncTaskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(
+                this,
+                () -> runAsync(this::pollSync),
+                periodTicks,
+                periodTicks
+        );
+    }
+
+    private void pollSync() {
+        var s = cfg.sync();
+        try {
+            int changed = accountSync.poll(s.batchSize());
+            if (changed > 0 && topCache != null && cfg.topCache().enabled()) topCache.refresh();
+
+            long now = System.currentTimeMillis();
+            if (now - lastSyncPruneMs >= 60_000L) {
+                lastSyncPruneMs = now;
+                accountSync.prune(s.retentionMinutes() * 60_000L);
+            }
+        } catch (StorageUnavailableException ignored) {
+        } catch (Exception e) {
+            logWarn("Sync poll failed: " + e.getMessage());
+        }
+    }
+
+    private void cancelSync() {
+        if (syncTaskId != null) {
+            Bukkit.getScheduler().cancelTask(syncTaskId);
+            syncTaskId = null;
+        }
+    }
+
+    // Once the open period is over a cheap read probes the database, a success closes the
+    // circuit and the onClose listener writes back what was buffered meanwhile.
+    private void scheduleBreakerRetry() {
+        cancelBreakerRetry();
+        if (breaker == null) return;
+
+        breakerTaskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(
+                this,
+                () -> {
+                    if (breaker.retryDue()) runAsync(this::probeStorage);
+                    else if (!breaker.isOpen() && audit.buffered() > 0) audit.retryAsync();
+                },
+                20L,
+                20L
+        );
+    }
+
+    private void probeStorage() {
+        try {
+            breaker.call(storage.accounts()::latestChangeSeq);
+        } catch (StorageUnavailableException ignored) {
+        } catch (Exception e) {
+            logWarn("Storage still unavailable: " + e.getMessage());
+        }
+    }
+
+    private void cancelBreakerRetry() {
+        if (breakerTaskId != null) {
+            Bukkit.getScheduler().cancelTask(breakerTaskId);
+            breakerTaskId = null;
+        }
+    }
+
+    private void scheduleExpiry() {
+        cancelExpiry();
+        expiryTaskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(
+                this,
+                () -> expiry.advance(System.currentTimeMillis()),
+                20L,
+                20L
+        );
+    }
+
+    private void cancelExpiry() {
+        if (expiryTaskId != null) {
+            Bukkit.getScheduler().cancelTask(expiryTaskId);
+            expiryTaskId = null;
+        }
+    }
+
     public void runAsync(Runnable r) {
         try {
             Bukkit.getAsyncScheduler().runNow(this, task -> r.run());
@@ -274,6 +504,15 @@ public final class PipouMoney extends JavaPlugin {
         }
     }
 
+    /** Runs on the player's own scheduler (its region thread on Folia, the main thread otherwise). */
+    public void runFor(Player p, Runnable r) {
+        try {
+            p.getScheduler().run(this, task -> r.run(), null);
+        } catch (NoSuchMethodError ignored) {
+            Bukkit.getScheduler().runTask(this, r);
+        }
+    }
+
     private void sendConsole(String msg) {
         CommandSender cs = Bukkit.getConsoleSender();
         cs.sendMessage(msg);
@@ -287,13 +526,21 @@ public final class PipouMoney extends JavaPlugin {
     public Messages messages() { return messages; }
     public AccountService accounts() { return accounts; }
     public AuditService audit() { return audit; }
-    public AuditRepository auditRepo() { return auditRepo; }
-    public Database db() { return db; }
+    public AuditStore auditStore() { return auditStore; }
+    public StorageEngine storage() { return storage; }
+    public CircuitBreaker breaker() { return breaker; }
     public TopCacheService topCache() { return topCache; }
+    public TxCacheService txCache() { return txCache; }
+    public OnlineNameIndex onlineNames() { return onlineNames; }
+    public TimingWheel expiry() { return expiry; }
+    public AccountSyncService accountSync() { return accountSync; }
     public AntiAbuseService antiAbuse() { return antiAbuse; }
+    public AuditExportService auditExport() { return auditExport; }
+    public AuditArchiveService auditArchive() { return auditArchive; }
 
     public boolean isFlushQueued() { return flushQueued.get(); }
     public long lastFlushDurationMs() { return lastFlushDurationMs; }
+    public AccountStore.FlushResult lastFlush() { return lastFlush; }
     public boolean autosaveEnabled() { return cfg.autosaveEnabled(); }
-    public int autosaveMinutes() { return cfg.autosaveMinutes(); }
+    public FlushScheduler flushScheduler() { return flushScheduler; }
 }
@@ -31,7 +31,7 @@ public final class BaltopCommand implements CommandExecutor {
         TopCacheService cache = plugin.topCache();
         List<TopCacheService.Entry> list = cache == null ? List.of() : cache.snapshot();
 
-        sender.sendMessage(plugin.messages().fmt("top.header", java.util.Map.of(
+        sender.sendMessage(plugin.messages().component("top.header", java.util.Map.of(
                 "count", String.valueOf(count),
                 "onlyOnline", String.valueOf(plugin.cfg().balances().onlyOnline()),
                 "showUuid", String.valueOf(plugin.cfg().balances().showUuid())
@@ -40,7 +40,7 @@ public final class BaltopCommand implements CommandExecutor {
         int shown = 0;
         for (var e : list) {
             if (shown >= count) break;
-            sender.sendMessage(plugin.messages().fmt("top.line", java.util.Map.of(
+            sender.sendMessage(plugin.messages().component("top.line", java.util.Map.of(
                     "rank", String.valueOf(e.rank()),
                     "player", e.name(),
                     "amount", plugin.messages().moneyWithCurrency(e.balance()),
@@ -50,7 +50,7 @@ public final class BaltopCommand implements CommandExecutor {
         }
 
         if (shown == 0) {
-            sender.sendMessage(plugin.messages().get("history.empty"));
+            sender.sendMessage(plugin.messages().component("history.empty"));
         }
         return true;
     }
@@ -0,0 +1,105 @@
+package fr.pipoumoney.commands;
+
+import fr.pipoumoney.PipouMoney;
+import fr.pipoumoney.text.Messages;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs database-backed commands off the main thread: arguments are parsed by the caller on the
+ * main thread, the query and the rendering run on a small dedicated pool with a bounded queue and
+ * the finished lines are sent from the player's scheduler. Each player has at most one request
+ * running; a request that outlives the timeout is answered with a timeout message but keeps the
+ * slot until it really ends, so a hung database cannot pile up work. A full queue is refused.
+ */
+final class CommandPipeline {
+
+    @FunctionalInterface
+    interface Query<T> {
+        T run() throws Exception;
+    }
+
+    @FunctionalInterface
+    interface Renderer<T> {
+        List<Component> render(T result);
+    }
+
+    // Answered once, by the result or by the timeout, whichever comes first.
+    private static final class Request {
+        final AtomicBoolean answered = new AtomicBoolean(false);
+    }
+
+    private final PipouMoney plugin;
+    private final Map<UUID, Request> inFlight = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+
+    CommandPipeline(PipouMoney plugin) {
+        this.plugin = plugin;
+        var c = plugin.cfg().commands();
+        AtomicInteger n = new AtomicInteger(0);
+        this.executor = new ThreadPoolExecutor(c.queryThreads(), c.queryThreads(), 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(c.queryQueue()), r -> {
+                    Thread t = new Thread(r, "PipouMoney-Query-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    <T> void submit(Player p, Messages msg, Query<T> query, Renderer<T> renderer) {
+        UUID id = p.getUniqueId();
+        Request req = new Request();
+        if (inFlight.putIfAbsent(id, req) != null) {
+            p.sendMessage(msg.component("generic.busy"));
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                List<Component> lines;
+                try {
+                    lines = renderer.render(query.run());
+                } catch (Exception e) {
+                    lines = List.of(msg.component("generic.db_error"));
+                } finally {
+                    inFlight.remove(id, req);
+                }
+
+                List<Component> out = lines;
+                plugin.runFor(p, () -> {
+                    if (!req.answered.compareAndSet(false, true)) return;
+                    for (Component line : out) p.sendMessage(line);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(id, req);
+            p.sendMessage(msg.component("generic.overloaded"));
+            return;
+        }
+
+        long timeoutTicks = plugin.cfg().commands().queryTimeoutSeconds() * 20L;
+        Bukkit.getScheduler().runTaskLater(plugin, () -> {
+            if (req.answered.compareAndSet(false, true)) p.sendMessage(msg.component("generic.timeout"));
+        }, timeoutTicks);
+    }
+}
@@ -2,12 +2,17 @@ package fr.pipoumoney.commands;
 
 import fr.pipoumoney.PipouMoney;
 import fr.pipoumoney.config.PluginConfig;
-import fr.pipoumoney.db.repositories.AuditRepository;
+import fr.pipoumoney.db.JdbcStorageEngine;
 import fr.pipoumoney.services.AccountService;
 import fr.pipoumoney.services.AntiAbuseService;
+import fr.pipoumoney.services.AuditExportService;
 import fr.pipoumoney.services.AuditService;
+import fr.pipoumoney.services.TimingWheel;
+import fr.pipoumoney.storage.AuditStore;
 import fr.pipoumoney.text.Messages;
 import fr.pipoumoney.utils.MoneyUtil;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 import net.milkbowl.vault.economy.Economy;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
@@ -18,7 +23,6 @@ import org.bukkit.plugin.RegisteredServiceProvider;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
@@ -27,6 +31,11 @@ public final class PipouMoneyCommand implements CommandExecutor {
     private static final DateTimeFormatter DT =
             DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.of("Europe/Paris"));
 
+    private static final LegacyComponentSerializer LEGACY = LegacyComponentSerializer.legacySection();
+
+    // Expired confirmations are kept this much longer so a late confirm is told it expired.
+    private static final long CONFIRM_GRACE_MS = 60_000L;
+
     private static final String PERM_PREFIX = "pipoumoney.";
     private static final String PERM_ADMIN_ROOT = PERM_PREFIX + "admin";
     private static final String PERM_ADMIN_ALL = PERM_PREFIX + "admin.*";
@@ -37,16 +46,27 @@ public final class PipouMoneyCommand implements CommandExecutor {
     private static final String PERM_AUDIT_ALERTS = PERM_PREFIX + "admin.audit.alerts";
 
     private final PipouMoney plugin;
+    private final CommandPipeline pipeline;
 
     private final Map<String, BiFunction<Player, Ctx, Boolean>> moneyRoutes;
 
-    private final Map<UUID, Long> payCooldownMs = new ConcurrentHashMap<>();
-    private final Map<UUID, PendingPay> pendingConfirm = new ConcurrentHashMap<>();
+    // Last payment time and pending confirmation per player, evicted by the plugin's timing wheel.
+    private final TimingWheel.Table<UUID, Long> payCooldownMs;
+    private final TimingWheel.Table<UUID, PendingPay> pendingConfirm;
 
     private record PendingPay(UUID from, UUID to, double amount, long expiresAtMs) {}
 
+    private record BalancesPage(int page, int pages, List<AccountService.DisplayRow> rows) {}
+
+    private record HistoryPage(AuditStore.Page page, Map<UUID, String> tokens) {}
+
+    private record TxView(Optional<AuditStore.Tx> tx, Map<UUID, String> tokens) {}
+
     public PipouMoneyCommand(PipouMoney plugin) {
         this.plugin = plugin;
+        this.pipeline = new CommandPipeline(plugin);
+        this.payCooldownMs = plugin.expiry().register("pay-cooldowns");
+        this.pendingConfirm = plugin.expiry().register("pay-confirmations");
 
         moneyRoutes = Map.ofEntries(
                 Map.entry("help", (p, c) -> { help(p, c); return true; }),
@@ -62,6 +82,11 @@ public final class PipouMoneyCommand implements CommandExecutor {
         );
     }
 
+    /** Stops the lookup threads, called on disable. */
+    public void close() {
+        pipeline.close();
+    }
+
     @Override
     public boolean onCommand(CommandSender sender, Command cmd, String label, String[] argsArr) {
         if (!(sender instanceof Player p)) return true;
@@ -93,13 +118,13 @@ public final class PipouMoneyCommand implements CommandExecutor {
 
         if (c.args().isEmpty()) {
             double bal = c.accounts().balance(p.getUniqueId());
-            p.sendMessage(c.msg().fmt("balance.show", Map.of("amount", c.msg().moneyWithCurrency(bal))));
+            p.sendMessage(c.msg().component("balance.show", Map.of("amount", c.msg().moneyWithCurrency(bal))));
             return true;
         }
 
         String sub = c.args().get(0).toLowerCase(Locale.ROOT);
         return moneyRoutes.getOrDefault(sub, (pl, ctx) -> {
-            pl.sendMessage(ctx.msg().fmt("generic.unknown", Map.of("label", ctx.label())));
+            pl.sendMessage(ctx.msg().component("generic.unknown", Map.of("label", ctx.label())));
             return true;
         }).apply(p, c);
     }
@@ -119,54 +144,61 @@ public final class PipouMoneyCommand implements CommandExecutor {
         if (perm == null || perm.isBlank()) return true;
         if (hasPerm(p, perm)) return true;
 
-        String m = c.msg().fmt("generic.no_permission_cmd", Map.of("perm", perm));
+        var vars = Map.of("perm", perm);
+        String m = c.msg().fmt("generic.no_permission_cmd", vars);
         if (m != null && !m.isBlank()) {
-            p.sendMessage(m);
+            p.sendMessage(c.msg().component("generic.no_permission_cmd", vars));
             return false;
         }
 
-        p.sendMessage(c.msg().get("generic.no_permission"));
+        p.sendMessage(c.msg().component("generic.no_permission"));
         return false;
     }
 
     private void help(Player p, Ctx c) {
         var msg = c.msg();
 
-        p.sendMessage(msg.get("help.header"));
-        p.sendMessage(msg.get("help.player_header"));
-        p.sendMessage(msg.get("help.player_bal_self"));
-        p.sendMessage(msg.get("help.player_bal_other"));
-        p.sendMessage(msg.get("help.player_pay"));
-        p.sendMessage(msg.get("help.player_baltop"));
-        p.sendMessage(msg.fmt("help.player_settings", Map.of("label", c.label())));
-        p.sendMessage(msg.get("help.player_history_me"));
-        p.sendMessage(msg.get("help.player_version"));
-        p.sendMessage(msg.get("help.player_help_tip"));
+        p.sendMessage(msg.component("help.header"));
+        p.sendMessage(msg.component("help.player_header"));
+        p.sendMessage(msg.component("help.player_bal_self"));
+        p.sendMessage(msg.component("help.player_bal_other"));
+        p.sendMessage(msg.component("help.player_pay"));
+        p.sendMessage(msg.component("help.player_baltop"));
+        p.sendMessage(msg.component("help.player_settings", Map.of("label", c.label())));
+        p.sendMessage(msg.component("help.player_history_me"));
+        p.sendMessage(msg.component("help.player_version"));
+        p.sendMessage(msg.component("help.player_help_tip"));
 
         if (hasPerm(p, PERM_PREFIX + "admin") || hasPerm(p, PERM_PREFIX + "admin.help")) {
             p.sendMessage(" ");
-            p.sendMessage(msg.get("help.admin_header"));
-            p.sendMessage(msg.fmt("help.admin_give", Map.of("label", c.label())));
-            p.sendMessage(msg.fmt("help.admin_take", Map.of("label", c.label())));
-            p.sendMessage(msg.fmt("help.admin_set", Map.of("label", c.label())));
-            p.sendMessage(msg.fmt("help.admin_history", Map.of("label", c.label())));
-            p.sendMessage(msg.fmt("help.admin_balances", Map.of("label", c.label())));
-            p.sendMessage(msg.fmt("help.admin_top", Map.of("label", c.label())));
-            p.sendMessage(msg.fmt("help.admin_reload", Map.of("label", c.label())));
-            p.sendMessage(msg.fmt("help.admin_save", Map.of("label", c.label())));
-            p.sendMessage(msg.fmt("help.admin_health", Map.of("label", c.label())));
-            p.sendMessage(msg.fmt("help.admin_stats", Map.of("label", c.label())));
-            p.sendMessage(msg.fmt("help.admin_purge", Map.of("label", c.label())));
-            if (msg.get("help.admin_tx") != null) p.sendMessage(msg.fmt("help.admin_tx", Map.of("label", c.label())));
-            if (msg.get("help.admin_flag") != null) p.sendMessage(msg.fmt("help.admin_flag", Map.of("label", c.label())));
-            if (msg.get("help.admin_unflag") != null) p.sendMessage(msg.fmt("help.admin_unflag", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_header"));
+            p.sendMessage(msg.component("help.admin_give", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_take", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_set", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_history", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_balances", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_top", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_reload", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_save", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_health", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_stats", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_purge", Map.of("label", c.label())));
+            if (msg.get("help.admin_tx") != null) p.sendMessage(msg.component("help.admin_tx", Map.of("label", c.label())));
+            if (msg.get("help.admin_flag") != null) p.sendMessage(msg.component("help.admin_flag", Map.of("label", c.label())));
+            if (msg.get("help.admin_unflag") != null) p.sendMessage(msg.component("help.admin_unflag", Map.of("label", c.label())));
+            if (msg.get("help.admin_export") != null && hasPerm(p, PERM_PREFIX + "admin.export")) {
+                p.sendMessage(msg.component("help.admin_export", Map.of("label", c.label())));
+            }
+            if (msg.get("help.admin_archive") != null && hasPerm(p, PERM_PREFIX + "admin.archive")) {
+                p.sendMessage(msg.component("help.admin_archive", Map.of("label", c.label())));
+            }
         }
     }
 
     private void balanceAlias(Player p, Ctx c) {
         if (c.args().isEmpty()) {
             double bal = c.accounts().balance(p.getUniqueId());
-            p.sendMessage(c.msg().fmt("balance.show", Map.of("amount", c.msg().moneyWithCurrency(bal))));
+            p.sendMessage(c.msg().component("balance.show", Map.of("amount", c.msg().moneyWithCurrency(bal))));
             return;
         }
 
@@ -174,12 +206,12 @@ public final class PipouMoneyCommand implements CommandExecutor {
 
         OfflinePlayer t = Bukkit.getOfflinePlayer(c.args().get(0));
         if (t == null || (!t.hasPlayedBefore() && !t.isOnline())) {
-            p.sendMessage(c.msg().get("generic.player_not_found"));
+            p.sendMessage(c.msg().component("generic.player_not_found"));
             return;
         }
 
         double bal = c.accounts().balance(t.getUniqueId());
-        p.sendMessage(c.msg().fmt("balance.other", Map.of(
+        p.sendMessage(c.msg().component("balance.other", Map.of(
                 "player", safeName(t, c.args().get(0)),
                 "amount", c.msg().moneyWithCurrency(bal)
         )));
@@ -189,7 +221,7 @@ public final class PipouMoneyCommand implements CommandExecutor {
         List<String> a = c.args();
         if (a.size() <= 1) {
             double bal = c.accounts().balance(p.getUniqueId());
-            p.sendMessage(c.msg().fmt("balance.show", Map.of("amount", c.msg().moneyWithCurrency(bal))));
+            p.sendMessage(c.msg().component("balance.show", Map.of("amount", c.msg().moneyWithCurrency(bal))));
             return;
         }
 
@@ -197,12 +229,12 @@ public final class PipouMoneyCommand implements CommandExecutor {
 
         OfflinePlayer t = Bukkit.getOfflinePlayer(a.get(1));
         if (t == null || (!t.hasPlayedBefore() && !t.isOnline())) {
-            p.sendMessage(c.msg().get("generic.player_not_found"));
+            p.sendMessage(c.msg().component("generic.player_not_found"));
             return;
         }
 
         double bal = c.accounts().balance(t.getUniqueId());
-        p.sendMessage(c.msg().fmt("balance.other", Map.of(
+        p.sendMessage(c.msg().component("balance.other", Map.of(
                 "player", safeName(t, a.get(1)),
                 "amount", c.msg().moneyWithCurrency(bal)
         )));
@@ -227,7 +259,7 @@ public final class PipouMoneyCommand implements CommandExecutor {
             boolean now = !c.accounts().notifyEnabled(p.getUniqueId());
             c.accounts().setNotify(p.getUniqueId(), now);
             plugin.maybeAutoFlush();
-            p.sendMessage(msg.get(now ? "settings.notify_enabled" : "settings.notify_disabled"));
+            p.sendMessage(msg.component(now ? "settings.notify_enabled" : "settings.notify_disabled"));
 
             boolean locked = c.accounts().locked(p.getUniqueId());
             msgSendSettings(p, msg, c.label(), now, locked);
@@ -238,23 +270,23 @@ public final class PipouMoneyCommand implements CommandExecutor {
             boolean now = !c.accounts().locked(p.getUniqueId());
             c.accounts().setLocked(p.getUniqueId(), now);
             plugin.maybeAutoFlush();
-            p.sendMessage(msg.get(now ? "settings.lock_enabled" : "settings.lock_disabled"));
+            p.sendMessage(msg.component(now ? "settings.lock_enabled" : "settings.lock_disabled"));
 
             boolean notify = c.accounts().notifyEnabled(p.getUniqueId());
             msgSendSettings(p, msg, c.label(), notify, now);
             return;
         }
 
-        p.sendMessage(msg.fmt("usage.settings", Map.of("label", c.label())));
+        p.sendMessage(msg.component("usage.settings", Map.of("label", c.label())));
     }
 
     private void msgSendSettings(Player p, Messages msg, String label, boolean notify, boolean locked) {
-        p.sendMessage(msg.get("settings.header"));
-        p.sendMessage(msg.fmt("settings.line_notify", Map.of(
+        p.sendMessage(msg.component("settings.header"));
+        p.sendMessage(msg.component("settings.line_notify", Map.of(
                 "label", label,
                 "state", notify ? "§aON" : "§cOFF"
         )));
-        p.sendMessage(msg.fmt("settings.line_lock", Map.of(
+        p.sendMessage(msg.component("settings.line_lock", Map.of(
                 "label", label,
                 "state", locked ? "§aON" : "§cOFF"
         )));
@@ -267,7 +299,7 @@ public final class PipouMoneyCommand implements CommandExecutor {
         }
 
         if (c.args().size() < 2) {
-            p.sendMessage(c.msg().get("usage.pay"));
+            p.sendMessage(c.msg().component("usage.pay"));
             return;
         }
 
@@ -285,7 +317,7 @@ public final class PipouMoneyCommand implements CommandExecutor {
         var msg = c.msg();
         var args = c.args();
 
-        if (!cfg.enabled()) { p.sendMessage(msg.get("pay.disabled")); return; }
+        if (!cfg.enabled()) { p.sendMessage(msg.component("pay.disabled")); return; }
 
         if (args.size() >= 2 && args.get(1).equalsIgnoreCase("confirm")) {
             payConfirm(p, c);
@@ -293,23 +325,23 @@ public final class PipouMoneyCommand implements CommandExecutor {
         }
 
         if (args.size() < 3) {
-            p.sendMessage(msg.get("usage.pay"));
+            p.sendMessage(msg.component("usage.pay"));
             return;
         }
 
         OfflinePlayer target = Bukkit.getOfflinePlayer(args.get(1));
         if (target == null || (!target.hasPlayedBefore() && !target.isOnline())) {
-            p.sendMessage(msg.get("generic.player_not_found"));
+            p.sendMessage(msg.component("generic.player_not_found"));
             return;
         }
 
         if (!cfg.allowPaySelf() && target.getUniqueId().equals(p.getUniqueId())) {
-            p.sendMessage(msg.get("pay.self"));
+            p.sendMessage(msg.component("pay.self"));
             return;
         }
 
         if (c.accounts().locked(target.getUniqueId())) {
-            p.sendMessage(msg.get("pay.locked_target"));
+            p.sendMessage(msg.component("pay.locked_target"));
             return;
         }
 
@@ -318,29 +350,30 @@ public final class PipouMoneyCommand implements CommandExecutor {
         Double amountRaw = parseAmount(args.get(2)).orElse(null);
         Double amount = (amountRaw == null) ? null : MoneyUtil.round(amountRaw, dec);
 
-        if (amount == null || amount <= 0) { p.sendMessage(msg.get("economy.invalid_amount")); return; }
+        if (amount == null || amount <= 0) { p.sendMessage(msg.component("economy.invalid_amount")); return; }
         if (amount + 1e-9 < cfg.min()) {
-            p.sendMessage(msg.fmt("pay.min", Map.of("min", msg.moneyWithCurrency(cfg.min()))));
+            p.sendMessage(msg.component("pay.min", Map.of("min", msg.moneyWithCurrency(cfg.min()))));
             return;
         }
 
         if (cfg.cooldownSeconds() > 0) {
             long now = System.currentTimeMillis();
-            long last = payCooldownMs.getOrDefault(p.getUniqueId(), 0L);
-            long leftMs = (last + cfg.cooldownSeconds() * 1000L) - now;
+            long cooldownMs = cfg.cooldownSeconds() * 1000L;
+            Long last = payCooldownMs.get(p.getUniqueId());
+            long leftMs = last == null ? 0L : (last + cooldownMs) - now;
             if (leftMs > 0) {
                 long left = (leftMs + 999) / 1000;
-                p.sendMessage(msg.fmt("pay.cooldown", Map.of("seconds", String.valueOf(left))));
+                p.sendMessage(msg.component("pay.cooldown", Map.of("seconds", String.valueOf(left))));
                 return;
             }
-            payCooldownMs.put(p.getUniqueId(), now);
+            payCooldownMs.put(p.getUniqueId(), now, cooldownMs);
         }
 
         var ar = plugin.antiAbuse().checkPay(p.getUniqueId(), amount);
         if (ar.triggered()) {
             notifyAntiAbuseAdmins(p, c, amount, ar);
             if (ar.block()) {
-                p.sendMessage(msg.fmt("antiabuse.blocked", Map.of(
+                p.sendMessage(msg.component("antiabuse.blocked", Map.of(
                         "reason", ar.reason() == null ? "UNKNOWN" : ar.reason(),
                         "amount", msg.moneyWithCurrency(amount)
                 )));
@@ -350,8 +383,9 @@ public final class PipouMoneyCommand implements CommandExecutor {
 
         if (cfg.confirmAbove() > 0 && amount >= cfg.confirmAbove()) {
             long exp = System.currentTimeMillis() + cfg.confirmTimeoutSeconds() * 1000L;
-            pendingConfirm.put(p.getUniqueId(), new PendingPay(p.getUniqueId(), target.getUniqueId(), amount, exp));
-            p.sendMessage(msg.fmt("pay.confirm_required", Map.of("label", c.label())));
+            pendingConfirm.put(p.getUniqueId(), new PendingPay(p.getUniqueId(), target.getUniqueId(), amount, exp),
+                    cfg.confirmTimeoutSeconds() * 1000L + CONFIRM_GRACE_MS);
+            p.sendMessage(msg.component("pay.confirm_required", Map.of("label", c.label())));
             return;
         }
 
@@ -362,17 +396,17 @@ public final class PipouMoneyCommand implements CommandExecutor {
         var msg = c.msg();
         PendingPay pp = pendingConfirm.get(p.getUniqueId());
         if (pp == null) {
-            p.sendMessage(msg.get("pay.confirm_missing"));
+            p.sendMessage(msg.component("pay.confirm_missing"));
             return;
         }
         if (System.currentTimeMillis() > pp.expiresAtMs()) {
             pendingConfirm.remove(p.getUniqueId());
-            p.sendMessage(msg.get("pay.confirm_expired"));
+            p.sendMessage(msg.component("pay.confirm_expired"));
             return;
         }
         pendingConfirm.remove(p.getUniqueId());
         doTransfer(p, c, pp.to(), pp.amount(), "PAY", "TRANSFER");
-        p.sendMessage(msg.get("pay.confirm_done"));
+        p.sendMessage(msg.component("pay.confirm_done"));
     }
 
     private void notifyAntiAbuseAdmins(Player sender, Ctx c, double amount, AntiAbuseService.Result ar) {
@@ -380,7 +414,8 @@ public final class PipouMoneyCommand implements CommandExecutor {
         if (cfg == null || !cfg.enabled() || !cfg.alertAdmins()) return;
 
         String reason = (ar.reason() == null) ? "UNKNOWN" : ar.reason();
-        String line = c.msg().fmt("antiabuse.alert_admins", Map.of(
+        // Built once and shared by every admin online.
+        Component line = c.msg().component("antiabuse.alert_admins", Map.of(
                 "player", sender.getName(),
                 "uuid", sender.getUniqueId().toString(),
                 "amount", c.msg().moneyWithCurrency(amount),
@@ -400,13 +435,13 @@ public final class PipouMoneyCommand implements CommandExecutor {
         int dec = c.cfg().format().decimals();
 
         double safeAmount = MoneyUtil.round(amount, dec);
-        if (safeAmount <= 0) { fromPlayer.sendMessage(msg.get("economy.invalid_amount")); return; }
+        if (safeAmount <= 0) { fromPlayer.sendMessage(msg.component("economy.invalid_amount")); return; }
 
         AntiAbuseService.Result ar = plugin.antiAbuse().checkPay(fromUuid, safeAmount);
         if (ar.triggered()) {
             notifyAntiAbuseAdmins(fromPlayer, c, safeAmount, ar);
             if (ar.block()) {
-                fromPlayer.sendMessage(msg.fmt("antiabuse.blocked", Map.of(
+                fromPlayer.sendMessage(msg.component("antiabuse.blocked", Map.of(
                         "reason", ar.reason() == null ? "UNKNOWN" : ar.reason(),
                         "amount", msg.moneyWithCurrency(safeAmount)
                 )));
@@ -415,7 +450,7 @@ public final class PipouMoneyCommand implements CommandExecutor {
         }
 
         if (!c.accounts().has(fromUuid, safeAmount)) {
-            fromPlayer.sendMessage(msg.get("economy.not_enough"));
+            fromPlayer.sendMessage(msg.component("economy.not_enough"));
             return;
         }
 
@@ -423,7 +458,7 @@ public final class PipouMoneyCommand implements CommandExecutor {
         double received = MoneyUtil.round(Math.max(0.0, safeAmount - tax), dec);
 
         if (!c.accounts().remove(fromUuid, safeAmount)) {
-            fromPlayer.sendMessage(msg.get("economy.not_enough"));
+            fromPlayer.sendMessage(msg.component("economy.not_enough"));
             return;
         }
 
@@ -432,9 +467,9 @@ public final class PipouMoneyCommand implements CommandExecutor {
         if (tax > 1e-9) {
             if ("treasury".equalsIgnoreCase(cfg.taxMode())) {
                 c.accounts().add(cfg.treasuryUuid(), tax);
-                fromPlayer.sendMessage(msg.fmt("pay.taxed_to_treasury", Map.of("tax", msg.moneyWithCurrency(tax))));
+                fromPlayer.sendMessage(msg.component("pay.taxed_to_treasury", Map.of("tax", msg.moneyWithCurrency(tax))));
             } else {
-                fromPlayer.sendMessage(msg.fmt("pay.taxed_to_sink", Map.of("tax", msg.moneyWithCurrency(tax))));
+                fromPlayer.sendMessage(msg.component("pay.taxed_to_sink", Map.of("tax", msg.moneyWithCurrency(tax))));
             }
         }
 
@@ -450,14 +485,14 @@ public final class PipouMoneyCommand implements CommandExecutor {
         plugin.maybeAutoFlush();
 
         OfflinePlayer target = Bukkit.getOfflinePlayer(toUuid);
-        fromPlayer.sendMessage(msg.fmt("pay.sent", Map.of(
+        fromPlayer.sendMessage(msg.component("pay.sent", Map.of(
                 "sent", msg.moneyWithCurrency(safeAmount),
                 "tax", msg.moneyWithCurrency(tax),
                 "player", safeName(target, toUuid.toString())
         )));
 
         if (target.isOnline() && c.accounts().notifyEnabled(toUuid)) {
-            target.getPlayer().sendMessage(msg.fmt("pay.received", Map.of(
+            target.getPlayer().sendMessage(msg.component("pay.received", Map.of(
                     "received", msg.moneyWithCurrency(received),
                     "player", fromPlayer.getName()
             )));
@@ -483,45 +518,34 @@ public final class PipouMoneyCommand implements CommandExecutor {
 
         if (bcfg.onlyOnline()) {
             List<UUID> online = Bukkit.getOnlinePlayers().stream().map(Player::getUniqueId).collect(Collectors.toList());
-            var rows = c.accounts().topOnline(bcfg, online, n);
-
-            p.sendMessage(msg.fmt("top.header", Map.of(
-                    "count", String.valueOf(rows.size()),
-                    "onlyOnline", String.valueOf(true),
-                    "showUuid", String.valueOf(bcfg.showUuid())
-            )));
-
-            for (int i = 0; i < rows.size(); i++) {
-                var r = rows.get(i);
-                p.sendMessage(msg.fmt("top.line", Map.of(
-                        "rank", String.valueOf(i + 1),
-                        "player", r.displayName(),
-                        "amount", msg.moneyWithCurrency(r.balance())
-                )));
-            }
+            topLines(msg, bcfg, c.accounts().topOnline(bcfg, online, n), true).forEach(p::sendMessage);
             return;
         }
 
-        try {
-            var rows = c.accounts().topDb(bcfg, n);
+        int limit = n;
+        pipeline.submit(p, msg,
+                () -> c.accounts().topDb(bcfg, limit),
+                rows -> topLines(msg, bcfg, rows, false));
+    }
 
-            p.sendMessage(msg.fmt("top.header", Map.of(
-                    "count", String.valueOf(rows.size()),
-                    "onlyOnline", String.valueOf(false),
-                    "showUuid", String.valueOf(bcfg.showUuid())
-            )));
+    private static List<Component> topLines(Messages msg, PluginConfig.Balances bcfg,
+                                            List<AccountService.DisplayRow> rows, boolean onlyOnline) {
+        var out = new ArrayList<Component>(rows.size() + 1);
+        out.add(msg.component("top.header", Map.of(
+                "count", String.valueOf(rows.size()),
+                "onlyOnline", String.valueOf(onlyOnline),
+                "showUuid", String.valueOf(bcfg.showUuid())
+        )));
 
-            for (int i = 0; i < rows.size(); i++) {
-                var r = rows.get(i);
-                p.sendMessage(msg.fmt("top.line", Map.of(
-                        "rank", String.valueOf(i + 1),
-                        "player", r.displayName(),
-                        "amount", msg.moneyWithCurrency(r.balance())
-                )));
-            }
-        } catch (Exception e) {
-            p.sendMessage(msg.get("generic.db_error"));
+        for (int i = 0; i < rows.size(); i++) {
+            var r = rows.get(i);
+            out.add(msg.component("top.line", Map.of(
+                    "rank", String.valueOf(i + 1),
+                    "player", r.displayName(),
+                    "amount", msg.moneyWithCurrency(r.balance())
+            )));
         }
+        return out;
     }
 
     private void history(Player p, Ctx c) {
@@ -529,20 +553,20 @@ public final class PipouMoneyCommand implements CommandExecutor {
         var cfg = c.cfg();
 
         if (!cfg.audit().enabled() || !plugin.audit().isEnabled()) {
-            p.sendMessage(msg.get("generic.audit_disabled"));
+            p.sendMessage(msg.component("generic.audit_disabled"));
             return;
         }
 
         List<String> a = c.args();
         if (a.size() < 2 || !a.get(1).equalsIgnoreCase("me")) {
-            p.sendMessage(msg.fmt("usage.history", Map.of("label", c.label())));
+            p.sendMessage(msg.component("usage.history", Map.of("label", c.label())));
             return;
         }
 
         int page = parseInt(a.size() >= 3 ? a.get(2) : null).orElse(1);
         page = Math.max(1, page);
 
-        AuditRepository.Query q = new AuditRepository.Query(
+        AuditStore.Query q = new AuditStore.Query(
                 p.getUniqueId(),
                 null,
                 null,
@@ -554,7 +578,7 @@ public final class PipouMoneyCommand implements CommandExecutor {
                 cfg.player().historyMaxResults()
         );
 
-        runHistoryAsync(p, c, q, true);
+        runHistoryAsync(p, c, q, true, false);
     }
 
     private void adminRoot(Player p, Ctx c) {
@@ -574,17 +598,15 @@ public final class PipouMoneyCommand implements CommandExecutor {
             case "reload" -> {
                 if (!requirePerm(p, c, PERM_PREFIX + "admin.reload")) return;
                 plugin.reloadAll();
-                p.sendMessage(msg.get("admin.reloaded"));
-                if (!plugin.cfg().autosaveEnabled()) p.sendMessage(msg.get("admin.autosave_disabled"));
+                p.sendMessage(msg.component("admin.reloaded"));
+                if (!plugin.cfg().autosaveEnabled()) p.sendMessage(msg.component("admin.autosave_disabled"));
             }
             case "save" -> {
                 if (!requirePerm(p, c, PERM_PREFIX + "admin.save")) return;
-                try {
-                    plugin.accounts().flushDirty();
-                    p.sendMessage(msg.get("admin.saved"));
-                } catch (Exception e) {
-                    p.sendMessage(msg.get("generic.db_error"));
-                }
+                pipeline.submit(p, msg, () -> {
+                    plugin.recordFlush(plugin.accounts().flushDirty(plugin.cfg().flushChunkSize()));
+                    return true;
+                }, ok -> List.of(msg.component("admin.saved")));
             }
             case "health" -> {
                 if (!requirePerm(p, c, PERM_PREFIX + "admin.health")) return;
@@ -634,7 +656,15 @@ public final class PipouMoneyCommand implements CommandExecutor {
                 if (!requirePerm(p, c, PERM_PREFIX + "admin.purge")) return;
                 purge(p, c);
             }
-            default -> p.sendMessage(msg.fmt("generic.unknown", Map.of("label", c.label())));
+            case "export" -> {
+                if (!requirePerm(p, c, PERM_PREFIX + "admin.export")) return;
+                export(p, c);
+            }
+            case "archive" -> {
+                if (!requirePerm(p, c, PERM_PREFIX + "admin.archive")) return;
+                archive(p, c);
+            }
+            default -> p.sendMessage(msg.component("generic.unknown", Map.of("label", c.label())));
         }
     }
 
@@ -649,26 +679,26 @@ public final class PipouMoneyCommand implements CommandExecutor {
 
         if (args.size() < 4) {
             String usageKey = type.equals("GIVE") ? "usage.give" : "usage.take";
-            p.sendMessage(msg.fmt(usageKey, Map.of("label", c.label())));
+            p.sendMessage(msg.component(usageKey, Map.of("label", c.label())));
             return;
         }
 
         OfflinePlayer target = Bukkit.getOfflinePlayer(args.get(2));
         if (target == null || (!target.hasPlayedBefore() && !target.isOnline())) {
-            p.sendMessage(msg.get("generic.player_not_found"));
+            p.sendMessage(msg.component("generic.player_not_found"));
             return;
         }
 
         int dec = c.cfg().format().decimals();
         Double amountRaw = parseAmount(args.get(3)).orElse(null);
         Double amount = (amountRaw == null) ? null : MoneyUtil.round(amountRaw, dec);
-        if (amount == null || amount <= 0) { p.sendMessage(msg.get("economy.invalid_amount")); return; }
+        if (amount == null || amount <= 0) { p.sendMessage(msg.component("economy.invalid_amount")); return; }
 
         if (sign > 0) {
             c.accounts().add(target.getUniqueId(), amount);
         } else {
             if (!c.accounts().remove(target.getUniqueId(), amount)) {
-                p.sendMessage(msg.get("economy.not_enough"));
+                p.sendMessage(msg.component("economy.not_enough"));
                 return;
             }
         }
@@ -683,11 +713,11 @@ public final class PipouMoneyCommand implements CommandExecutor {
         var msg = c.msg();
         var args = c.args();
 
-        if (args.size() < 4) { p.sendMessage(msg.fmt("usage.set", Map.of("label", c.label()))); return; }
+        if (args.size() < 4) { p.sendMessage(msg.component("usage.set", Map.of("label", c.label()))); return; }
 
         OfflinePlayer target = Bukkit.getOfflinePlayer(args.get(2));
         if (target == null || (!target.hasPlayedBefore() && !target.isOnline())) {
-            p.sendMessage(msg.get("generic.player_not_found"));
+            p.sendMessage(msg.component("generic.player_not_found"));
             return;
         }
 
@@ -695,7 +725,7 @@ public final class PipouMoneyCommand implements CommandExecutor {
         Double amountRaw = parseAmount(args.get(3)).orElse(null);
         Double amount = (amountRaw == null) ? null : MoneyUtil.round(amountRaw, dec);
 
-        if (amount == null || amount < 0) { p.sendMessage(msg.get("economy.invalid_amount")); return; }
+        if (amount == null || amount < 0) { p.sendMessage(msg.component("economy.invalid_amount")); return; }
 
         c.accounts().set(target.getUniqueId(), amount);
         plugin.audit().logAsync("COMMAND", "SET", p.getUniqueId(), target.getUniqueId(), amount);
@@ -718,47 +748,38 @@ public final class PipouMoneyCommand implements CommandExecutor {
             int pages = Math.max(1, (int) Math.ceil(total / (double) cfg.perPage()));
             int current = Math.min(page, pages);
 
-            var rows = c.accounts().listOnlineBalances(cfg, online, current);
-
-            p.sendMessage(msg.fmt("balances.header", Map.of(
-                    "page", String.valueOf(current),
-                    "pages", String.valueOf(pages),
-                    "min", String.valueOf(cfg.min()),
-                    "sort", cfg.sort()
-            )));
-
-            rows.forEach(r -> p.sendMessage(msg.fmt("balances.line", Map.of(
-                    "player", r.displayName(),
-                    "amount", msg.moneyWithCurrency(r.balance())
-            ))));
-
-            p.sendMessage(msg.fmt("balances.footer", Map.of("label", c.label())));
+            var res = new BalancesPage(current, pages, c.accounts().listOnlineBalances(cfg, online, current));
+            balancesLines(msg, cfg, res, c.label()).forEach(p::sendMessage);
             return;
         }
 
-        try {
+        int wanted = page;
+        pipeline.submit(p, msg, () -> {
             int total = c.accounts().countBalancesDb(cfg.min());
             int pages = Math.max(1, (int) Math.ceil(total / (double) cfg.perPage()));
-            int current = Math.min(page, pages);
-
-            var rows = c.accounts().listBalancesDb(cfg, current);
+            int current = Math.min(wanted, pages);
+            return new BalancesPage(current, pages, c.accounts().listBalancesDb(cfg, current));
+        }, res -> balancesLines(msg, cfg, res, c.label()));
+    }
 
-            p.sendMessage(msg.fmt("balances.header", Map.of(
-                    "page", String.valueOf(current),
-                    "pages", String.valueOf(pages),
-                    "min", String.valueOf(cfg.min()),
-                    "sort", cfg.sort()
-            )));
+    private static List<Component> balancesLines(Messages msg, PluginConfig.Balances cfg, BalancesPage res, String label) {
+        var out = new ArrayList<Component>(res.rows().size() + 2);
+        out.add(msg.component("balances.header", Map.of(
+                "page", String.valueOf(res.page()),
+                "pages", String.valueOf(res.pages()),
+                "min", String.valueOf(cfg.min()),
+                "sort", cfg.sort()
+        )));
 
-            rows.forEach(r -> p.sendMessage(msg.fmt("balances.line", Map.of(
+        for (var r : res.rows()) {
+            out.add(msg.component("balances.line", Map.of(
                     "player", r.displayName(),
                     "amount", msg.moneyWithCurrency(r.balance())
-            ))));
-
-            p.sendMessage(msg.fmt("balances.footer", Map.of("label", c.label())));
-        } catch (Exception e) {
-            p.sendMessage(msg.get("generic.db_error"));
+            )));
         }
+
+        out.add(msg.component("balances.footer", Map.of("label", label)));
+        return out;
     }
 
     private void historyAdmin(Player p, Ctx c) {
@@ -766,14 +787,14 @@ public final class PipouMoneyCommand implements CommandExecutor {
         var cfg = c.cfg();
 
         if (!cfg.audit().enabled() || !plugin.audit().isEnabled()) {
-            p.sendMessage(msg.get("generic.audit_disabled"));
+            p.sendMessage(msg.component("generic.audit_disabled"));
             return;
         }
 
         List<String> a = c.args();
 
         if (a.size() < 3) {
-            p.sendMessage(msg.fmt("help.admin_history", Map.of("label", c.label())));
+            p.sendMessage(msg.component("help.admin_history", Map.of("label", c.label())));
             return;
         }
 
@@ -818,9 +839,12 @@ public final class PipouMoneyCommand implements CommandExecutor {
             else if (flaggedRaw.equalsIgnoreCase("false")) flagged = false;
         }
 
-        int useDays = (days == null) ? cfg.player().historyDaysLimit() : days;
+        boolean archive = "true".equalsIgnoreCase(flags.get("archive"));
+
+        // Archived rows are older than any sensible history limit, only an explicit --days cuts them.
+        Integer useDays = days != null ? days : (archive ? null : cfg.player().historyDaysLimit());
 
-        AuditRepository.Query q = new AuditRepository.Query(
+        AuditStore.Query q = new AuditStore.Query(
                 playerUuid,
                 source,
                 type,
@@ -832,45 +856,46 @@ public final class PipouMoneyCommand implements CommandExecutor {
                 cfg.player().historyMaxResults()
         );
 
-        runHistoryAsync(p, c, q, playerUuid != null && playerUuid.equals(p.getUniqueId()));
+        runHistoryAsync(p, c, q, playerUuid != null && playerUuid.equals(p.getUniqueId()), archive);
     }
 
 
-    private void runHistoryAsync(Player p, Ctx c, AuditRepository.Query q, boolean self) {
-        plugin.runAsync(() -> {
-            AuditRepository.Page res;
-            try { res = plugin.auditRepo().query(q); }
-            catch (Exception e) { res = new AuditRepository.Page(List.of(), q.page(), 1, 0); }
-
-            AuditRepository.Page finalRes = res;
-
-            Bukkit.getScheduler().runTask(plugin, () -> {
-                if (finalRes.total() <= 0) {
-                    p.sendMessage(c.msg().get("history.empty"));
-                    return;
-                }
+    private void runHistoryAsync(Player p, Ctx c, AuditStore.Query q, boolean self, boolean archive) {
+        Messages msg = c.msg();
+        pipeline.submit(p, msg, () -> {
+            long stamp = plugin.txCache().stamp();
+            AuditStore.Page res;
+            try { res = archive ? plugin.auditArchive().query(q) : plugin.auditStore().query(q); }
+            catch (Exception e) { res = new AuditStore.Page(List.of(), q.page(), 1, 0); }
+
+            plugin.txCache().putAll(res.rows(), stamp);
+            return new HistoryPage(res, playerTokens(res.rows()));
+        }, hp -> {
+            var res = hp.page();
+            if (res.total() <= 0) return List.of(msg.component("history.empty"));
+
+            var out = new ArrayList<Component>(res.rows().size() + 2);
+            out.add(msg.component(self ? "history.self_header" : "history.header", Map.of(
+                    "page", String.valueOf(res.page()),
+                    "pages", String.valueOf(res.pages())
+            )));
 
-                p.sendMessage(c.msg().fmt(self ? "history.self_header" : "history.header", Map.of(
-                        "page", String.valueOf(finalRes.page()),
-                        "pages", String.valueOf(finalRes.pages())
+            for (var tx : res.rows()) {
+                out.add(msg.component("history.line", Map.of(
+                        "id", String.valueOf(tx.id()),
+                        "date", DT.format(tx.at()),
+                        "source", tx.source(),
+                        "type", tx.type(),
+                        "actor", playerToken(tx.actor(), hp.tokens()),
+                        "target", playerToken(tx.target(), hp.tokens()),
+                        "amount", msg.moneyWithCurrency(tx.amount()),
+                        "flag", tx.adminFlagged() ? "§cFLAG" : "§aOK",
+                        "reason", tx.flagReason() == null ? "" : tx.flagReason()
                 )));
+            }
 
-                for (var tx : finalRes.rows()) {
-                    p.sendMessage(c.msg().fmt("history.line", Map.of(
-                            "id", String.valueOf(tx.id()),
-                            "date", DT.format(tx.at()),
-                            "source", tx.source(),
-                            "type", tx.type(),
-                            "actor", playerToken(tx.actor()),
-                            "target", playerToken(tx.target()),
-                            "amount", c.msg().moneyWithCurrency(tx.amount()),
-                            "flag", tx.adminFlagged() ? "§cFLAG" : "§aOK",
-                            "reason", tx.flagReason() == null ? "" : tx.flagReason()
-                    )));
-                }
-
-                p.sendMessage(c.msg().fmt("history.footer", Map.of("label", c.label())));
-            });
+            out.add(msg.component("history.footer", Map.of("label", c.label())));
+            return out;
         });
     }
 
@@ -893,31 +918,33 @@ public final class PipouMoneyCommand implements CommandExecutor {
 
         final long fid = id;
 
-        plugin.runAsync(() -> {
-            Optional<AuditRepository.Tx> opt;
-            try { opt = plugin.auditRepo().getById(fid); }
-            catch (Exception e) { opt = Optional.empty(); }
-
-            final Optional<AuditRepository.Tx> finalOpt = opt;
-
-            Bukkit.getScheduler().runTask(plugin, () -> {
-                if (finalOpt.isEmpty()) {
-                    fp.sendMessage("§cTransaction not found.");
-                    return;
-                }
-                var tx = finalOpt.get();
-                fp.sendMessage("§6=== TX #" + tx.id() + " ===");
-                fp.sendMessage("§7At: §f" + DT.format(tx.at()));
-                fp.sendMessage("§7Type: §f" + tx.source() + "/" + tx.type());
-                fp.sendMessage("§7Actor: §f" + playerToken(tx.actor()));
-                fp.sendMessage("§7Target: §f" + playerToken(tx.target()));
-                fp.sendMessage("§7Amount: §e" + fc.msg().moneyWithCurrency(tx.amount()));
-                fp.sendMessage("§7Flagged: " + (tx.adminFlagged() ? "§cYES" : "§aNO"));
-                if (tx.adminFlagged()) {
-                    fp.sendMessage("§7Reason: §f" + (tx.flagReason() == null ? "" : tx.flagReason()));
-                    fp.sendMessage("§7FlaggedBy: §f" + playerToken(tx.flaggedBy()));
-                }
-            });
+        pipeline.submit(fp, fc.msg(), () -> {
+            Optional<AuditStore.Tx> opt = plugin.txCache().get(fid);
+            if (opt.isEmpty()) {
+                long stamp = plugin.txCache().stamp();
+                opt = plugin.auditStore().getById(fid);
+                if (opt.isEmpty()) opt = plugin.auditArchive().findById(fid);
+                opt.ifPresent(tx -> plugin.txCache().put(tx, stamp));
+            }
+            return new TxView(opt, opt.map(tx -> playerTokens(List.of(tx))).orElse(Map.of()));
+        }, view -> {
+            var opt = view.tx();
+            if (opt.isEmpty()) return List.<Component>of(LEGACY.deserialize("§cTransaction not found."));
+
+            var tx = opt.get();
+            var lines = new ArrayList<String>(9);
+            lines.add("§6=== TX #" + tx.id() + " ===");
+            lines.add("§7At: §f" + DT.format(tx.at()));
+            lines.add("§7Type: §f" + tx.source() + "/" + tx.type());
+            lines.add("§7Actor: §f" + playerToken(tx.actor(), view.tokens()));
+            lines.add("§7Target: §f" + playerToken(tx.target(), view.tokens()));
+            lines.add("§7Amount: §e" + fc.msg().moneyWithCurrency(tx.amount()));
+            lines.add("§7Flagged: " + (tx.adminFlagged() ? "§cYES" : "§aNO"));
+            if (tx.adminFlagged()) {
+                lines.add("§7Reason: §f" + (tx.flagReason() == null ? "" : tx.flagReason()));
+                lines.add("§7FlaggedBy: §f" + playerToken(tx.flaggedBy(), view.tokens()));
+            }
+            return lines.stream().<Component>map(LEGACY::deserialize).toList();
         });
     }
 
@@ -946,12 +973,7 @@ public final class PipouMoneyCommand implements CommandExecutor {
         final String freason = reason;
         final UUID fadmin = fp.getUniqueId();
 
-        plugin.runAsync(() -> {
-            try { plugin.auditRepo().flag(fid, fadmin, freason); }
-            catch (Exception ignored) {}
-
-            Bukkit.getScheduler().runTask(plugin, () -> fp.sendMessage("§aFlagged TX #" + fid + "."));
-        });
+        changeFlag(fp, fc, fid, () -> plugin.auditStore().flag(fid, fadmin, freason), "§aFlagged TX #" + fid + ".");
     }
 
     private void adminTxUnflag(Player p, Ctx c) {
@@ -974,12 +996,30 @@ public final class PipouMoneyCommand implements CommandExecutor {
         final long fid = id;
         final UUID fadmin = fp.getUniqueId();
 
-        plugin.runAsync(() -> {
-            try { plugin.auditRepo().unflag(fid, fadmin); }
-            catch (Exception ignored) {}
+        changeFlag(fp, fc, fid, () -> plugin.auditStore().unflag(fid, fadmin), "§aUnflagged TX #" + fid + ".");
+    }
 
-            Bukkit.getScheduler().runTask(plugin, () -> fp.sendMessage("§aUnflagged TX #" + fid + "."));
-        });
+    private enum FlagChange { DONE, ARCHIVED, NOT_FOUND }
+
+    @FunctionalInterface
+    private interface StoreWrite {
+        void run() throws Exception;
+    }
+
+    // Archived segments are read-only, a flag change on one of their ids is reported instead of ignored.
+    private void changeFlag(Player p, Ctx c, long id, StoreWrite write, String done) {
+        pipeline.submit(p, c.msg(), () -> {
+            if (plugin.auditStore().getById(id).isEmpty()) {
+                return plugin.auditArchive().findById(id).isPresent() ? FlagChange.ARCHIVED : FlagChange.NOT_FOUND;
+            }
+            write.run();
+            plugin.txCache().invalidate(id);
+            return FlagChange.DONE;
+        }, r -> List.<Component>of(LEGACY.deserialize(switch (r) {
+            case DONE -> done;
+            case ARCHIVED -> "§cTX #" + id + " is archived and cannot be changed.";
+            case NOT_FOUND -> "§cTransaction not found.";
+        })));
     }
 
 
@@ -990,19 +1030,20 @@ public final class PipouMoneyCommand implements CommandExecutor {
         var msg = fc.msg();
 
         int days = (fc.args().size() >= 3) ? parseInt(fc.args().get(2)).orElse(-1) : -1;
-        if (days <= 0) { fp.sendMessage(msg.fmt("usage.purge", Map.of("label", fc.label()))); return; }
+        if (days <= 0) { fp.sendMessage(msg.component("usage.purge", Map.of("label", fc.label()))); return; }
 
         final int fdays = days;
 
         plugin.runAsync(() -> {
             int deleted;
-            try { deleted = plugin.auditRepo().purgeOlderThanDays(fdays); }
+            try { deleted = plugin.auditStore().purgeOlderThanDays(fdays); }
             catch (Exception ignored) { deleted = 0; }
+            plugin.txCache().clear();
 
             final int fdeleted = deleted;
 
             Bukkit.getScheduler().runTask(plugin, () -> fp.sendMessage(
-                    msg.fmt("audit.purge_done", Map.of(
+                    msg.component("audit.purge_done", Map.of(
                             "deleted", String.valueOf(fdeleted),
                             "days", String.valueOf(fdays)
                     ))
@@ -1011,10 +1052,113 @@ public final class PipouMoneyCommand implements CommandExecutor {
     }
 
 
+    private void archive(Player p, Ctx c) {
+        final Player fp = p;
+        var msg = c.msg();
+        var acfg = c.cfg().audit();
+
+        if (!acfg.enabled() || !plugin.audit().isEnabled()) {
+            fp.sendMessage(msg.component("generic.audit_disabled"));
+            return;
+        }
+
+        int days = (c.args().size() >= 3) ? parseInt(c.args().get(2)).orElse(-1) : acfg.archiveOlderThanDays();
+        if (days <= 0) { fp.sendMessage(msg.component("usage.archive", Map.of("label", c.label()))); return; }
+
+        boolean started = plugin.auditArchive().archiveAsync(
+                days,
+                acfg.archiveSegmentRows(),
+                r -> Bukkit.getScheduler().runTask(plugin, () -> fp.sendMessage(msg.component("archive.done", Map.of(
+                        "rows", String.valueOf(r.rows()),
+                        "segments", String.valueOf(r.segments()),
+                        "days", String.valueOf(days),
+                        "duration", String.valueOf(r.durationMs())
+                )))),
+                e -> Bukkit.getScheduler().runTask(plugin, () -> fp.sendMessage(msg.component("archive.failed", Map.of(
+                        "error", String.valueOf(e.getMessage())
+                ))))
+        );
+
+        if (!started) {
+            fp.sendMessage(msg.component("archive.busy"));
+            return;
+        }
+        fp.sendMessage(msg.component("archive.started", Map.of("days", String.valueOf(days))));
+    }
+
+    private void export(Player p, Ctx c) {
+        final Player fp = p;
+        var msg = c.msg();
+
+        if (!c.cfg().audit().enabled() || !plugin.audit().isEnabled()) {
+            fp.sendMessage(msg.component("generic.audit_disabled"));
+            return;
+        }
+
+        List<String> a = c.args();
+        List<String> tail = a.subList(Math.min(2, a.size()), a.size());
+
+        UUID playerUuid = null;
+        int idx = 0;
+        if (idx < tail.size() && !tail.get(idx).startsWith("--")) {
+            String maybePlayer = tail.get(idx);
+            if (!maybePlayer.equals("*") && !maybePlayer.equalsIgnoreCase("all")) {
+                OfflinePlayer op = Bukkit.getOfflinePlayer(maybePlayer);
+                if (op == null || (!op.hasPlayedBefore() && !op.isOnline())) {
+                    fp.sendMessage(msg.component("generic.player_not_found"));
+                    return;
+                }
+                playerUuid = op.getUniqueId();
+            }
+            idx++;
+        }
+
+        Map<String, String> flags = parseFlags(tail.subList(idx, tail.size()));
+
+        Integer days = null;
+        if (flags.containsKey("days")) {
+            days = parseInt(flags.get("days")).orElse(-1);
+            if (days <= 0) { fp.sendMessage(msg.component("usage.export", Map.of("label", c.label()))); return; }
+        }
+
+        AuditExportService.Format format = AuditExportService.parseFormat(flags.get("format"));
+        if (format == null) { fp.sendMessage(msg.component("usage.export", Map.of("label", c.label()))); return; }
+
+        var acfg = c.cfg().audit();
+        var req = new AuditExportService.Request(playerUuid, days, format);
+
+        boolean started = plugin.auditExport().exportAsync(
+                req,
+                acfg.exportFetchSize(),
+                acfg.exportProgressEvery(),
+                rows -> Bukkit.getScheduler().runTask(plugin, () -> fp.sendMessage(msg.component("export.progress", Map.of(
+                        "rows", String.valueOf(rows)
+                )))),
+                res -> Bukkit.getScheduler().runTask(plugin, () -> fp.sendMessage(msg.component("export.done", Map.of(
+                        "rows", String.valueOf(res.rows()),
+                        "file", res.file().getName(),
+                        "size", String.valueOf(res.bytes() / 1024L),
+                        "duration", String.valueOf(res.durationMs())
+                )))),
+                e -> Bukkit.getScheduler().runTask(plugin, () -> fp.sendMessage(msg.component("export.failed", Map.of(
+                        "error", String.valueOf(e.getMessage())
+                ))))
+        );
+
+        if (!started) {
+            fp.sendMessage(msg.component("export.busy"));
+            return;
+        }
+
+        fp.sendMessage(msg.component("export.started", Map.of(
+                "format", format.name(),
+                "days", days == null ? "all" : String.valueOf(days)
+        )));
+    }
 
     private void health(Player p, Ctx c) {
         var msg = c.msg();
-        boolean dbOk = plugin.db() != null && plugin.db().isOpen();
+        boolean dbOk = plugin.storage() != null && plugin.storage().isOpen();
 
         boolean vaultOk = Bukkit.getPluginManager().getPlugin("Vault") != null &&
                 Bukkit.getServicesManager().getRegistration(Economy.class) != null;
@@ -1023,24 +1167,95 @@ public final class PipouMoneyCommand implements CommandExecutor {
         int idx = c.cfg().health().tpsSample();
         double tps = (idx >= 0 && idx < tpsArr.length) ? tpsArr[idx] : tpsArr[0];
 
-        p.sendMessage(msg.get("health.header"));
-        p.sendMessage(msg.fmt("health.db", Map.of("state", dbOk ? "§aOK" : "§cKO")));
-        p.sendMessage(msg.fmt("health.vault", Map.of("state", vaultOk ? "§aOK" : "§cKO")));
-        p.sendMessage(msg.fmt("health.tps", Map.of("tps", String.format(Locale.US, "%.2f", tps))));
+        p.sendMessage(msg.component("health.header"));
+        p.sendMessage(msg.component("health.db", Map.of("state", dbOk ? "§aOK" : "§cKO")));
+        if (plugin.storage() instanceof JdbcStorageEngine jdbc && jdbc.database().replica() != null) {
+            var replica = jdbc.database().replica();
+            p.sendMessage(msg.component("health.replica", Map.of(
+                    "state", replica.isReplicaUp() ? "§aOK" : "§eFALLBACK",
+                    "fallbacks", String.valueOf(replica.fallbacks())
+            )));
+        }
+        var breaker = plugin.breaker();
+        if (breaker != null) {
+            var state = breaker.state();
+            p.sendMessage(msg.component("health.breaker", Map.of(
+                    "state", switch (state) {
+                        case CLOSED -> "§aCLOSED";
+                        case HALF_OPEN -> "§eHALF_OPEN";
+                        case OPEN -> "§cOPEN";
+                    },
+                    "failures", String.valueOf(breaker.failures()),
+                    "retry", String.valueOf((breaker.retryInMs() + 999) / 1000)
+            )));
+            var lat = breaker.latency();
+            p.sendMessage(msg.component("health.latency", Map.of(
+                    "p50", String.format(Locale.US, "%.1f", lat.p50Ms()),
+                    "p95", String.format(Locale.US, "%.1f", lat.p95Ms()),
+                    "p99", String.format(Locale.US, "%.1f", lat.p99Ms()),
+                    "calls", String.valueOf(lat.samples())
+            )));
+            p.sendMessage(msg.component("health.buffered", Map.of(
+                    "accounts", String.valueOf(plugin.accounts().dirtySize()),
+                    "transactions", String.valueOf(plugin.audit().buffered()),
+                    "dropped", String.valueOf(plugin.audit().dropped())
+            )));
+        }
+        p.sendMessage(msg.component("health.vault", Map.of("state", vaultOk ? "§aOK" : "§cKO")));
+        p.sendMessage(msg.component("health.tps", Map.of("tps", String.format(Locale.US, "%.2f", tps))));
     }
 
     private void stats(Player p, Ctx c) {
         var msg = c.msg();
-        p.sendMessage(msg.get("stats.header"));
-        p.sendMessage(msg.fmt("stats.dirty", Map.of("dirty", String.valueOf(plugin.accounts().dirtySize()))));
-        p.sendMessage(msg.fmt("stats.flush_queued", Map.of("queued", String.valueOf(plugin.isFlushQueued()))));
-        p.sendMessage(msg.fmt("stats.last_flush", Map.of(
+        p.sendMessage(msg.component("stats.header"));
+        p.sendMessage(msg.component("stats.dirty", Map.of("dirty", String.valueOf(plugin.accounts().dirtySize()))));
+        p.sendMessage(msg.component("stats.flush_queued", Map.of("queued", String.valueOf(plugin.isFlushQueued()))));
+        var lf = plugin.lastFlush();
+        p.sendMessage(msg.component("stats.last_flush", Map.of(
                 "when", plugin.formattedLastFlush(),
-                "duration", String.valueOf(plugin.lastFlushDurationMs())
+                "duration", String.valueOf(plugin.lastFlushDurationMs()),
+                "rows", String.valueOf(lf.rows()),
+                "chunks", String.valueOf(lf.chunks()),
+                "slowest", String.valueOf(lf.slowestChunkMs())
         )));
-        p.sendMessage(msg.fmt("stats.autosave", Map.of(
+        // {minutes} is what messages.yml files written before the flush scheduler still use.
+        int staleness = c.cfg().flushMaxStalenessSeconds();
+        p.sendMessage(msg.component("stats.autosave", Map.of(
                 "enabled", String.valueOf(plugin.autosaveEnabled()),
-                "minutes", String.valueOf(plugin.autosaveMinutes())
+                "seconds", String.valueOf(staleness),
+                "minutes", String.valueOf((staleness + 59) / 60)
+        )));
+        var fs = plugin.flushScheduler().snapshot(System.currentTimeMillis());
+        p.sendMessage(msg.component("stats.scheduler", Map.of(
+                "decision", fs.decision().name(),
+                "chunk", String.valueOf(fs.chunkSize()),
+                "gap", String.valueOf(fs.minGapMs()),
+                "rate", String.format(Locale.US, "%.1f", fs.dirtyPerSecond()),
+                "age", String.valueOf(fs.oldestDirtyMs() / 1000L)
+        )));
+
+        var sync = plugin.accountSync();
+        p.sendMessage(msg.component("stats.sync", Map.of(
+                "enabled", String.valueOf(plugin.cfg().sync().enabled()),
+                "seq", String.valueOf(sync.lastSeen()),
+                "applied", String.valueOf(sync.applied())
+        )));
+
+        var tc = plugin.txCache();
+        p.sendMessage(msg.component("stats.tx_cache", Map.of(
+                "size", String.valueOf(tc.size()),
+                "hits", String.valueOf(tc.hits()),
+                "misses", String.valueOf(tc.misses()),
+                "rate", String.format(Locale.US, "%.1f", tc.hitRate())
+        )));
+
+        var wheel = plugin.expiry();
+        p.sendMessage(msg.component("stats.expiry", Map.of(
+                "tables", wheel.counts().entrySet().stream()
+                        .map(e -> e.getKey() + "=" + e.getValue())
+                        .collect(Collectors.joining(", ")),
+                "scheduled", String.valueOf(wheel.scheduled()),
+                "evicted", String.valueOf(wheel.evicted())
         )));
     }
 
@@ -1057,7 +1272,7 @@ public final class PipouMoneyCommand implements CommandExecutor {
             }
         }
 
-        p.sendMessage(c.msg().fmt("version.line", Map.of(
+        p.sendMessage(c.msg().component("version.line", Map.of(
                 "version", plugin.getDescription().getVersion(),
                 "provider", provider,
                 "plugin", pluginName
@@ -1102,10 +1317,23 @@ public final class PipouMoneyCommand implements CommandExecutor {
         return p.getName() != null ? p.getName() : fallback;
     }
 
-    private static String playerToken(UUID uuid) {
+    // Every actor, target and flagger of the rows resolved in one batch, formatted once per uuid.
+    private Map<UUID, String> playerTokens(List<AuditStore.Tx> rows) {
+        var uuids = new HashSet<UUID>();
+        for (var tx : rows) {
+            uuids.add(tx.actor());
+            uuids.add(tx.target());
+            uuids.add(tx.flaggedBy());
+        }
+
+        var tokens = new HashMap<UUID, String>();
+        plugin.accounts().namesOf(uuids).forEach((uuid, name) -> tokens.put(uuid, name + " §8(" + uuid + "§8)"));
+        return tokens;
+    }
+
+    private static String playerToken(UUID uuid, Map<UUID, String> tokens) {
         if (uuid == null) return "§7SYSTEM";
-        OfflinePlayer op = Bukkit.getOfflinePlayer(uuid);
-        String name = (op != null && op.getName() != null && !op.getName().isBlank()) ? op.getName() : uuid.toString();
-        return name + " §8(" + uuid + "§8)";
+        String token = tokens.get(uuid);
+        return token != null ? token : uuid + " §8(" + uuid + "§8)";
     }
 }
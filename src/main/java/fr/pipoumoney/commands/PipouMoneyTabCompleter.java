@@ -1,15 +1,20 @@
 package fr.pipoumoney.commands;
 
 import fr.pipoumoney.PipouMoney;
-import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 
 import java.util.*;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Completions for /money, /bal, /pay and /baltop. Every suggestion list is built once, sorted and
+ * immutable (the admin subcommands once per audit permission combination), online names come
+ * from the plugin's {@link fr.pipoumoney.services.OnlineNameIndex}, so a keystroke only filters.
+ * On Paper this is called from the async tab completion event, elsewhere from the main thread.
+ */
 public final class PipouMoneyTabCompleter implements TabCompleter {
 
     private static final String PERM_PREFIX = "pipoumoney.";
@@ -28,7 +33,41 @@ public final class PipouMoneyTabCompleter implements TabCompleter {
             "SUSPICIOUS",
             "REFUND",
             "OTHER"
+    ).stream().sorted().toList();
+
+    private static final List<String> CONFIRM = List.of("confirm");
+    private static final List<String> ALL = List.of("*");
+    private static final List<String> AMOUNT = List.of("<amount>");
+    private static final List<String> PAGES = List.of("1", "2", "3", "4", "5");
+    private static final List<String> TOP_SIZES = sorted("10", "20", "50", "100");
+    private static final List<String> ARCHIVE_DAYS = sorted("90", "180", "365");
+    private static final List<String> PURGE_DAYS = sorted("7", "14", "30", "90", "180");
+    private static final List<String> SETTINGS = sorted("notify", "lock");
+    private static final List<String> ADMIN_MONEY = List.of("give", "take", "set");
+
+    private static final List<String> ROOT_USER = sorted("help", "settings", "bal", "pay", "top", "version");
+    private static final List<String> ROOT_ADMIN = sorted("help", "settings", "bal", "pay", "top", "version", "admin");
+
+    private static final List<String> HISTORY_FLAGS = sorted(
+            "--days=",
+            "--min=",
+            "--source=",
+            "--type=",
+            "--flagged=true",
+            "--flagged=false",
+            "--archive=true"
     );
+    private static final List<String> EXPORT_FLAGS = sorted("--days=", "--format=csv", "--format=ndjson");
+
+    // Indexed by the audit permission bits: view = 1, flag = 2, unflag = 4.
+    private static final List<List<String>> ADMIN_SUBS = adminSubs();
+
+    private static final long RECENT_IDS_TTL_MS = 5_000L;
+
+    private record RecentIds(List<String> ids, long loadedAtMs) {}
+
+    private volatile RecentIds recentIds = new RecentIds(List.of(), 0L);
+    private final AtomicBoolean reloadingIds = new AtomicBoolean(false);
 
     private final PipouMoney plugin;
 
@@ -39,7 +78,10 @@ public final class PipouMoneyTabCompleter implements TabCompleter {
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         if (!(sender instanceof Player p)) return List.of();
+        return complete(p, alias, args);
+    }
 
+    public List<String> complete(Player p, String alias, String[] args) {
         String label = (alias == null) ? "" : alias.toLowerCase(Locale.ROOT);
 
         if (label.equals("bal")) {
@@ -48,30 +90,26 @@ public final class PipouMoneyTabCompleter implements TabCompleter {
         }
 
         if (label.equals("pay")) {
-            if (args.length == 1) {
-                return filterPrefix(merge(onlineNames(args[0]), List.of("confirm")), args[0]);
-            }
-            if (args.length == 2) return List.of("<amount>");
+            if (args.length == 1) return namesAnd(CONFIRM, args[0]);
+            if (args.length == 2) return AMOUNT;
             return List.of();
         }
 
         if (label.equals("baltop")) {
-            if (args.length == 1) return filterPrefix(List.of("10", "20", "50", "100"), args[0]);
+            if (args.length == 1) return filterPrefix(TOP_SIZES, args[0]);
             return List.of();
         }
 
         if (!p.hasPermission(PERM_PREFIX + "use")) return List.of();
 
         if (args.length == 1) {
-            List<String> base = new ArrayList<>(List.of("help", "settings", "bal", "pay", "top", "version"));
-            if (p.hasPermission(PERM_ADMIN)) base.add("admin");
-            return filterPrefix(base, args[0]);
+            return filterPrefix(p.hasPermission(PERM_ADMIN) ? ROOT_ADMIN : ROOT_USER, args[0]);
         }
 
         String sub = args[0].toLowerCase(Locale.ROOT);
 
         if (sub.equals("settings")) {
-            if (args.length == 2) return filterPrefix(List.of("notify", "lock"), args[1]);
+            if (args.length == 2) return filterPrefix(SETTINGS, args[1]);
             return List.of();
         }
 
@@ -81,13 +119,13 @@ public final class PipouMoneyTabCompleter implements TabCompleter {
         }
 
         if (sub.equals("pay")) {
-            if (args.length == 2) return filterPrefix(merge(onlineNames(args[1]), List.of("confirm")), args[1]);
-            if (args.length == 3) return List.of("<amount>");
+            if (args.length == 2) return namesAnd(CONFIRM, args[1]);
+            if (args.length == 3) return AMOUNT;
             return List.of();
         }
 
         if (sub.equals("top")) {
-            if (args.length == 2) return filterPrefix(List.of("10", "20", "50", "100"), args[1]);
+            if (args.length == 2) return filterPrefix(TOP_SIZES, args[1]);
             return List.of();
         }
 
@@ -95,57 +133,50 @@ public final class PipouMoneyTabCompleter implements TabCompleter {
             if (!p.hasPermission(PERM_ADMIN)) return List.of();
 
             if (args.length == 2) {
-                List<String> subs = new ArrayList<>(List.of(
-                        "give", "take", "set",
-                        "history", "balances", "top",
-                        "reload", "save", "health", "stats",
-                        "purge"
-                ));
-
-                if (p.hasPermission(PERM_AUDIT_VIEW)) subs.add("tx");
-                if (p.hasPermission(PERM_AUDIT_FLAG)) subs.add("flag");
-                if (p.hasPermission(PERM_AUDIT_UNFLAG)) subs.add("unflag");
-
-                return filterPrefix(subs, args[1]);
+                int tier = (p.hasPermission(PERM_AUDIT_VIEW) ? 1 : 0)
+                        | (p.hasPermission(PERM_AUDIT_FLAG) ? 2 : 0)
+                        | (p.hasPermission(PERM_AUDIT_UNFLAG) ? 4 : 0);
+                return filterPrefix(ADMIN_SUBS.get(tier), args[1]);
             }
 
             String a2 = args[1].toLowerCase(Locale.ROOT);
 
-            if (Set.of("give", "take", "set").contains(a2)) {
+            if (ADMIN_MONEY.contains(a2)) {
                 if (args.length == 3) return onlineNames(args[2]);
-                if (args.length == 4) return List.of("<amount>");
+                if (args.length == 4) return AMOUNT;
                 return List.of();
             }
 
             if (a2.equals("history")) {
-                if (args.length == 3) return filterPrefix(merge(onlineNames(args[2]), List.of("*")), args[2]);
-                if (args.length == 4) return List.of("1", "2", "3", "4", "5");
-                if (args.length >= 5) {
-                    List<String> flags = List.of(
-                            "--days=",
-                            "--min=",
-                            "--source=",
-                            "--type=",
-                            "--flagged=true",
-                            "--flagged=false"
-                    );
-                    return filterPrefix(flags, args[args.length - 1]);
-                }
+                if (args.length == 3) return namesAnd(ALL, args[2]);
+                if (args.length == 4) return PAGES;
+                if (args.length >= 5) return filterPrefix(HISTORY_FLAGS, args[args.length - 1]);
+                return List.of();
+            }
+
+            if (a2.equals("export")) {
+                if (args.length == 3) return namesAnd(ALL, args[2]);
+                if (args.length >= 4) return filterPrefix(EXPORT_FLAGS, args[args.length - 1]);
                 return List.of();
             }
 
             if (a2.equals("balances")) {
-                if (args.length == 3) return List.of("1", "2", "3", "4", "5");
+                if (args.length == 3) return PAGES;
                 return List.of();
             }
 
             if (a2.equals("top")) {
-                if (args.length == 3) return filterPrefix(List.of("10", "20", "50", "100"), args[2]);
+                if (args.length == 3) return filterPrefix(TOP_SIZES, args[2]);
+                return List.of();
+            }
+
+            if (a2.equals("archive")) {
+                if (args.length == 3) return filterPrefix(ARCHIVE_DAYS, args[2]);
                 return List.of();
             }
 
             if (a2.equals("purge")) {
-                if (args.length == 3) return filterPrefix(List.of("7", "14", "30", "90", "180"), args[2]);
+                if (args.length == 3) return filterPrefix(PURGE_DAYS, args[2]);
                 return List.of();
             }
 
@@ -172,39 +203,84 @@ public final class PipouMoneyTabCompleter implements TabCompleter {
         return List.of();
     }
 
+    // Completion fires on every keystroke, possibly off the main thread: it never waits on the
+    // database, an outdated list is answered while a reload runs in the background.
     private List<String> recentTxIds() {
+        RecentIds r = recentIds;
+        if (System.currentTimeMillis() - r.loadedAtMs() >= RECENT_IDS_TTL_MS && reloadingIds.compareAndSet(false, true)) {
+            plugin.runAsync(this::reloadRecentTxIds);
+        }
+        return r.ids();
+    }
+
+    private void reloadRecentTxIds() {
         try {
-            return plugin.auditRepo()
+            var ids = plugin.auditStore()
                     .recentIds(50)
                     .stream()
                     .map(String::valueOf)
-                    .collect(Collectors.toList());
+                    .sorted()
+                    .toList();
+            recentIds = new RecentIds(ids, System.currentTimeMillis());
         } catch (Exception e) {
-            return List.of();
+            // Keep the old ids, the next reload waits for the ttl again.
+            recentIds = new RecentIds(recentIds.ids(), System.currentTimeMillis());
+        } finally {
+            reloadingIds.set(false);
         }
     }
 
-    private static List<String> onlineNames(String prefix) {
-        String p = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
-        return Bukkit.getOnlinePlayers().stream()
-                .map(Player::getName)
-                .filter(n -> n.toLowerCase(Locale.ROOT).startsWith(p))
-                .sorted()
-                .collect(Collectors.toList());
+    private List<String> onlineNames(String prefix) {
+        return plugin.onlineNames().startingWith(prefix);
+    }
+
+    private List<String> namesAnd(List<String> extra, String prefix) {
+        List<String> names = onlineNames(prefix);
+        List<String> more = filterPrefix(extra, prefix);
+        if (more.isEmpty()) return names;
+        if (names.isEmpty()) return more;
+
+        List<String> out = new ArrayList<>(names.size() + more.size());
+        out.addAll(names);
+        out.addAll(more);
+        return out;
     }
 
     private static List<String> filterPrefix(List<String> items, String prefix) {
-        String p = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
-        return items.stream()
-                .filter(s -> s.toLowerCase(Locale.ROOT).startsWith(p))
-                .distinct()
-                .sorted()
-                .toList();
+        if (prefix == null || prefix.isEmpty()) return items;
+        String p = prefix.toLowerCase(Locale.ROOT);
+
+        // The shared list itself while everything matches, a copy from the first miss on.
+        List<String> out = null;
+        for (int i = 0; i < items.size(); i++) {
+            boolean match = items.get(i).regionMatches(true, 0, p, 0, p.length());
+            if (out != null) {
+                if (match) out.add(items.get(i));
+            } else if (!match) {
+                out = new ArrayList<>(items.subList(0, i));
+            }
+        }
+        return out == null ? items : out;
     }
 
-    private static List<String> merge(List<String> a, List<String> b) {
-        List<String> out = new ArrayList<>(a);
-        out.addAll(b);
-        return out;
+    private static List<String> sorted(String... items) {
+        return Arrays.stream(items).sorted().toList();
+    }
+
+    private static List<List<String>> adminSubs() {
+        var tiers = new ArrayList<List<String>>(8);
+        for (int tier = 0; tier < 8; tier++) {
+            List<String> subs = new ArrayList<>(List.of(
+                    "give", "take", "set",
+                    "history", "balances", "top",
+                    "reload", "save", "health", "stats",
+                    "purge", "export", "archive"
+            ));
+            if ((tier & 1) != 0) subs.add("tx");
+            if ((tier & 2) != 0) subs.add("flag");
+            if ((tier & 4) != 0) subs.add("unflag");
+            tiers.add(subs.stream().sorted().toList());
+        }
+        return List.copyOf(tiers);
     }
 }
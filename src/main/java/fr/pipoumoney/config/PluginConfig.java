@@ -9,12 +9,17 @@ public record PluginConfig(
         Storage storage,
         Sqlite sqlite,
         Mysql mysql,
+        LogStore log,
+        Breaker breaker,
         Format format,
         Currency currency,
         TopCache topCache,
+        TxCache txCache,
         boolean autosaveEnabled,
-        int autosaveMinutes,
+        int flushMaxStalenessSeconds,
         int flushDirtyThreshold,
+        int flushChunkSize,
+        int flushTargetChunkMs,
         boolean listenerUpdateNameOnJoin,
         boolean listenerFlushOnQuit,
         Pay pay,
@@ -23,10 +28,26 @@ public record PluginConfig(
         Top top,
         Audit audit,
         Health health,
-        AntiAbuse antiAbuse
+        AntiAbuse antiAbuse,
+        Sync sync,
+        Placeholders placeholders,
+        Commands commands
 ) {
-    public record Storage(String type) {}
-    public record Sqlite(String file) {}
+    public record Storage(String type, boolean deltaBalances, int migrationBatchSize) {}
+    public record Sqlite(
+            String file,
+            String auditFile,
+            boolean wal,
+            String synchronous,
+            int busyTimeoutMs,
+            int cacheSizeKb,
+            int mmapSizeMb,
+            int readPoolSize
+    ) {}
+
+    public record LogStore(String dir, boolean syncWrites, int compactMinMb) {}
+
+    public record Breaker(int failureThreshold, int openSeconds, int maxOpenSeconds, int maxBufferedAudit) {}
 
     public record Mysql(
             String host,
@@ -35,8 +56,22 @@ public record PluginConfig(
             String username,
             String password,
             String params,
-            Pool pool
+            Pool pool,
+            Replica replica
     ) {
+        /** Optional read-only endpoint for history, listing and top queries; empty host = disabled. */
+        public record Replica(
+                String host,
+                int port,
+                String username,
+                String password,
+                int poolSize,
+                long connectionTimeoutMs,
+                int retrySeconds
+        ) {
+            public boolean enabled() { return host != null && !host.isBlank(); }
+        }
+
         public record Pool(
                 int maximumPoolSize,
                 int minimumIdle,
@@ -49,6 +84,12 @@ public record PluginConfig(
     public record Format(int decimals, Locale locale) {}
     public record Currency(String symbol, String singular, String plural, String format) {}
     public record TopCache(boolean enabled, int refreshMinutes, int size) {}
+    public record TxCache(boolean enabled, int size, int ttlSeconds) {}
+    public record Sync(boolean enabled, int pollSeconds, int batchSize, int retentionMinutes) {}
+
+    public record Placeholders(int rankRefreshSeconds) {}
+
+    public record Commands(int queryTimeoutSeconds, int queryThreads, int queryQueue) {}
 
     public record Pay(
             boolean enabled,
@@ -66,7 +107,17 @@ public record PluginConfig(
     public record Player(int historyDaysLimit, int historyMaxResults) {}
     public record Balances(boolean showUuid, boolean onlyOnline, int perPage, String sort, double min) {}
     public record Top(int def, int max) {}
-    public record Audit(boolean enabled, int perPage, boolean purgeOnStart, int purgeOlderThanDays) {}
+    public record Audit(
+            boolean enabled,
+            int perPage,
+            boolean purgeOnStart,
+            int purgeOlderThanDays,
+            int exportFetchSize,
+            int exportProgressEvery,
+            boolean archiveEnabled,
+            int archiveOlderThanDays,
+            int archiveSegmentRows
+    ) {}
     public record Health(int tpsSample) {}
 
     public record AntiAbuse(
@@ -84,7 +135,16 @@ public record PluginConfig(
     public static PluginConfig load(FileConfiguration c) {
         String storageType = c.getString("storage.type", "sqlite").trim().toLowerCase(Locale.ROOT);
 
-        var sqlite = new Sqlite(c.getString("storage.sqlite.file", "pipoumoney.db"));
+        var sqlite = new Sqlite(
+                c.getString("storage.sqlite.file", "pipoumoney.db"),
+                c.getString("storage.sqlite.audit-file", ""),
+                c.getBoolean("storage.sqlite.wal", true),
+                c.getString("storage.sqlite.synchronous", "NORMAL").trim().toUpperCase(Locale.ROOT),
+                Math.max(0, c.getInt("storage.sqlite.busy-timeout-ms", 5000)),
+                Math.max(0, c.getInt("storage.sqlite.cache-size-kb", 16384)),
+                Math.max(0, c.getInt("storage.sqlite.mmap-size-mb", 64)),
+                Math.max(1, c.getInt("storage.sqlite.read-pool-size", 4))
+        );
 
         var mysqlPool = new Mysql.Pool(
                 Math.max(1, c.getInt("storage.mysql.pool.maximum-pool-size", 10)),
@@ -94,14 +154,43 @@ public record PluginConfig(
                 Math.max(1000L, c.getLong("storage.mysql.pool.max-lifetime-ms", 1800000L))
         );
 
+        String mysqlUser = c.getString("storage.mysql.username", "root");
+        String mysqlPassword = c.getString("storage.mysql.password", "password");
+        int mysqlPort = Math.max(1, c.getInt("storage.mysql.port", 3306));
+
+        var mysqlReplica = new Mysql.Replica(
+                c.getString("storage.mysql.replica.host", "").trim(),
+                Math.max(1, c.getInt("storage.mysql.replica.port", mysqlPort)),
+                orDefault(c.getString("storage.mysql.replica.username", ""), mysqlUser),
+                orDefault(c.getString("storage.mysql.replica.password", ""), mysqlPassword),
+                Math.max(1, c.getInt("storage.mysql.replica.pool-size", 4)),
+                Math.max(250L, c.getLong("storage.mysql.replica.connection-timeout-ms", 2000L)),
+                Math.max(1, c.getInt("storage.mysql.replica.retry-seconds", 30))
+        );
+
         var mysql = new Mysql(
                 c.getString("storage.mysql.host", "127.0.0.1"),
-                Math.max(1, c.getInt("storage.mysql.port", 3306)),
+                mysqlPort,
                 c.getString("storage.mysql.database", "pipoumoney"),
-                c.getString("storage.mysql.username", "root"),
-                c.getString("storage.mysql.password", "password"),
+                mysqlUser,
+                mysqlPassword,
                 c.getString("storage.mysql.params", "useUnicode=true&characterEncoding=utf8&useSSL=false"),
-                mysqlPool
+                mysqlPool,
+                mysqlReplica
+        );
+
+        var log = new LogStore(
+                c.getString("storage.log.dir", "data"),
+                c.getBoolean("storage.log.sync-writes", true),
+                Math.max(1, c.getInt("storage.log.compact-min-mb", 4))
+        );
+
+        int breakerOpen = Math.max(1, c.getInt("storage.breaker.open-seconds", 2));
+        var breaker = new Breaker(
+                Math.max(1, c.getInt("storage.breaker.failure-threshold", 3)),
+                breakerOpen,
+                Math.max(breakerOpen, c.getInt("storage.breaker.max-open-seconds", 120)),
+                Math.max(1000, c.getInt("storage.breaker.max-buffered-transactions", 100000))
         );
 
         int decimals = clamp(c.getInt("format.decimals", 2), 0, 8);
@@ -121,9 +210,17 @@ public record PluginConfig(
                 Math.max(1, c.getInt("top-cache.size", 50))
         );
 
+        var txCache = new TxCache(
+                c.getBoolean("tx-cache.enabled", true),
+                Math.max(1, c.getInt("tx-cache.size", 256)),
+                Math.max(1, c.getInt("tx-cache.ttl-seconds", 300))
+        );
+
         boolean autosaveEnabled = c.getBoolean("autosave.enabled", true);
-        int autosaveMinutes = Math.max(1, c.getInt("autosave.interval-minutes", 5));
+        int flushMaxStaleness = Math.max(1, c.getInt("flush.max-staleness-seconds", 30));
         int flushDirtyThreshold = Math.max(1, c.getInt("flush.dirty-threshold", 50));
+        int flushChunkSize = Math.max(1, Math.min(4000, c.getInt("flush.chunk-size", 500)));
+        int flushTargetChunkMs = Math.max(5, c.getInt("flush.target-chunk-ms", 100));
 
         boolean updNameJoin = c.getBoolean("listeners.update-name-on-join", true);
         boolean flushQuit = c.getBoolean("listeners.flush-on-quit", true);
@@ -163,7 +260,12 @@ public record PluginConfig(
                 c.getBoolean("audit.enabled", true),
                 Math.max(1, c.getInt("audit.max-results-per-page", 10)),
                 c.getBoolean("audit.purge-on-start.enabled", false),
-                Math.max(1, c.getInt("audit.purge-on-start.older-than-days", 90))
+                Math.max(1, c.getInt("audit.purge-on-start.older-than-days", 90)),
+                Math.max(1, c.getInt("audit.export.fetch-size", 1000)),
+                Math.max(1, c.getInt("audit.export.progress-every", 100000)),
+                c.getBoolean("audit.archive.enabled", false),
+                Math.max(1, c.getInt("audit.archive.older-than-days", 180)),
+                Math.max(1000, c.getInt("audit.archive.segment-rows", 50000))
         );
 
         var health = new Health(clamp(c.getInt("health.tps-sample", 0), 0, 2));
@@ -180,16 +282,42 @@ public record PluginConfig(
                 Math.max(0.0, c.getDouble("anti-abuse.single-tx-max-amount", 10000.0))
         );
 
+        var sync = new Sync(
+                c.getBoolean("sync.enabled", false),
+                Math.max(1, c.getInt("sync.poll-seconds", 2)),
+                Math.max(1, c.getInt("sync.batch-size", 500)),
+                Math.max(1, c.getInt("sync.retention-minutes", 60))
+        );
+
+        var placeholders = new Placeholders(
+                Math.max(1, c.getInt("placeholders.rank-refresh-seconds", 15))
+        );
+
+        var commands = new Commands(
+                Math.max(1, c.getInt("commands.query-timeout-seconds", 10)),
+                Math.max(1, c.getInt("commands.query-threads", 4)),
+                Math.max(1, c.getInt("commands.query-queue", 64))
+        );
+
         return new PluginConfig(
-                new Storage(storageType),
+                new Storage(
+                        storageType,
+                        "delta".equalsIgnoreCase(c.getString("storage.balance-mode", "absolute").trim()),
+                        Math.max(1000, c.getInt("storage.migration-batch-size", 50000))
+                ),
                 sqlite,
                 mysql,
+                log,
+                breaker,
                 format,
                 currency,
                 topCache,
+                txCache,
                 autosaveEnabled,
-                autosaveMinutes,
+                flushMaxStaleness,
                 flushDirtyThreshold,
+                flushChunkSize,
+                flushTargetChunkMs,
                 updNameJoin,
                 flushQuit,
                 pay,
@@ -198,12 +326,19 @@ public record PluginConfig(
                 top,
                 audit,
                 health,
-                antiAbuse
+                antiAbuse,
+                sync,
+                placeholders,
+                commands
         );
     }
 
     private static int clamp(int v, int min, int max) { return Math.max(min, Math.min(max, v)); }
 
+    private static String orDefault(String raw, String def) {
+        return raw == null || raw.isBlank() ? def : raw;
+    }
+
     private static UUID parseUuid(String raw) {
         try { return UUID.fromString(raw); }
         catch (Exception e) { return UUID.fromString("00000000-0000-0000-0000-000000000000"); }
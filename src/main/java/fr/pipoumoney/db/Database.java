@@ -3,25 +3,62 @@ package fr.pipoumoney.db;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import fr.pipoumoney.config.PluginConfig;
+import fr.pipoumoney.db.migration.Migration;
+import fr.pipoumoney.db.migration.MigrationContext;
+import fr.pipoumoney.db.migration.Migrator;
+import org.sqlite.SQLiteConfig;
 import org.sqlite.SQLiteDataSource;
 
 import javax.sql.DataSource;
 import java.io.File;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 public final class Database {
 
     public enum Dialect { SQLITE, MYSQL }
 
+    public static final int SCHEMA_VERSION = 5;
+    private static final int STATEMENTS_PER_CONNECTION = 64;
+
     private final Dialect dialect;
     private final DataSource dataSource;
+    private final DataSource readDataSource;
+    private final DataSource auditDataSource;
+    private final DataSource auditReadDataSource;
+    private final DataSource replicaDataSource;
+    private final File sqliteFile;
+    private final File auditFile;
+    private final List<String> warnings = new ArrayList<>();
+    private final StatementCache statements;
+
+    private Database(Dialect dialect, DataSource dataSource, DataSource replicaDataSource) {
+        this(dialect, dataSource, dataSource, dataSource, dataSource, replicaDataSource, null, null);
+    }
 
-    private Database(Dialect dialect, DataSource dataSource) {
+    private Database(Dialect dialect,
+                     DataSource dataSource,
+                     DataSource readDataSource,
+                     DataSource auditDataSource,
+                     DataSource auditReadDataSource,
+                     DataSource replicaDataSource,
+                     File sqliteFile,
+                     File auditFile) {
         this.dialect = dialect;
         this.dataSource = dataSource;
+        this.readDataSource = readDataSource;
+        this.auditDataSource = auditDataSource;
+        this.auditReadDataSource = auditReadDataSource;
+        this.replicaDataSource = replicaDataSource;
+        this.sqliteFile = sqliteFile;
+        this.auditFile = auditFile;
+        this.statements = new StatementCache(STATEMENTS_PER_CONNECTION, dialect == Dialect.SQLITE);
     }
 
     public static Database open(File dataFolder, PluginConfig cfg) throws Exception {
@@ -31,159 +68,591 @@ public final class Database {
                 ? openMysql(cfg)
                 : openSqlite(dataFolder, cfg);
 
-        db.initSchema();
+        db.initSchema(cfg.storage().migrationBatchSize());
         return db;
     }
 
     private static Database openSqlite(File dataFolder, PluginConfig cfg) {
-        File file = new File(dataFolder, cfg.sqlite().file());
+        PluginConfig.Sqlite sc = cfg.sqlite();
+        File file = sqliteFile(dataFolder, sc.file());
+        String auditName = sc.auditFile() == null ? "" : sc.auditFile().trim();
+        File auditFile = auditName.isEmpty() ? null : sqliteFile(dataFolder, auditName);
+        if (auditFile != null && auditFile.getAbsoluteFile().equals(file.getAbsoluteFile())) auditFile = null;
+
+        var opened = new ArrayList<HikariDataSource>();
+        try {
+            // SQLite allows a single writer per file: one pooled connection serializes writes
+            // instead of letting callers race for the file lock, readers share WAL snapshots.
+            HikariDataSource writer = open(opened, sqlitePool("PipouMoney-SQLite-Writer", file, sc, false, 1));
+            HikariDataSource readers = open(opened, sqlitePool("PipouMoney-SQLite-Reader", file, sc, true, sc.readPoolSize()));
+            if (auditFile == null) return new Database(Dialect.SQLITE, writer, readers, writer, readers, readers, file, null);
+
+            HikariDataSource auditWriter = open(opened, sqlitePool("PipouMoney-SQLite-AuditWriter", auditFile, sc, false, 1));
+            HikariDataSource auditReaders = open(opened, sqlitePool("PipouMoney-SQLite-AuditReader", auditFile, sc, true, sc.readPoolSize()));
+            return new Database(Dialect.SQLITE, writer, readers, auditWriter, auditReaders, readers, file, auditFile);
+        } catch (RuntimeException e) {
+            for (HikariDataSource h : opened) h.close();
+            throw e;
+        }
+    }
+
+    private static File sqliteFile(File dataFolder, String name) {
+        File file = new File(dataFolder, name);
         File parent = file.getParentFile();
         if (parent != null) parent.mkdirs();
+        return file;
+    }
+
+    private static HikariDataSource open(List<HikariDataSource> opened, HikariDataSource ds) {
+        opened.add(ds);
+        return ds;
+    }
 
-        SQLiteDataSource ds = new SQLiteDataSource();
+    private static HikariDataSource sqlitePool(String name, File file, PluginConfig.Sqlite sc, boolean readOnly, int size) {
+        SQLiteConfig sq = new SQLiteConfig();
+        if (!readOnly) {
+            sq.setJournalMode(sc.wal() ? SQLiteConfig.JournalMode.WAL : SQLiteConfig.JournalMode.DELETE);
+            sq.setSynchronous(synchronousMode(sc.synchronous()));
+        }
+        sq.setReadOnly(readOnly);
+        sq.setBusyTimeout(sc.busyTimeoutMs());
+        sq.setCacheSize(-sc.cacheSizeKb());
+        sq.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        sq.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(sc.mmapSizeMb() * 1024L * 1024L));
+
+        SQLiteDataSource ds = new SQLiteDataSource(sq);
         ds.setUrl("jdbc:sqlite:" + file.getAbsolutePath());
-        return new Database(Dialect.SQLITE, ds);
+
+        HikariConfig hc = new HikariConfig();
+        hc.setPoolName(name);
+        hc.setDataSource(ds);
+        hc.setMaximumPoolSize(size);
+        hc.setMinimumIdle(1);
+        hc.setConnectionTimeout(Math.max(1000L, sc.busyTimeoutMs() * 2L));
+        return new HikariDataSource(hc);
+    }
+
+    private static SQLiteConfig.SynchronousMode synchronousMode(String raw) {
+        try {
+            return SQLiteConfig.SynchronousMode.valueOf(raw);
+        } catch (IllegalArgumentException e) {
+            return SQLiteConfig.SynchronousMode.NORMAL;
+        }
     }
 
     private static Database openMysql(PluginConfig cfg) {
-        String params = cfg.mysql().params();
+        PluginConfig.Mysql m = cfg.mysql();
+
+        HikariConfig hc = mysqlConfig(m, m.host(), m.port(), m.username(), m.password());
+        hc.setPoolName("PipouMoney-MySQL");
+        hc.setMaximumPoolSize(m.pool().maximumPoolSize());
+        hc.setMinimumIdle(m.pool().minimumIdle());
+        hc.setConnectionTimeout(m.pool().connectionTimeoutMs());
+        hc.addDataSourceProperty("rewriteBatchedStatements", "true");
+
+        HikariDataSource ds = new HikariDataSource(hc);
+        if (!m.replica().enabled()) return new Database(Dialect.MYSQL, ds, ds);
+
+        // The replica may be down at startup: the pool is created lazily and reads fall back meanwhile.
+        PluginConfig.Mysql.Replica r = m.replica();
+        HikariConfig rc = mysqlConfig(m, r.host(), r.port(), r.username(), r.password());
+        rc.setPoolName("PipouMoney-MySQL-Replica");
+        rc.setMaximumPoolSize(r.poolSize());
+        rc.setMinimumIdle(1);
+        rc.setConnectionTimeout(r.connectionTimeoutMs());
+        rc.setReadOnly(true);
+        rc.setInitializationFailTimeout(-1L);
+
+        HikariDataSource replica;
+        try {
+            replica = new HikariDataSource(rc);
+        } catch (RuntimeException e) {
+            ds.close();
+            throw e;
+        }
+        return new Database(Dialect.MYSQL, ds, new ReplicaDataSource(replica, ds, r.retrySeconds() * 1000L));
+    }
+
+    private static HikariConfig mysqlConfig(PluginConfig.Mysql m, String host, int port, String username, String password) {
+        String params = m.params();
         if (params == null) params = "";
         params = params.trim();
         String q = params.isEmpty() ? "" : (params.startsWith("?") ? params : "?" + params);
 
-        String jdbcUrl = "jdbc:mysql://" + cfg.mysql().host() + ":" + cfg.mysql().port() + "/" + cfg.mysql().database() + q;
-
         HikariConfig hc = new HikariConfig();
-        hc.setJdbcUrl(jdbcUrl);
-        hc.setUsername(cfg.mysql().username());
-        hc.setPassword(cfg.mysql().password());
+        hc.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + m.database() + q);
+        hc.setUsername(username);
+        hc.setPassword(password);
 
-        hc.setMaximumPoolSize(cfg.mysql().pool().maximumPoolSize());
-        hc.setMinimumIdle(cfg.mysql().pool().minimumIdle());
-        hc.setConnectionTimeout(cfg.mysql().pool().connectionTimeoutMs());
-        hc.setIdleTimeout(cfg.mysql().pool().idleTimeoutMs());
-        hc.setMaxLifetime(cfg.mysql().pool().maxLifetimeMs());
+        hc.setIdleTimeout(m.pool().idleTimeoutMs());
+        hc.setMaxLifetime(m.pool().maxLifetimeMs());
 
         hc.addDataSourceProperty("cachePrepStmts", "true");
         hc.addDataSourceProperty("prepStmtCacheSize", "250");
         hc.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
-
-        HikariDataSource ds = new HikariDataSource(hc);
-        return new Database(Dialect.MYSQL, ds);
+        return hc;
     }
 
     public DataSource dataSource() { return dataSource; }
+    public DataSource readDataSource() { return readDataSource; }
+    public DataSource auditDataSource() { return auditDataSource; }
+    public DataSource auditReadDataSource() { return auditReadDataSource; }
+    /** Heavy read-only queries that tolerate replication lag; the read pool when no replica is set. */
+    public DataSource replicaDataSource() { return replicaDataSource; }
+    public ReplicaDataSource replica() { return replicaDataSource instanceof ReplicaDataSource r ? r : null; }
+    public DataSource auditReplicaDataSource() { return replica() != null ? replicaDataSource : auditReadDataSource; }
+    public boolean isAuditSplit() { return auditDataSource != dataSource; }
     public boolean isMysql() { return dialect == Dialect.MYSQL; }
+    public StatementCache statements() { return statements; }
     public Dialect dialect() { return dialect; }
+    /** Problems met while opening that did not prevent it, for the caller to log. */
+    public List<String> warnings() { return List.copyOf(warnings); }
 
     public boolean isOpen() {
-        try (Connection c = dataSource.getConnection()) {
-            return c != null && !c.isClosed();
-        } catch (Exception e) {
-            return false;
+        for (DataSource ds : pools()) {
+            if (!isOpen(ds)) return false;
         }
+        return true;
     }
 
-    private void initSchema() throws Exception {
+    private List<DataSource> pools() {
+        var out = new ArrayList<DataSource>(4);
+        DataSource replicaPool = replicaDataSource instanceof ReplicaDataSource r ? r.replica() : replicaDataSource;
+        for (DataSource ds : List.of(dataSource, readDataSource, auditDataSource, auditReadDataSource, replicaPool)) {
+            if (out.stream().noneMatch(o -> o == ds)) out.add(ds);
+        }
+        return out;
+    }
+
+    private static boolean isOpen(DataSource ds) {
+        return ds instanceof HikariDataSource h ? !h.isClosed() : ds != null;
+    }
+
+    private void initSchema(int batchSize) throws Exception {
         try (Connection c = dataSource.getConnection(); Statement st = c.createStatement()) {
-            if (dialect == Dialect.SQLITE) {
-                st.executeUpdate("""
-                    CREATE TABLE IF NOT EXISTS accounts (
-                      uuid TEXT PRIMARY KEY,
-                      name TEXT,
-                      balance REAL NOT NULL DEFAULT 0,
-                      updated_ms INTEGER NOT NULL DEFAULT 0,
-                      notify INTEGER NOT NULL DEFAULT 1,
-                      locked INTEGER NOT NULL DEFAULT 0,
-                      last_activity_ms INTEGER NOT NULL DEFAULT 0
-                    );
-                """);
-
-                st.executeUpdate("""
-                    CREATE TABLE IF NOT EXISTS transactions (
-                      id INTEGER PRIMARY KEY AUTOINCREMENT,
-                      at_epoch_ms INTEGER NOT NULL,
-                      source TEXT NOT NULL,
-                      type TEXT NOT NULL,
-                      actor_uuid TEXT,
-                      target_uuid TEXT,
-                      amount REAL NOT NULL,
-                      admin_flagged INTEGER NOT NULL DEFAULT 0,
-                      flag_reason TEXT,
-                      flagged_by_uuid TEXT,
-                      flagged_at_ms INTEGER NOT NULL DEFAULT 0
-                    );
-                """);
-
-                execIgnore(st, "ALTER TABLE transactions ADD COLUMN admin_flagged INTEGER NOT NULL DEFAULT 0;");
-                execIgnore(st, "ALTER TABLE transactions ADD COLUMN flag_reason TEXT;");
-                execIgnore(st, "ALTER TABLE transactions ADD COLUMN flagged_by_uuid TEXT;");
-                execIgnore(st, "ALTER TABLE transactions ADD COLUMN flagged_at_ms INTEGER NOT NULL DEFAULT 0;");
-
-                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_accounts_balance ON accounts(balance);");
-                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_accounts_name ON accounts(name);");
-                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_accounts_activity ON accounts(last_activity_ms);");
-
-                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_tx_at ON transactions(at_epoch_ms);");
-                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_tx_actor ON transactions(actor_uuid);");
-                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_tx_target ON transactions(target_uuid);");
-                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_tx_source_type ON transactions(source, type);");
-                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_tx_flagged ON transactions(admin_flagged);");
+            var migrator = new Migrator(c, st, dialect, batchSize);
+            if (migrator.version() == 0 && !migrator.context().tableExists("accounts")) {
+                createSchema(migrator.context());
+                createIndexes(migrator.context());
+                migrator.baseline(SCHEMA_VERSION);
             } else {
-                st.executeUpdate("""
-                    CREATE TABLE IF NOT EXISTS accounts (
-                      uuid VARCHAR(36) PRIMARY KEY,
-                      name VARCHAR(16),
-                      balance DOUBLE NOT NULL DEFAULT 0,
-                      updated_ms BIGINT NOT NULL DEFAULT 0,
-                      notify TINYINT NOT NULL DEFAULT 1,
-                      locked TINYINT NOT NULL DEFAULT 0,
-                      last_activity_ms BIGINT NOT NULL DEFAULT 0
-                    );
-                """);
-
-                st.executeUpdate("""
-                    CREATE TABLE IF NOT EXISTS transactions (
-                      id BIGINT PRIMARY KEY AUTO_INCREMENT,
-                      at_epoch_ms BIGINT NOT NULL,
-                      source VARCHAR(32) NOT NULL,
-                      type VARCHAR(64) NOT NULL,
-                      actor_uuid VARCHAR(36),
-                      target_uuid VARCHAR(36),
-                      amount DOUBLE NOT NULL,
-                      admin_flagged TINYINT NOT NULL DEFAULT 0,
-                      flag_reason VARCHAR(255),
-                      flagged_by_uuid VARCHAR(36),
-                      flagged_at_ms BIGINT NOT NULL DEFAULT 0
-                    );
-                """);
-
-                execIgnore(st, "ALTER TABLE transactions ADD COLUMN admin_flagged TINYINT NOT NULL DEFAULT 0;");
-                execIgnore(st, "ALTER TABLE transactions ADD COLUMN flag_reason VARCHAR(255);");
-                execIgnore(st, "ALTER TABLE transactions ADD COLUMN flagged_by_uuid VARCHAR(36);");
-                execIgnore(st, "ALTER TABLE transactions ADD COLUMN flagged_at_ms BIGINT NOT NULL DEFAULT 0;");
-
-                execIgnore(st, "CREATE INDEX idx_accounts_balance ON accounts(balance);");
-                execIgnore(st, "CREATE INDEX idx_accounts_name ON accounts(name);");
-                execIgnore(st, "CREATE INDEX idx_accounts_activity ON accounts(last_activity_ms);");
-
-                execIgnore(st, "CREATE INDEX idx_tx_at ON transactions(at_epoch_ms);");
-                execIgnore(st, "CREATE INDEX idx_tx_actor ON transactions(actor_uuid);");
-                execIgnore(st, "CREATE INDEX idx_tx_target ON transactions(target_uuid);");
-                execIgnore(st, "CREATE INDEX idx_tx_source_type ON transactions(source, type);");
-                execIgnore(st, "CREATE INDEX idx_tx_flagged ON transactions(admin_flagged);");
+                migrator.migrate(migrations());
+            }
+
+            // Without the split the audit tables live here, even if an earlier split dropped them.
+            if (!isAuditSplit()) {
+                createAuditSchema(migrator.context());
+                createAuditIndexes(migrator.context());
+            }
+        }
+
+        if (sqliteFile == null) return;
+        if (isAuditSplit()) initAuditSchema(batchSize);
+        else moveAuditBack(batchSize);
+    }
+
+    private List<Migration> migrations() {
+        return List.of(
+                Migration.of(1, "legacy text layout", this::createLegacySchema),
+                Migration.of(2, "binary account uuids", this::migrateAccountsToBinary),
+                Migration.of(3, "transaction code table", this::migrateTransactionsToCodes),
+                new Migration(4, "account versions",
+                        ctx -> ctx.addColumn("accounts", "version", "INTEGER NOT NULL DEFAULT 0"),
+                        ctx -> ctx.addColumn("accounts", "version", "BIGINT NOT NULL DEFAULT 0")),
+                Migration.of(5, "change feed and indexes", ctx -> {
+                    createSchema(ctx);
+                    createIndexes(ctx);
+                })
+        );
+    }
+
+    private void initAuditSchema(int batchSize) throws Exception {
+        try (Connection m = dataSource.getConnection(); Statement ms = m.createStatement();
+             Connection c = auditDataSource.getConnection(); Statement st = c.createStatement()) {
+            var migrator = new Migrator(c, st, dialect, batchSize);
+            if (migrator.version() == 0) {
+                createAuditSchema(migrator.context());
+                createAuditIndexes(migrator.context());
+                migrator.baseline(SCHEMA_VERSION);
+            }
+
+            rememberAuditFile(m, ms, auditFile);
+            for (File previous : auditFiles(ms)) {
+                if (previous.equals(auditFile.getAbsoluteFile())) continue;
+                if (!previous.isFile()) {
+                    warnings.add("Previous audit file " + previous + " is missing, its transactions are lost.");
+                    forgetAuditFile(m, previous);
+                } else if (moveAuditRows(c, st, previous, batchSize)) {
+                    forgetAuditFile(m, previous);
+                }
+            }
+            moveAuditRows(c, st, sqliteFile, batchSize);
+        }
+    }
+
+    /** Split turned off: every file the audit log was split into is merged back, or the start fails. */
+    private void moveAuditBack(int batchSize) throws Exception {
+        try (Connection c = dataSource.getConnection(); Statement st = c.createStatement()) {
+            for (File previous : auditFiles(st)) {
+                if (!previous.isFile()) {
+                    throw new SQLException("Audit file " + previous + " is missing: restore it or set sqlite.audit-file back to it.");
+                }
+                if (!moveAuditRows(c, st, previous, batchSize)) {
+                    throw new SQLException("Transactions in " + previous + " could not be moved back: set sqlite.audit-file back to it.");
+                }
+                forgetAuditFile(c, previous);
+            }
+        }
+    }
+
+    // audit_split, kept in the main file, lists every file that may hold audit rows.
+    private static List<File> auditFiles(Statement mainSt) throws SQLException {
+        mainSt.executeUpdate("CREATE TABLE IF NOT EXISTS audit_split (file TEXT PRIMARY KEY)");
+        var out = new ArrayList<File>();
+        try (ResultSet rs = mainSt.executeQuery("SELECT file FROM audit_split")) {
+            while (rs.next()) out.add(new File(rs.getString(1)).getAbsoluteFile());
+        }
+        return out;
+    }
+
+    private static void rememberAuditFile(Connection main, Statement mainSt, File file) throws SQLException {
+        mainSt.executeUpdate("CREATE TABLE IF NOT EXISTS audit_split (file TEXT PRIMARY KEY)");
+        try (PreparedStatement ps = main.prepareStatement("INSERT OR IGNORE INTO audit_split(file) VALUES(?)")) {
+            ps.setString(1, file.getAbsolutePath());
+            ps.executeUpdate();
+        }
+    }
+
+    private static void forgetAuditFile(Connection main, File file) throws SQLException {
+        try (PreparedStatement ps = main.prepareStatement("DELETE FROM audit_split WHERE file = ?")) {
+            ps.setString(1, file.getAbsolutePath());
+            ps.executeUpdate();
+        }
+    }
+
+    private void createSchema(MigrationContext ctx) throws SQLException {
+        ctx.exec(accountsDdl("accounts"));
+        ctx.exec(dialect == Dialect.SQLITE
+                ? "CREATE TABLE IF NOT EXISTS account_changes (seq INTEGER PRIMARY KEY AUTOINCREMENT, node TEXT NOT NULL, uuid BLOB NOT NULL, at_ms INTEGER NOT NULL);"
+                : "CREATE TABLE IF NOT EXISTS account_changes (seq BIGINT PRIMARY KEY AUTO_INCREMENT, node CHAR(36) NOT NULL, uuid BINARY(16) NOT NULL, at_ms BIGINT NOT NULL);");
+        if (!isAuditSplit()) createAuditSchema(ctx);
+    }
+
+    private void createAuditSchema(MigrationContext ctx) throws SQLException {
+        ctx.exec(transactionsDdl("transactions"));
+        ctx.exec(txCodesDdl());
+    }
+
+    private String txCodesDdl() {
+        return dialect == Dialect.SQLITE
+                ? "CREATE TABLE IF NOT EXISTS tx_codes (id INTEGER PRIMARY KEY AUTOINCREMENT, code TEXT NOT NULL UNIQUE);"
+                : "CREATE TABLE IF NOT EXISTS tx_codes (id SMALLINT UNSIGNED PRIMARY KEY AUTO_INCREMENT, code VARCHAR(64) NOT NULL UNIQUE);";
+    }
+
+    private String accountsDdl(String table) {
+        if (dialect == Dialect.SQLITE) {
+            return """
+                CREATE TABLE IF NOT EXISTS %s (
+                  uuid BLOB PRIMARY KEY,
+                  name TEXT,
+                  balance REAL NOT NULL DEFAULT 0,
+                  updated_ms INTEGER NOT NULL DEFAULT 0,
+                  notify INTEGER NOT NULL DEFAULT 1,
+                  locked INTEGER NOT NULL DEFAULT 0,
+                  last_activity_ms INTEGER NOT NULL DEFAULT 0,
+                  version INTEGER NOT NULL DEFAULT 0
+                ) WITHOUT ROWID;
+            """.formatted(table);
+        }
+        return """
+            CREATE TABLE IF NOT EXISTS %s (
+              uuid BINARY(16) PRIMARY KEY,
+              name VARCHAR(16),
+              balance DOUBLE NOT NULL DEFAULT 0,
+              updated_ms BIGINT NOT NULL DEFAULT 0,
+              notify TINYINT NOT NULL DEFAULT 1,
+              locked TINYINT NOT NULL DEFAULT 0,
+              last_activity_ms BIGINT NOT NULL DEFAULT 0,
+              version BIGINT NOT NULL DEFAULT 0
+            );
+        """.formatted(table);
+    }
+
+    private String transactionsDdl(String table) {
+        if (dialect == Dialect.SQLITE) {
+            return """
+                CREATE TABLE IF NOT EXISTS %s (
+                  id INTEGER PRIMARY KEY AUTOINCREMENT,
+                  at_epoch_ms INTEGER NOT NULL,
+                  source_id INTEGER NOT NULL,
+                  type_id INTEGER NOT NULL,
+                  actor_uuid BLOB,
+                  target_uuid BLOB,
+                  amount REAL NOT NULL,
+                  admin_flagged INTEGER NOT NULL DEFAULT 0,
+                  flag_reason TEXT,
+                  flagged_by_uuid BLOB,
+                  flagged_at_ms INTEGER NOT NULL DEFAULT 0
+                );
+            """.formatted(table);
+        }
+        return """
+            CREATE TABLE IF NOT EXISTS %s (
+              id BIGINT PRIMARY KEY AUTO_INCREMENT,
+              at_epoch_ms BIGINT NOT NULL,
+              source_id SMALLINT UNSIGNED NOT NULL,
+              type_id SMALLINT UNSIGNED NOT NULL,
+              actor_uuid BINARY(16),
+              target_uuid BINARY(16),
+              amount DOUBLE NOT NULL,
+              admin_flagged TINYINT NOT NULL DEFAULT 0,
+              flag_reason VARCHAR(255),
+              flagged_by_uuid BINARY(16),
+              flagged_at_ms BIGINT NOT NULL DEFAULT 0
+            );
+        """.formatted(table);
+    }
+
+    private void createIndexes(MigrationContext ctx) throws SQLException {
+        ctx.createIndex("accounts", "idx_accounts_balance", "balance");
+        ctx.createIndex("accounts", "idx_accounts_name", "name");
+        ctx.createIndex("accounts", "idx_accounts_activity", "last_activity_ms");
+        ctx.createIndex("account_changes", "idx_account_changes_at", "at_ms");
+        if (!isAuditSplit()) createAuditIndexes(ctx);
+    }
+
+    private void createAuditIndexes(MigrationContext ctx) throws SQLException {
+        ctx.createIndex("transactions", "idx_tx_at", "at_epoch_ms");
+        ctx.createIndex("transactions", "idx_tx_actor", "actor_uuid");
+        ctx.createIndex("transactions", "idx_tx_target", "target_uuid");
+        ctx.createIndex("transactions", "idx_tx_source_type", "source_id, type_id");
+        ctx.createIndex("transactions", "idx_tx_flagged", "admin_flagged");
+    }
+
+    /** Brings a pre-versioning database up to the last text-based layout before migrating it. */
+    private void createLegacySchema(MigrationContext ctx) throws SQLException {
+        if (dialect == Dialect.SQLITE) {
+            ctx.exec("""
+                CREATE TABLE IF NOT EXISTS transactions (
+                  id INTEGER PRIMARY KEY AUTOINCREMENT,
+                  at_epoch_ms INTEGER NOT NULL,
+                  source TEXT NOT NULL,
+                  type TEXT NOT NULL,
+                  actor_uuid TEXT,
+                  target_uuid TEXT,
+                  amount REAL NOT NULL,
+                  admin_flagged INTEGER NOT NULL DEFAULT 0,
+                  flag_reason TEXT,
+                  flagged_by_uuid TEXT,
+                  flagged_at_ms INTEGER NOT NULL DEFAULT 0
+                );
+            """);
+
+            ctx.addColumn("transactions", "admin_flagged", "INTEGER NOT NULL DEFAULT 0");
+            ctx.addColumn("transactions", "flag_reason", "TEXT");
+            ctx.addColumn("transactions", "flagged_by_uuid", "TEXT");
+            ctx.addColumn("transactions", "flagged_at_ms", "INTEGER NOT NULL DEFAULT 0");
+        } else {
+            ctx.exec("""
+                CREATE TABLE IF NOT EXISTS transactions (
+                  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+                  at_epoch_ms BIGINT NOT NULL,
+                  source VARCHAR(32) NOT NULL,
+                  type VARCHAR(64) NOT NULL,
+                  actor_uuid VARCHAR(36),
+                  target_uuid VARCHAR(36),
+                  amount DOUBLE NOT NULL,
+                  admin_flagged TINYINT NOT NULL DEFAULT 0,
+                  flag_reason VARCHAR(255),
+                  flagged_by_uuid VARCHAR(36),
+                  flagged_at_ms BIGINT NOT NULL DEFAULT 0
+                );
+            """);
+
+            ctx.addColumn("transactions", "admin_flagged", "TINYINT NOT NULL DEFAULT 0");
+            ctx.addColumn("transactions", "flag_reason", "VARCHAR(255)");
+            ctx.addColumn("transactions", "flagged_by_uuid", "VARCHAR(36)");
+            ctx.addColumn("transactions", "flagged_at_ms", "BIGINT NOT NULL DEFAULT 0");
+        }
+    }
+
+    private void migrateAccountsToBinary(MigrationContext ctx) throws SQLException {
+        if (!ctx.tableExists("accounts_v1")) {
+            ctx.exec("DROP TABLE IF EXISTS accounts_v2");
+            ctx.exec(accountsDdl("accounts_v2"));
+            ctx.exec("""
+            INSERT INTO accounts_v2(uuid, name, balance, updated_ms, notify, locked, last_activity_ms)
+            SELECT %s, name, balance, updated_ms, notify, locked, last_activity_ms
+            FROM accounts WHERE uuid IS NOT NULL AND LENGTH(uuid) = 36
+        """.formatted(uuidToBinary("uuid")));
+
+            swapTables(ctx, "accounts", "accounts_v1", "accounts_v2");
+        }
+        ctx.exec("DROP TABLE IF EXISTS accounts_v1");
+    }
+
+    private void migrateTransactionsToCodes(MigrationContext ctx) throws SQLException {
+        if (!ctx.tableExists("transactions_v1")) {
+            ctx.exec(txCodesDdl());
+            String ignore = dialect == Dialect.SQLITE ? "INSERT OR IGNORE" : "INSERT IGNORE";
+            ctx.exec(ignore + " INTO tx_codes(code) SELECT DISTINCT source FROM transactions");
+            ctx.exec(ignore + " INTO tx_codes(code) SELECT DISTINCT type FROM transactions");
+
+            ctx.exec(transactionsDdl("transactions_v2"));
+
+            String copy = """
+                INSERT INTO transactions_v2(id, at_epoch_ms, source_id, type_id, actor_uuid, target_uuid, amount,
+                                            admin_flagged, flag_reason, flagged_by_uuid, flagged_at_ms)
+                SELECT t.id, t.at_epoch_ms, s.id, y.id, %s, %s, t.amount,
+                       t.admin_flagged, t.flag_reason, %s, t.flagged_at_ms
+                FROM transactions t
+                JOIN tx_codes s ON s.code = t.source
+                JOIN tx_codes y ON y.code = t.type
+                WHERE t.id > ? AND t.id <= ?
+            """.formatted(uuidToBinary("t.actor_uuid"), uuidToBinary("t.target_uuid"), uuidToBinary("t.flagged_by_uuid"));
+
+            try (PreparedStatement ps = ctx.connection().prepareStatement(copy)) {
+                ctx.backfill("transactions_v2", ctx.maxId("transactions_v2"), ctx.maxId("transactions"), (from, to) -> {
+                    ps.setLong(1, from);
+                    ps.setLong(2, to);
+                    ps.executeUpdate();
+                });
             }
+
+            swapTables(ctx, "transactions", "transactions_v1", "transactions_v2");
         }
+        ctx.exec("DROP TABLE IF EXISTS transactions_v1");
     }
 
-    private static void execIgnore(Statement st, String sql) throws SQLException {
-        try { st.executeUpdate(sql); }
-        catch (SQLException ignored) {}
+    /**
+     * Moves the audit rows of another SQLite file into the database of {@code c}. Codes are matched
+     * by their text and rows get new ids unless the destination is still empty. A source row counts
+     * as copied when the destination holds as many rows with the same time, codes, parties and
+     * amount as the source has up to it, so an interrupted move resumes without duplicates. The
+     * source tables are only dropped once no row is left without its copy; otherwise nothing is
+     * dropped, the reason goes to {@link #warnings()} and false is returned.
+     */
+    private boolean moveAuditRows(Connection c, Statement st, File from, int batchSize) throws SQLException {
+        try (PreparedStatement attach = c.prepareStatement("ATTACH DATABASE ? AS src")) {
+            attach.setString(1, from.getAbsolutePath());
+            attach.executeUpdate();
+        }
+        try {
+            if (!attachedTableExists(st, "transactions")) return true;
+            if (!attachedTableExists(st, "tx_codes")) {
+                warnings.add("Transactions in " + from + " have no code table, they were left in place.");
+                return false;
+            }
+
+            st.executeUpdate("INSERT OR IGNORE INTO tx_codes(code) SELECT code FROM src.tx_codes");
+
+            boolean keepIds = maxId(st, "transactions") == 0;
+            String copy = """
+                INSERT INTO transactions(%s at_epoch_ms, source_id, type_id, actor_uuid, target_uuid, amount,
+                                         admin_flagged, flag_reason, flagged_by_uuid, flagged_at_ms)
+                SELECT %s t.at_epoch_ms, s2.id, y2.id, t.actor_uuid, t.target_uuid, t.amount,
+                       t.admin_flagged, t.flag_reason, t.flagged_by_uuid, t.flagged_at_ms
+                FROM src.transactions t
+                JOIN src.tx_codes s ON s.id = t.source_id
+                JOIN src.tx_codes y ON y.id = t.type_id
+                JOIN tx_codes s2 ON s2.code = s.code
+                JOIN tx_codes y2 ON y2.code = y.code
+                WHERE t.id > ? AND t.id <= ? AND %s
+            """.formatted(keepIds ? "id," : "", keepIds ? "t.id," : "", NOT_YET_COPIED);
+
+            long done = 0L;
+            long last = maxId(st, "src.transactions");
+            try (PreparedStatement ps = c.prepareStatement(copy)) {
+                while (done < last) {
+                    long to = Math.min(last, done + batchSize);
+                    ps.setLong(1, done);
+                    ps.setLong(2, to);
+                    ps.executeUpdate();
+                    done = to;
+                }
+            }
+
+            long missing;
+            try (ResultSet rs = st.executeQuery("""
+                SELECT COUNT(*)
+                FROM src.transactions t
+                LEFT JOIN src.tx_codes s ON s.id = t.source_id
+                LEFT JOIN src.tx_codes y ON y.id = t.type_id
+                LEFT JOIN tx_codes s2 ON s2.code = s.code
+                LEFT JOIN tx_codes y2 ON y2.code = y.code
+                WHERE %s
+            """.formatted(NOT_YET_COPIED))) {
+                missing = rs.next() ? rs.getLong(1) : 0L;
+            }
+            if (missing > 0) {
+                warnings.add(missing + " transaction(s) in " + from + " have no copy in the audit database, they were left in place.");
+                return false;
+            }
+
+            st.executeUpdate("DROP TABLE src.transactions");
+            st.executeUpdate("DROP TABLE src.tx_codes");
+            return true;
+        } finally {
+            st.executeUpdate("DETACH DATABASE src");
+        }
+    }
+
+    // Source row t (codes s/y, destination codes s2/y2) whose copies do not cover it yet.
+    private static final String NOT_YET_COPIED = """
+        (SELECT COUNT(*) FROM transactions a
+         WHERE a.at_epoch_ms = t.at_epoch_ms AND a.source_id = s2.id AND a.type_id = y2.id
+           AND a.actor_uuid IS t.actor_uuid AND a.target_uuid IS t.target_uuid AND a.amount = t.amount)
+        < (SELECT COUNT(*) FROM src.transactions b
+           WHERE b.id <= t.id AND b.at_epoch_ms = t.at_epoch_ms AND b.source_id = t.source_id AND b.type_id = t.type_id
+             AND b.actor_uuid IS t.actor_uuid AND b.target_uuid IS t.target_uuid AND b.amount = t.amount)
+    """;
+
+    private static boolean attachedTableExists(Statement st, String table) throws SQLException {
+        try (ResultSet rs = st.executeQuery("SELECT 1 FROM src.sqlite_master WHERE type = 'table' AND name = '" + table + "'")) {
+            return rs.next();
+        }
+    }
+
+    private void swapTables(MigrationContext ctx, String table, String old, String fresh) throws SQLException {
+        if (dialect == Dialect.MYSQL) {
+            ctx.exec("RENAME TABLE " + table + " TO " + old + ", " + fresh + " TO " + table);
+            return;
+        }
+
+        Connection c = ctx.connection();
+        Statement st = ctx.statement();
+        boolean auto = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try {
+            st.executeUpdate("ALTER TABLE " + table + " RENAME TO " + old);
+            st.executeUpdate("ALTER TABLE " + fresh + " RENAME TO " + table);
+            c.commit();
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(auto);
+        }
+    }
+
+    private String uuidToBinary(String column) {
+        return dialect == Dialect.SQLITE
+                ? "unhex(replace(" + column + ", '-', ''))"
+                : "UNHEX(REPLACE(" + column + ", '-', ''))";
+    }
+
+    private static long maxId(Statement st, String table) throws SQLException {
+        try (ResultSet rs = st.executeQuery("SELECT MAX(id) FROM " + table)) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
     }
 
     public void closeQuietly() {
-        if (dataSource instanceof HikariDataSource h) {
-            try { h.close(); } catch (Exception ignored) {}
+        statements.closeAll();
+        for (DataSource ds : pools()) {
+            if (ds instanceof HikariDataSource h) {
+                try { h.close(); } catch (Exception ignored) {}
+            }
         }
     }
 }
@@ -0,0 +1,54 @@
+package fr.pipoumoney.db;
+
+import fr.pipoumoney.config.PluginConfig;
+import fr.pipoumoney.db.repositories.AccountsRepository;
+import fr.pipoumoney.db.repositories.AuditRepository;
+import fr.pipoumoney.storage.AccountStore;
+import fr.pipoumoney.storage.AuditStore;
+import fr.pipoumoney.storage.StorageEngine;
+
+import java.io.File;
+
+public final class JdbcStorageEngine implements StorageEngine {
+
+    private final Database db;
+    private final AccountsRepository accounts;
+    private final AuditRepository audit;
+
+    private JdbcStorageEngine(Database db) {
+        this.db = db;
+        this.accounts = new AccountsRepository(db);
+        this.audit = new AuditRepository(db);
+    }
+
+    public static JdbcStorageEngine open(File dataFolder, PluginConfig cfg) throws Exception {
+        return new JdbcStorageEngine(Database.open(dataFolder, cfg));
+    }
+
+    public Database database() { return db; }
+
+    @Override
+    public String name() {
+        return db.isMysql() ? "mysql" : "sqlite";
+    }
+
+    @Override
+    public AccountStore accounts() {
+        return accounts;
+    }
+
+    @Override
+    public AuditStore audit() {
+        return audit;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return db.isOpen();
+    }
+
+    @Override
+    public void closeQuietly() {
+        db.closeQuietly();
+    }
+}
@@ -0,0 +1,93 @@
+package fr.pipoumoney.db;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Hands out read-replica connections and falls back to the primary when the replica cannot
+ * be reached. After a failure the replica is skipped for {@code retryMs} before trying again.
+ */
+public final class ReplicaDataSource implements DataSource {
+
+    private final DataSource replica;
+    private final DataSource primary;
+    private final long retryMs;
+
+    private volatile long downUntilMs;
+    private final AtomicLong fallbacks = new AtomicLong(0L);
+
+    public ReplicaDataSource(DataSource replica, DataSource primary, long retryMs) {
+        this.replica = replica;
+        this.primary = primary;
+        this.retryMs = Math.max(1000L, retryMs);
+    }
+
+    DataSource replica() { return replica; }
+
+    public boolean isReplicaUp() {
+        return System.currentTimeMillis() >= downUntilMs;
+    }
+
+    public long fallbacks() {
+        return fallbacks.get();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (isReplicaUp()) {
+            try {
+                return replica.getConnection();
+            } catch (SQLException e) {
+                downUntilMs = System.currentTimeMillis() + retryMs;
+            }
+        }
+        fallbacks.incrementAndGet();
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return primary.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        return primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+}
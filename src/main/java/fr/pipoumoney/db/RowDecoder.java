@@ -0,0 +1,31 @@
+package fr.pipoumoney.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Maps the current row by column index; returning null skips the row. */
+@FunctionalInterface
+public interface RowDecoder<T> {
+
+    T decode(ResultSet rs) throws SQLException;
+
+    default List<T> all(PreparedStatement ps) throws SQLException {
+        var out = new ArrayList<T>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                T row = decode(rs);
+                if (row != null) out.add(row);
+            }
+        }
+        return out;
+    }
+
+    default T first(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? decode(rs) : null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package fr.pipoumoney.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepared statements kept open per physical connection and keyed by their SQL text.
+ * They are prepared on the unwrapped connection, so handing the pooled connection back does
+ * not close them. Callers must close the result sets they open but never the statement.
+ *
+ * <p>Only for drivers without a statement cache of their own (SQLite). When disabled, statements
+ * are prepared on the pooled connection as usual: the pool closes them with it and the driver
+ * (MySQL {@code cachePrepStmts}) reuses them.
+ */
+public final class StatementCache {
+
+    private static final class PerConnection {
+        final Map<String, PreparedStatement> plain;
+        final Map<String, PreparedStatement> withKeys;
+
+        PerConnection(int max) {
+            this.plain = lru(max);
+            this.withKeys = lru(max);
+        }
+    }
+
+    private final int maxPerConnection;
+    private final boolean enabled;
+    private final Map<Connection, PerConnection> byConnection = new IdentityHashMap<>();
+
+    public StatementCache(int maxPerConnection, boolean enabled) {
+        this.maxPerConnection = Math.max(1, maxPerConnection);
+        this.enabled = enabled;
+    }
+
+    public PreparedStatement prepare(Connection c, String sql) throws SQLException {
+        return prepare(c, sql, false);
+    }
+
+    public PreparedStatement prepare(Connection c, String sql, boolean generatedKeys) throws SQLException {
+        if (!enabled) {
+            return generatedKeys ? c.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : c.prepareStatement(sql);
+        }
+
+        Connection raw = c.isWrapperFor(Connection.class) ? c.unwrap(Connection.class) : c;
+        PerConnection cache = cacheOf(raw);
+
+        // A physical connection is only ever held by one thread, so its own maps need no locking.
+        Map<String, PreparedStatement> map = generatedKeys ? cache.withKeys : cache.plain;
+        PreparedStatement ps = map.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            ps.clearParameters();
+            return ps;
+        }
+
+        ps = generatedKeys
+                ? raw.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                : raw.prepareStatement(sql);
+        map.put(sql, ps);
+        return ps;
+    }
+
+    private synchronized PerConnection cacheOf(Connection raw) throws SQLException {
+        PerConnection cache = byConnection.get(raw);
+        if (cache != null) return cache;
+
+        // A new physical connection usually means the pool retired an old one: drop closed ones.
+        var closed = new ArrayList<Connection>();
+        for (Connection known : byConnection.keySet()) {
+            if (known.isClosed()) closed.add(known);
+        }
+        for (Connection known : closed) byConnection.remove(known);
+
+        cache = new PerConnection(maxPerConnection);
+        byConnection.put(raw, cache);
+        return cache;
+    }
+
+    public synchronized void closeAll() {
+        for (PerConnection cache : byConnection.values()) {
+            for (var map : List.of(cache.plain, cache.withKeys)) {
+                for (PreparedStatement ps : map.values()) {
+                    try { ps.close(); } catch (SQLException ignored) {}
+                }
+            }
+        }
+        byConnection.clear();
+    }
+
+    private static Map<String, PreparedStatement> lru(int max) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= max) return false;
+                try { eldest.getValue().close(); } catch (SQLException ignored) {}
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,409 @@
+package fr.pipoumoney.db.archive;
+
+import fr.pipoumoney.storage.AuditStore;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Immutable columnar file holding a contiguous id range of archived transactions.
+ * The header (ranges, string dictionary, player bloom filter, row counts per source, type and
+ * flag) is stored uncompressed so a scan can skip or count a segment without inflating its body.
+ */
+public final class ArchiveSegment {
+
+    public static final String EXTENSION = ".pmseg";
+
+    private static final int MAGIC = 0x504D4152;
+    private static final int VERSION = 2;
+
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    /** Rows sharing a source, type (indexes into the strings) and flag state. */
+    public record Group(int source, int type, boolean flagged, int rows) {}
+
+    public record Header(
+            File file,
+            int rows,
+            long minId,
+            long maxId,
+            long minAt,
+            long maxAt,
+            int amountScale,
+            List<String> strings,
+            long[] bloom,
+            List<Group> groups,
+            long payloadOffset
+    ) {
+        public boolean mightContainPlayer(UUID uuid) {
+            return bloomContains(bloom, uuid);
+        }
+
+        public boolean hasString(String s) {
+            return strings.contains(s);
+        }
+
+        /** Rows with this source, type and flag state (null = any), or -1 for a segment without groups. */
+        public int countMatching(String source, String type, Boolean flagged) {
+            if (groups == null) return -1;
+            int n = 0;
+            for (Group g : groups) {
+                if (source != null && !source.equals(strings.get(g.source()))) continue;
+                if (type != null && !type.equals(strings.get(g.type()))) continue;
+                if (flagged != null && flagged != g.flagged()) continue;
+                n += g.rows();
+            }
+            return n;
+        }
+    }
+
+    private ArchiveSegment() {}
+
+    public static Header write(File dir, List<AuditStore.Tx> rows) throws IOException {
+        if (rows.isEmpty()) throw new IllegalArgumentException("empty segment");
+
+        int n = rows.size();
+        long minId = Long.MAX_VALUE, maxId = Long.MIN_VALUE, minAt = Long.MAX_VALUE, maxAt = Long.MIN_VALUE;
+
+        var strings = new LinkedHashMap<String, Integer>();
+        var uuids = new LinkedHashMap<UUID, Integer>();
+
+        for (var tx : rows) {
+            minId = Math.min(minId, tx.id());
+            maxId = Math.max(maxId, tx.id());
+            long at = tx.at().toEpochMilli();
+            minAt = Math.min(minAt, at);
+            maxAt = Math.max(maxAt, at);
+
+            strings.putIfAbsent(nz(tx.source()), strings.size());
+            strings.putIfAbsent(nz(tx.type()), strings.size());
+            if (tx.flagReason() != null) strings.putIfAbsent(tx.flagReason(), strings.size());
+
+            if (tx.actor() != null) uuids.putIfAbsent(tx.actor(), uuids.size());
+            if (tx.target() != null) uuids.putIfAbsent(tx.target(), uuids.size());
+            if (tx.flaggedBy() != null) uuids.putIfAbsent(tx.flaggedBy(), uuids.size());
+        }
+
+        long[] bloom = new long[Math.max(1, (n * 2 * BLOOM_BITS_PER_KEY + 63) / 64)];
+        for (var tx : rows) {
+            if (tx.actor() != null) bloomAdd(bloom, tx.actor());
+            if (tx.target() != null) bloomAdd(bloom, tx.target());
+        }
+
+        int scale = amountScale(rows);
+
+        var groups = new LinkedHashMap<Group, Integer>();
+        for (var tx : rows) {
+            groups.merge(new Group(strings.get(nz(tx.source())), strings.get(nz(tx.type())), tx.adminFlagged(), 0), 1, Integer::sum);
+        }
+        var groupList = new ArrayList<Group>(groups.size());
+        groups.forEach((g, count) -> groupList.add(new Group(g.source(), g.type(), g.flagged(), count)));
+
+        File out = new File(dir, "seg-" + minId + "-" + maxId + EXTENSION);
+        File tmp = new File(dir, out.getName() + ".tmp");
+        long payloadOffset;
+
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream head = new DataOutputStream(new BufferedOutputStream(fos));
+            head.writeInt(MAGIC);
+            head.writeInt(VERSION);
+            head.writeInt(n);
+            head.writeLong(minId);
+            head.writeLong(maxId);
+            head.writeLong(minAt);
+            head.writeLong(maxAt);
+            head.writeInt(scale);
+            head.writeInt(strings.size());
+            for (String s : strings.keySet()) head.writeUTF(s);
+            head.writeInt(bloom.length);
+            for (long w : bloom) head.writeLong(w);
+            head.writeInt(groupList.size());
+            for (Group g : groupList) {
+                head.writeInt(g.source());
+                head.writeInt(g.type());
+                head.writeBoolean(g.flagged());
+                head.writeInt(g.rows());
+            }
+            head.flush();
+            payloadOffset = head.size();
+
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                DataOutputStream body = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(fos, deflater, 64 * 1024)));
+
+                writeVarLong(body, uuids.size());
+                for (UUID u : uuids.keySet()) {
+                    body.writeLong(u.getMostSignificantBits());
+                    body.writeLong(u.getLeastSignificantBits());
+                }
+
+                long prev = minId;
+                for (var tx : rows) { writeVarLong(body, zigzag(tx.id() - prev)); prev = tx.id(); }
+
+                prev = minAt;
+                for (var tx : rows) { long at = tx.at().toEpochMilli(); writeVarLong(body, zigzag(at - prev)); prev = at; }
+
+                for (var tx : rows) writeVarLong(body, strings.get(nz(tx.source())));
+                for (var tx : rows) writeVarLong(body, strings.get(nz(tx.type())));
+                for (var tx : rows) writeVarLong(body, ref(uuids, tx.actor()));
+                for (var tx : rows) writeVarLong(body, ref(uuids, tx.target()));
+
+                if (scale >= 0) {
+                    double mul = Math.pow(10, scale);
+                    prev = 0;
+                    for (var tx : rows) {
+                        long units = Math.round(tx.amount() * mul);
+                        writeVarLong(body, zigzag(units - prev));
+                        prev = units;
+                    }
+                } else {
+                    for (var tx : rows) body.writeDouble(tx.amount());
+                }
+
+                for (var tx : rows) body.writeByte(tx.adminFlagged() ? 1 : 0);
+                for (var tx : rows) writeVarLong(body, tx.flagReason() == null ? 0 : strings.get(tx.flagReason()) + 1L);
+                for (var tx : rows) writeVarLong(body, ref(uuids, tx.flaggedBy()));
+                for (var tx : rows) writeVarLong(body, zigzag(tx.flaggedAtMs()));
+
+                body.flush();
+                body.close();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        try (FileOutputStream sync = new FileOutputStream(tmp, true)) {
+            sync.getFD().sync();
+        }
+        Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return new Header(out, n, minId, maxId, minAt, maxAt, scale, List.copyOf(strings.keySet()), bloom,
+                List.copyOf(groupList), payloadOffset);
+    }
+
+    public static Header readHeader(File file) throws IOException {
+        try (var counted = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return readHeader(file, new DataInputStream(counted), counted);
+        }
+    }
+
+    /** Decodes every row of the segment, in id order. */
+    public static List<AuditStore.Tx> readRows(Header h) throws IOException {
+        try (FileInputStream fis = new FileInputStream(h.file())) {
+            fis.getChannel().position(h.payloadOffset());
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(new BufferedInputStream(fis, 64 * 1024)), 64 * 1024))) {
+                int n = h.rows();
+                List<String> strings = h.strings();
+
+                int uuidCount = (int) readVarLong(in);
+                UUID[] uuids = new UUID[uuidCount];
+                for (int i = 0; i < uuidCount; i++) uuids[i] = new UUID(in.readLong(), in.readLong());
+
+                long[] ids = new long[n];
+                long prev = h.minId();
+                for (int i = 0; i < n; i++) { prev += unzigzag(readVarLong(in)); ids[i] = prev; }
+
+                long[] ats = new long[n];
+                prev = h.minAt();
+                for (int i = 0; i < n; i++) { prev += unzigzag(readVarLong(in)); ats[i] = prev; }
+
+                int[] sources = readInts(in, n);
+                int[] types = readInts(in, n);
+                int[] actors = readInts(in, n);
+                int[] targets = readInts(in, n);
+
+                double[] amounts = new double[n];
+                if (h.amountScale() >= 0) {
+                    double div = Math.pow(10, h.amountScale());
+                    prev = 0;
+                    for (int i = 0; i < n; i++) { prev += unzigzag(readVarLong(in)); amounts[i] = prev / div; }
+                } else {
+                    for (int i = 0; i < n; i++) amounts[i] = in.readDouble();
+                }
+
+                byte[] flagged = new byte[n];
+                in.readFully(flagged);
+                int[] reasons = readInts(in, n);
+                int[] flaggedBy = readInts(in, n);
+                long[] flaggedAt = new long[n];
+                for (int i = 0; i < n; i++) flaggedAt[i] = unzigzag(readVarLong(in));
+
+                var out = new ArrayList<AuditStore.Tx>(n);
+                for (int i = 0; i < n; i++) {
+                    out.add(new AuditStore.Tx(
+                            ids[i],
+                            Instant.ofEpochMilli(ats[i]),
+                            strings.get(sources[i]),
+                            strings.get(types[i]),
+                            deref(uuids, actors[i]),
+                            deref(uuids, targets[i]),
+                            amounts[i],
+                            flagged[i] != 0,
+                            reasons[i] == 0 ? null : strings.get(reasons[i] - 1),
+                            deref(uuids, flaggedBy[i]),
+                            flaggedAt[i]
+                    ));
+                }
+                return out;
+            }
+        }
+    }
+
+    private static Header readHeader(File file, DataInputStream in, CountingInputStream counted) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not an archive segment: " + file.getName());
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) throw new IOException("Unsupported segment version " + version + ": " + file.getName());
+
+        int rows = in.readInt();
+        long minId = in.readLong();
+        long maxId = in.readLong();
+        long minAt = in.readLong();
+        long maxAt = in.readLong();
+        int scale = in.readInt();
+
+        int sc = in.readInt();
+        var strings = new ArrayList<String>(sc);
+        for (int i = 0; i < sc; i++) strings.add(in.readUTF());
+
+        long[] bloom = new long[in.readInt()];
+        for (int i = 0; i < bloom.length; i++) bloom[i] = in.readLong();
+
+        // Version 1 segments have no groups: they are counted by reading their body.
+        List<Group> groups = null;
+        if (version >= 2) {
+            int gc = in.readInt();
+            var list = new ArrayList<Group>(gc);
+            for (int i = 0; i < gc; i++) list.add(new Group(in.readInt(), in.readInt(), in.readBoolean(), in.readInt()));
+            groups = List.copyOf(list);
+        }
+
+        return new Header(file, rows, minId, maxId, minAt, maxAt, scale, List.copyOf(strings), bloom, groups, counted.count());
+    }
+
+    // DataInputStream reads exactly what it decodes, so this counts the header bytes.
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long k = super.skip(n);
+            count += k;
+            return k;
+        }
+    }
+
+    private static int amountScale(List<AuditStore.Tx> rows) {
+        for (int scale = 0; scale <= 8; scale++) {
+            double mul = Math.pow(10, scale);
+            boolean ok = true;
+            for (var tx : rows) {
+                double units = tx.amount() * mul;
+                if (Math.abs(units) > 1e15 || Math.round(units) / mul != tx.amount()) { ok = false; break; }
+            }
+            if (ok) return scale;
+        }
+        return -1;
+    }
+
+    private static int[] readInts(DataInputStream in, int n) throws IOException {
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) out[i] = (int) readVarLong(in);
+        return out;
+    }
+
+    private static long ref(Map<UUID, Integer> dict, UUID u) {
+        return u == null ? 0 : dict.get(u) + 1L;
+    }
+
+    private static UUID deref(UUID[] dict, int ref) {
+        return ref == 0 ? null : dict[ref - 1];
+    }
+
+    private static String nz(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static void bloomAdd(long[] bits, UUID u) {
+        long m = bits.length * 64L;
+        long h1 = mix(u.getMostSignificantBits() ^ u.getLeastSignificantBits());
+        long h2 = mix(u.getLeastSignificantBits() * 0x9E3779B97F4A7C15L) | 1L;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, m);
+            bits[(int) (bit >>> 6)] |= 1L << (bit & 63);
+        }
+    }
+
+    private static boolean bloomContains(long[] bits, UUID u) {
+        long m = bits.length * 64L;
+        long h1 = mix(u.getMostSignificantBits() ^ u.getLeastSignificantBits());
+        long h2 = mix(u.getLeastSignificantBits() * 0x9E3779B97F4A7C15L) | 1L;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, m);
+            if ((bits[(int) (bit >>> 6)] & (1L << (bit & 63))) == 0) return false;
+        }
+        return true;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarLong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long r = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            r |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return r;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
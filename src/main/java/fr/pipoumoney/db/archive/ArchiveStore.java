@@ -0,0 +1,182 @@
+package fr.pipoumoney.db.archive;
+
+import fr.pipoumoney.storage.AuditStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+
+public final class ArchiveStore {
+
+    private static final int MAX_TOTALS = 64;
+    private static final long TOTAL_TTL_MS = 60_000L;
+
+    // A query without its page: every page of one listing shares the same total.
+    private record TotalKey(UUID player, String source, String type, Integer days, Double minAmount, Boolean flagged) {}
+
+    private record Total(int rows, long atMs) {}
+
+    private record Scan(List<AuditStore.Tx> rows, int total) {}
+
+    private final File dir;
+    private volatile List<ArchiveSegment.Header> segments;
+
+    // Totals of recent queries, dropped whenever the segment set changes.
+    private final Map<TotalKey, Total> totals = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TotalKey, Total> eldest) {
+            return size() > MAX_TOTALS;
+        }
+    };
+
+    public ArchiveStore(File dir) {
+        this.dir = dir;
+    }
+
+    public synchronized void load() throws IOException {
+        dir.mkdirs();
+
+        File[] files = dir.listFiles((d, name) -> name.endsWith(ArchiveSegment.EXTENSION));
+        var out = new ArrayList<ArchiveSegment.Header>();
+        if (files != null) {
+            for (File f : files) out.add(ArchiveSegment.readHeader(f));
+        }
+        out.sort(Comparator.comparingLong(ArchiveSegment.Header::minId));
+        segments = List.copyOf(out);
+        synchronized (totals) {
+            totals.clear();
+        }
+    }
+
+    public List<ArchiveSegment.Header> segments() {
+        List<ArchiveSegment.Header> s = segments;
+        return s == null ? List.of() : s;
+    }
+
+    public long rowCount() {
+        long n = 0;
+        for (var h : segments()) n += h.rows();
+        return n;
+    }
+
+    public synchronized ArchiveSegment.Header append(List<AuditStore.Tx> rows) throws IOException {
+        dir.mkdirs();
+        var h = ArchiveSegment.write(dir, rows);
+
+        var next = new ArrayList<>(segments());
+        next.add(h);
+        next.sort(Comparator.comparingLong(ArchiveSegment.Header::minId));
+        segments = List.copyOf(next);
+        synchronized (totals) {
+            totals.clear();
+        }
+        return h;
+    }
+
+    public Optional<AuditStore.Tx> findById(long id) throws IOException {
+        for (var h : segments()) {
+            if (id < h.minId() || id > h.maxId()) continue;
+            for (var tx : ArchiveSegment.readRows(h)) {
+                if (tx.id() == id) return Optional.of(tx);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public AuditStore.Page query(AuditStore.Query q) throws IOException {
+        String source = q.source() == null ? null : q.source().toUpperCase(Locale.ROOT);
+        String type = q.type() == null ? null : q.type().toUpperCase(Locale.ROOT);
+        long cutoff = q.days() == null ? Long.MIN_VALUE : Instant.now().minusSeconds(q.days() * 86400L).toEpochMilli();
+
+        int perPage = Math.max(1, Math.min(q.perPage(), Math.max(1, q.limitCap())));
+        var key = new TotalKey(q.player(), source, type, q.days(), q.minAmount(), q.flagged());
+        Integer known = cachedTotal(key);
+
+        int page = Math.max(1, q.page());
+        if (known != null) page = Math.min(page, pages(known, perPage));
+
+        Scan scan = scan(q, source, type, cutoff, (page - 1) * perPage, perPage, known != null);
+        int total = known != null ? known : scan.total();
+        if (known == null) {
+            synchronized (totals) {
+                totals.put(key, new Total(total, System.currentTimeMillis()));
+            }
+        }
+
+        int pages = pages(total, perPage);
+        if (page > pages) {
+            // Past the end and the total was not known up front: read the last page instead.
+            page = pages;
+            scan = scan(q, source, type, cutoff, (page - 1) * perPage, perPage, true);
+        }
+        return new AuditStore.Page(scan.rows(), page, pages, total);
+    }
+
+    private Integer cachedTotal(TotalKey key) {
+        synchronized (totals) {
+            Total t = totals.get(key);
+            if (t == null) return null;
+            if (System.currentTimeMillis() - t.atMs() > TOTAL_TTL_MS) {
+                totals.remove(key);
+                return null;
+            }
+            return t.rows();
+        }
+    }
+
+    private static int pages(int total, int perPage) {
+        return Math.max(1, (int) Math.ceil(total / (double) perPage));
+    }
+
+    // Fills rows [from, from + perPage) newest first. A segment whose header can count its matches is
+    // only inflated when it holds part of the page; with stopWhenFilled the scan ends once the page is full.
+    private Scan scan(AuditStore.Query q, String source, String type, long cutoff,
+                      int from, int perPage, boolean stopWhenFilled) throws IOException {
+        var all = new ArrayList<>(segments());
+        all.sort(Comparator.comparingLong(ArchiveSegment.Header::maxAt).reversed());
+
+        var pageRows = new ArrayList<AuditStore.Tx>(perPage);
+        int total = 0;
+
+        for (var h : all) {
+            if (h.maxAt() < cutoff) continue;
+            if (q.player() != null && !h.mightContainPlayer(q.player())) continue;
+            if (source != null && !h.hasString(source)) continue;
+            if (type != null && !h.hasString(type)) continue;
+
+            boolean filled = pageRows.size() >= perPage;
+            if (filled && stopWhenFilled) break;
+
+            int counted = headerCount(h, q, source, type, cutoff);
+            if (counted >= 0 && (filled || total + counted <= from)) {
+                total += counted;
+                continue;
+            }
+
+            List<AuditStore.Tx> rows = ArchiveSegment.readRows(h);
+            for (int i = rows.size() - 1; i >= 0; i--) {
+                var tx = rows.get(i);
+                if (!matches(tx, q, source, type, cutoff)) continue;
+                if (total >= from && pageRows.size() < perPage) pageRows.add(tx);
+                total++;
+            }
+        }
+        return new Scan(pageRows, total);
+    }
+
+    // Matches of a segment from its header alone, or -1 when the body has to be read.
+    private static int headerCount(ArchiveSegment.Header h, AuditStore.Query q, String source, String type, long cutoff) {
+        if (q.player() != null || q.minAmount() != null || h.minAt() < cutoff) return -1;
+        return h.countMatching(source, type, q.flagged());
+    }
+
+    private static boolean matches(AuditStore.Tx tx, AuditStore.Query q, String source, String type, long cutoff) {
+        if (tx.at().toEpochMilli() < cutoff) return false;
+        if (q.player() != null && !q.player().equals(tx.actor()) && !q.player().equals(tx.target())) return false;
+        if (source != null && !source.equals(tx.source())) return false;
+        if (type != null && !type.equals(tx.type())) return false;
+        if (q.minAmount() != null && tx.amount() < q.minAmount()) return false;
+        return q.flagged() == null || q.flagged() == tx.adminFlagged();
+    }
+}
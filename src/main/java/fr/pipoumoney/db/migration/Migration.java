@@ -0,0 +1,25 @@
+package fr.pipoumoney.db.migration;
+
+import fr.pipoumoney.db.Database;
+
+import java.sql.SQLException;
+
+/**
+ * One numbered schema step with a body per dialect. Steps must be idempotent: a step that was
+ * interrupted before its version got recorded runs again in full on the next start.
+ */
+public record Migration(int version, String name, Step sqlite, Step mysql) {
+
+    @FunctionalInterface
+    public interface Step {
+        void apply(MigrationContext ctx) throws SQLException;
+    }
+
+    public static Migration of(int version, String name, Step both) {
+        return new Migration(version, name, both, both);
+    }
+
+    Step stepFor(Database.Dialect dialect) {
+        return dialect == Database.Dialect.MYSQL ? mysql : sqlite;
+    }
+}
@@ -0,0 +1,128 @@
+package fr.pipoumoney.db.migration;
+
+import fr.pipoumoney.db.Database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/** Connection plus the existence checks that keep migration steps safe to re-run. */
+public final class MigrationContext {
+
+    @FunctionalInterface
+    public interface RangeStep {
+        /** Processes the id range {@code (fromExclusive, toInclusive]}. */
+        void apply(long fromExclusive, long toInclusive) throws SQLException;
+    }
+
+    private final Connection c;
+    private final Statement st;
+    private final Database.Dialect dialect;
+    private final int batchSize;
+
+    MigrationContext(Connection c, Statement st, Database.Dialect dialect, int batchSize) {
+        this.c = c;
+        this.st = st;
+        this.dialect = dialect;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public Connection connection() { return c; }
+    public Statement statement() { return st; }
+    public Database.Dialect dialect() { return dialect; }
+    public boolean isMysql() { return dialect == Database.Dialect.MYSQL; }
+
+    public void exec(String sql) throws SQLException {
+        st.executeUpdate(sql);
+    }
+
+    public boolean tableExists(String table) throws SQLException {
+        try (ResultSet rs = c.getMetaData().getTables(c.getCatalog(), null, table, new String[]{"TABLE"})) {
+            return rs.next();
+        }
+    }
+
+    public boolean columnExists(String table, String column) throws SQLException {
+        try (ResultSet rs = c.getMetaData().getColumns(c.getCatalog(), null, table, column)) {
+            return rs.next();
+        }
+    }
+
+    public boolean indexExists(String table, String index) throws SQLException {
+        String sql = isMysql()
+                ? "SELECT 1 FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?"
+                : "SELECT 1 FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND name = ?";
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, table);
+            ps.setString(2, index);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    public void addColumn(String table, String column, String definition) throws SQLException {
+        if (columnExists(table, column)) return;
+        exec("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+    }
+
+    public void createIndex(String table, String index, String columns) throws SQLException {
+        if (indexExists(table, index)) return;
+        exec("CREATE INDEX " + index + " ON " + table + "(" + columns + ")");
+    }
+
+    public long maxId(String table) throws SQLException {
+        try (ResultSet rs = st.executeQuery("SELECT MAX(id) FROM " + table)) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+
+    /**
+     * Runs {@code step} over {@code (start, last]} in batches, each committed together with the
+     * progress row, so a restart picks up after the last finished batch.
+     */
+    public void backfill(String name, long start, long last, RangeStep step) throws SQLException {
+        exec("CREATE TABLE IF NOT EXISTS schema_backfill (name VARCHAR(64) PRIMARY KEY, done_upto BIGINT NOT NULL)");
+        long done = Math.max(start, progress(name));
+
+        boolean auto = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try (PreparedStatement del = c.prepareStatement("DELETE FROM schema_backfill WHERE name = ?");
+             PreparedStatement ins = c.prepareStatement("INSERT INTO schema_backfill(name, done_upto) VALUES(?, ?)")) {
+            while (done < last) {
+                long to = Math.min(last, done + batchSize);
+                step.apply(done, to);
+
+                del.setString(1, name);
+                del.executeUpdate();
+                ins.setString(1, name);
+                ins.setLong(2, to);
+                ins.executeUpdate();
+
+                c.commit();
+                done = to;
+            }
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(auto);
+        }
+
+        try (PreparedStatement ps = c.prepareStatement("DELETE FROM schema_backfill WHERE name = ?")) {
+            ps.setString(1, name);
+            ps.executeUpdate();
+        }
+    }
+
+    private long progress(String name) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT done_upto FROM schema_backfill WHERE name = ?")) {
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package fr.pipoumoney.db.migration;
+
+import fr.pipoumoney.db.Database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.List;
+
+/** Applies pending migrations in version order and records each one in {@code schema_version}. */
+public final class Migrator {
+
+    private final Statement st;
+    private final MigrationContext ctx;
+    private final Database.Dialect dialect;
+
+    public Migrator(Connection c, Statement st, Database.Dialect dialect, int batchSize) throws SQLException {
+        this.st = st;
+        this.dialect = dialect;
+        this.ctx = new MigrationContext(c, st, dialect, batchSize);
+        st.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (version INTEGER NOT NULL)");
+    }
+
+    public MigrationContext context() {
+        return ctx;
+    }
+
+    public int version() throws SQLException {
+        try (ResultSet rs = st.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /** Marks a freshly created schema as already being at {@code version}. */
+    public void baseline(int version) throws SQLException {
+        write(version);
+    }
+
+    /** Returns the number of migrations applied. */
+    public int migrate(List<Migration> migrations) throws SQLException {
+        int current = version();
+        int applied = 0;
+
+        var ordered = migrations.stream().sorted(Comparator.comparingInt(Migration::version)).toList();
+        for (Migration m : ordered) {
+            if (m.version() <= current) continue;
+            try {
+                m.stepFor(dialect).apply(ctx);
+            } catch (SQLException e) {
+                throw new SQLException("Migration " + m.version() + " (" + m.name() + ") failed: " + e.getMessage(), e);
+            }
+            write(m.version());
+            current = m.version();
+            applied++;
+        }
+        return applied;
+    }
+
+    private void write(int version) throws SQLException {
+        st.executeUpdate("DELETE FROM schema_version");
+        st.executeUpdate("INSERT INTO schema_version(version) VALUES(" + version + ")");
+    }
+}
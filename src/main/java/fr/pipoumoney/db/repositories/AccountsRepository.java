@@ -1,6 +1,10 @@
 package fr.pipoumoney.db.repositories;
 
 import fr.pipoumoney.db.Database;
+import fr.pipoumoney.db.RowDecoder;
+import fr.pipoumoney.db.StatementCache;
+import fr.pipoumoney.storage.AccountStore;
+import fr.pipoumoney.utils.UuidUtil;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
@@ -8,173 +12,419 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-public final class AccountsRepository {
+public final class AccountsRepository implements AccountStore {
 
-    public record Row(UUID uuid, String name, double balance, boolean notificationsEnabled, boolean locked, long lastActivityMs) {}
+    private static final String ROW_COLUMNS = "uuid, name, balance, notify, locked, last_activity_ms, version";
+
+    private static final RowDecoder<Row> ROW = rs -> {
+        UUID uuid = UuidUtil.fromBytes(rs.getBytes(1));
+        if (uuid == null) return null;
+        return new Row(uuid, rs.getString(2), rs.getDouble(3), rs.getInt(4) != 0, rs.getInt(5) != 0,
+                rs.getLong(6), rs.getLong(7));
+    };
+
+    private static final RowDecoder<Stored> STORED = rs -> {
+        UUID uuid = UuidUtil.fromBytes(rs.getBytes(1));
+        return uuid == null ? null : new Stored(uuid, rs.getDouble(2), rs.getLong(3));
+    };
+
+    private static final RowDecoder<Long> LONG = rs -> rs.getLong(1);
+    private static final RowDecoder<Double> BALANCE = rs -> rs.getDouble(1);
+
+    private static final String LIST_BY_BALANCE = "SELECT " + ROW_COLUMNS + " FROM accounts WHERE balance >= ? " +
+            "ORDER BY balance DESC, name ASC LIMIT ? OFFSET ?";
+    private static final String LIST_BY_NAME = "SELECT " + ROW_COLUMNS + " FROM accounts WHERE balance >= ? " +
+            "ORDER BY name ASC, balance DESC LIMIT ? OFFSET ?";
+    private static final String TOP = "SELECT " + ROW_COLUMNS + " FROM accounts WHERE balance >= ? " +
+            "ORDER BY balance DESC, name ASC LIMIT ?";
 
     private final DataSource ds;
+    private final DataSource readDs;
+    private final DataSource replicaDs;
     private final boolean mysql;
+    private final StatementCache statements;
+
+    // Multi-row statements of the same row count share one SQL string, and so one cached statement.
+    // Row counts are powers of two up to MAX_SHAPE, so each map holds at most a dozen strings:
+    // inserts are split into such pieces, IN lists are padded by repeating their last value.
+    private static final int MAX_SHAPE = 1024;
+
+    private final Map<Integer, String> upsertSql = new ConcurrentHashMap<>();
+    private final Map<Integer, String> deltaSql = new ConcurrentHashMap<>();
+    private final Map<Integer, String> storedSql = new ConcurrentHashMap<>();
+    private final Map<Integer, String> rowsSql = new ConcurrentHashMap<>();
+    private final Map<Integer, String> changesSql = new ConcurrentHashMap<>();
+
+    // Node id stamped on account_changes rows, null while the change feed is off.
+    private volatile String changeNode;
 
     public AccountsRepository(Database db) {
         this.ds = db.dataSource();
+        this.readDs = db.readDataSource();
+        this.replicaDs = db.replicaDataSource();
         this.mysql = db.isMysql();
+        this.statements = db.statements();
     }
 
+    @Override
     public Map<UUID, Row> loadAll() throws Exception {
         var out = new HashMap<UUID, Row>();
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT uuid, name, balance, notify, locked, last_activity_ms FROM accounts"
-             )) {
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    UUID uuid = UUID.fromString(rs.getString("uuid"));
-                    String name = rs.getString("name");
-                    double bal = rs.getDouble("balance");
-                    boolean notificationsEnabled = rs.getInt("notify") != 0;
-                    boolean locked = rs.getInt("locked") != 0;
-                    long last = rs.getLong("last_activity_ms");
-                    out.put(uuid, new Row(uuid, name, bal, notificationsEnabled, locked, last));
-                }
+        try (Connection c = readDs.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT " + ROW_COLUMNS + " FROM accounts");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Row row = ROW.decode(rs);
+                if (row != null) out.put(row.uuid(), row);
             }
         }
         return out;
     }
 
-    public void upsertBatch(
+    /**
+     * Writes accounts in chunks of one multi-row upsert each, every chunk in its own transaction.
+     * {@code onChunk} receives the uuids of each committed chunk.
+     */
+    @Override
+    public FlushResult upsertBatch(
             List<UUID> uuids,
             java.util.function.Function<UUID, String> nameResolver,
             java.util.function.Function<UUID, Double> balanceResolver,
             java.util.function.Function<UUID, Boolean> notificationsEnabledResolver,
             java.util.function.Function<UUID, Boolean> lockedResolver,
-            java.util.function.Function<UUID, Long> lastActivityResolver
+            java.util.function.Function<UUID, Long> lastActivityResolver,
+            int chunkSize,
+            java.util.function.Consumer<List<UUID>> onChunk
     ) throws Exception {
 
-        if (uuids == null || uuids.isEmpty()) return;
+        if (uuids == null || uuids.isEmpty()) return FlushResult.EMPTY;
+
+        // Every node locks rows in key order, so concurrent flushes of the same accounts on a
+        // shared database wait for each other instead of deadlocking.
+        uuids = new ArrayList<>(uuids);
+        uuids.sort(UuidUtil.BYTE_ORDER);
 
         long now = Instant.now().toEpochMilli();
+        int chunk = Math.max(1, chunkSize);
+
+        int chunks = 0;
+        long total = 0L;
+        long slowest = 0L;
+
+        try (Connection c = ds.getConnection()) {
+            boolean auto = c.getAutoCommit();
+            c.setAutoCommit(false);
+            try {
+                for (int from = 0; from < uuids.size(); from += chunk) {
+                    List<UUID> part = uuids.subList(from, Math.min(uuids.size(), from + chunk));
+                    long start = System.nanoTime();
+                    try {
+                        for (int at = 0; at < part.size(); ) {
+                            int n = shape(part.size() - at);
+                            PreparedStatement ps = statements.prepare(c, upsertSql(n, false));
+                            int idx = 1;
+                            for (UUID uuid : part.subList(at, at + n)) {
+                                ps.setBytes(idx++, UuidUtil.toBytes(uuid));
+                                ps.setString(idx++, nameResolver.apply(uuid));
+                                ps.setDouble(idx++, balanceResolver.apply(uuid));
+                                ps.setLong(idx++, now);
+                                ps.setInt(idx++, notificationsEnabledResolver.apply(uuid) ? 1 : 0);
+                                ps.setInt(idx++, lockedResolver.apply(uuid) ? 1 : 0);
+                                ps.setLong(idx++, lastActivityResolver.apply(uuid));
+                            }
+                            ps.executeUpdate();
+                            at += n;
+                        }
+                        writeChanges(c, part, now);
+                        c.commit();
+                    } catch (Exception e) {
+                        c.rollback();
+                        throw e;
+                    }
+                    long ms = (System.nanoTime() - start) / 1_000_000L;
 
-        String sqlMysql = """
-            INSERT INTO accounts(uuid, name, balance, updated_ms, notify, locked, last_activity_ms)
-            VALUES(?, ?, ?, ?, ?, ?, ?)
-            ON DUPLICATE KEY UPDATE
-              name=VALUES(name),
-              balance=VALUES(balance),
-              updated_ms=VALUES(updated_ms),
-              notify=VALUES(notify),
-              locked=VALUES(locked),
-              last_activity_ms=VALUES(last_activity_ms)
-        """;
-
-        String sqlSqlite = """
-            INSERT INTO accounts(uuid, name, balance, updated_ms, notify, locked, last_activity_ms)
-            VALUES(?, ?, ?, ?, ?, ?, ?)
-            ON CONFLICT(uuid) DO UPDATE SET
-              name=excluded.name,
-              balance=excluded.balance,
-              updated_ms=excluded.updated_ms,
-              notify=excluded.notify,
-              locked=excluded.locked,
-              last_activity_ms=excluded.last_activity_ms
-        """;
-
-        String sql = mysql ? sqlMysql : sqlSqlite;
-
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            for (UUID uuid : uuids) {
-                ps.setString(1, uuid.toString());
-                ps.setString(2, nameResolver.apply(uuid));
-                ps.setDouble(3, balanceResolver.apply(uuid));
-                ps.setLong(4, now);
-                ps.setInt(5, notificationsEnabledResolver.apply(uuid) ? 1 : 0);
-                ps.setInt(6, lockedResolver.apply(uuid) ? 1 : 0);
-                ps.setLong(7, lastActivityResolver.apply(uuid));
-                ps.addBatch();
+                    chunks++;
+                    total += ms;
+                    slowest = Math.max(slowest, ms);
+                    onChunk.accept(part);
+                }
+            } finally {
+                c.setAutoCommit(auto);
             }
-            ps.executeBatch();
         }
+        return new FlushResult(uuids.size(), chunks, total, slowest);
     }
 
-    public int countByMin(double min) throws Exception {
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM accounts WHERE balance >= ?")) {
-            ps.setDouble(1, min);
-            try (ResultSet rs = ps.executeQuery()) {
-                return rs.next() ? rs.getInt(1) : 0;
-            }
+    /** Rows of the next insert piece: the largest allowed shape that fits in {@code remaining}. */
+    private static int shape(int remaining) {
+        return Math.min(MAX_SHAPE, Integer.highestOneBit(remaining));
+    }
+
+    /** Slots of an IN list for {@code n} values (at most MAX_SHAPE), the spare ones repeat the last value. */
+    private static int paddedShape(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private String upsertSql(int rows, boolean addBalance) {
+        return (addBalance ? deltaSql : upsertSql).computeIfAbsent(rows, n -> buildUpsertSql(n, addBalance));
+    }
+
+    private String buildUpsertSql(int rows, boolean addBalance) {
+        StringBuilder sb = new StringBuilder(160 + rows * 24);
+        sb.append("INSERT INTO accounts(uuid, name, balance, updated_ms, notify, locked, last_activity_ms) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("(?, ?, ?, ?, ?, ?, ?)");
         }
+
+        if (mysql) {
+            sb.append(addBalance
+                    ? " ON DUPLICATE KEY UPDATE balance=balance + VALUES(balance),"
+                    : " ON DUPLICATE KEY UPDATE balance=VALUES(balance),");
+            sb.append("""
+                  name=VALUES(name),
+                  updated_ms=VALUES(updated_ms),
+                  notify=VALUES(notify),
+                  locked=VALUES(locked),
+                  last_activity_ms=VALUES(last_activity_ms),
+                  version=version + 1
+                """);
+        } else {
+            sb.append(addBalance
+                    ? " ON CONFLICT(uuid) DO UPDATE SET balance=balance + excluded.balance,"
+                    : " ON CONFLICT(uuid) DO UPDATE SET balance=excluded.balance,");
+            sb.append("""
+                  name=excluded.name,
+                  updated_ms=excluded.updated_ms,
+                  notify=excluded.notify,
+                  locked=excluded.locked,
+                  last_activity_ms=excluded.last_activity_ms,
+                  version=version + 1
+                """);
+        }
+        return sb.toString();
     }
 
-    public List<Row> list(double min, String sort, int limit, int offset) throws Exception {
-        String orderBy = "balance DESC, name ASC";
-        if ("name".equalsIgnoreCase(sort)) orderBy = "name ASC, balance DESC";
+    /**
+     * Multi-server flush: deltas are added to the stored balance, absolute writes replace it, and the
+     * resulting balance/version of every row is read back in the same transaction.
+     * {@code onChunk} receives the authoritative rows of each committed chunk.
+     */
+    @Override
+    public FlushResult applyBalanceWrites(List<BalanceWrite> writes,
+                                          int chunkSize,
+                                          java.util.function.Consumer<List<Stored>> onChunk) throws Exception {
+        if (writes == null || writes.isEmpty()) return FlushResult.EMPTY;
 
-        String sql = "SELECT uuid, name, balance, notify, locked, last_activity_ms FROM accounts WHERE balance >= ? " +
-                "ORDER BY " + orderBy + " LIMIT ? OFFSET ?";
+        // Key order for the row locks, as in upsertBatch.
+        writes = new ArrayList<>(writes);
+        writes.sort(Comparator.comparing(BalanceWrite::uuid, UuidUtil.BYTE_ORDER));
 
-        var rows = new ArrayList<Row>();
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setDouble(1, min);
-            ps.setInt(2, limit);
-            ps.setInt(3, offset);
+        long now = Instant.now().toEpochMilli();
+        int chunk = Math.max(1, chunkSize);
+
+        int chunks = 0;
+        long total = 0L;
+        long slowest = 0L;
+
+        try (Connection c = ds.getConnection()) {
+            boolean auto = c.getAutoCommit();
+            c.setAutoCommit(false);
+            try {
+                for (int from = 0; from < writes.size(); from += chunk) {
+                    List<BalanceWrite> part = writes.subList(from, Math.min(writes.size(), from + chunk));
+                    var deltas = new ArrayList<BalanceWrite>(part.size());
+                    var absolutes = new ArrayList<BalanceWrite>();
+                    for (BalanceWrite w : part) (w.absolute() ? absolutes : deltas).add(w);
 
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    UUID uuid = UUID.fromString(rs.getString("uuid"));
-                    String name = rs.getString("name");
-                    double bal = rs.getDouble("balance");
-                    boolean notificationsEnabled = rs.getInt("notify") != 0;
-                    boolean locked = rs.getInt("locked") != 0;
-                    long last = rs.getLong("last_activity_ms");
-                    rows.add(new Row(uuid, name, bal, notificationsEnabled, locked, last));
+                    long start = System.nanoTime();
+                    List<Stored> stored;
+                    try {
+                        writeBalances(c, deltas, false, now);
+                        writeBalances(c, absolutes, true, now);
+                        stored = readStored(c, part);
+                        writeChanges(c, stored.stream().map(Stored::uuid).toList(), now);
+                        c.commit();
+                    } catch (Exception e) {
+                        c.rollback();
+                        throw e;
+                    }
+                    long ms = (System.nanoTime() - start) / 1_000_000L;
+
+                    chunks++;
+                    total += ms;
+                    slowest = Math.max(slowest, ms);
+                    onChunk.accept(stored);
                 }
+            } finally {
+                c.setAutoCommit(auto);
             }
         }
-        return rows;
+        return new FlushResult(writes.size(), chunks, total, slowest);
     }
 
-    public List<Row> top(double min, int limit) throws Exception {
-        String sql = "SELECT uuid, name, balance, notify, locked, last_activity_ms FROM accounts WHERE balance >= ? " +
-                "ORDER BY balance DESC, name ASC LIMIT ?";
+    private void writeBalances(Connection c, List<BalanceWrite> rows, boolean absolute, long now) throws Exception {
+        for (int at = 0; at < rows.size(); ) {
+            int n = shape(rows.size() - at);
+            PreparedStatement ps = statements.prepare(c, upsertSql(n, !absolute));
+            int idx = 1;
+            for (BalanceWrite w : rows.subList(at, at + n)) {
+                ps.setBytes(idx++, UuidUtil.toBytes(w.uuid()));
+                ps.setString(idx++, w.name());
+                ps.setDouble(idx++, w.amount());
+                ps.setLong(idx++, now);
+                ps.setInt(idx++, w.notificationsEnabled() ? 1 : 0);
+                ps.setInt(idx++, w.locked() ? 1 : 0);
+                ps.setLong(idx++, w.lastActivityMs());
+            }
+            ps.executeUpdate();
+            at += n;
+        }
+    }
 
-        var rows = new ArrayList<Row>();
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setDouble(1, min);
-            ps.setInt(2, limit);
+    private static String inList(String prefix, int n, String placeholder, String suffix) {
+        StringBuilder sb = new StringBuilder(prefix.length() + n * (placeholder.length() + 1) + suffix.length());
+        sb.append(prefix);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(placeholder);
+        }
+        return sb.append(suffix).toString();
+    }
 
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    UUID uuid = UUID.fromString(rs.getString("uuid"));
-                    String name = rs.getString("name");
-                    double bal = rs.getDouble("balance");
-                    boolean notificationsEnabled = rs.getInt("notify") != 0;
-                    boolean locked = rs.getInt("locked") != 0;
-                    long last = rs.getLong("last_activity_ms");
-                    rows.add(new Row(uuid, name, bal, notificationsEnabled, locked, last));
-                }
+    private List<Stored> readStored(Connection c, List<BalanceWrite> rows) throws Exception {
+        return selectIn(c, storedSql, "SELECT uuid, balance, version FROM accounts WHERE uuid IN (",
+                rows.stream().map(BalanceWrite::uuid).toList(), STORED);
+    }
+
+    /** {@code prefix} + an IN list over {@code uuids}, in pieces of padded shape. */
+    private <T> List<T> selectIn(Connection c, Map<Integer, String> shapes, String prefix,
+                                 List<UUID> uuids, RowDecoder<T> decoder) throws Exception {
+        var out = new ArrayList<T>(uuids.size());
+        for (int at = 0; at < uuids.size(); at += MAX_SHAPE) {
+            List<UUID> part = uuids.subList(at, Math.min(uuids.size(), at + MAX_SHAPE));
+            int slots = paddedShape(part.size());
+            PreparedStatement ps = statements.prepare(c,
+                    shapes.computeIfAbsent(slots, n -> inList(prefix, n, "?", ")")));
+            for (int i = 0; i < slots; i++) {
+                ps.setBytes(i + 1, UuidUtil.toBytes(part.get(Math.min(i, part.size() - 1))));
             }
+            out.addAll(decoder.all(ps));
         }
-        return rows;
+        return out;
     }
 
-    public int rankOf(UUID uuid) throws Exception {
-        double bal;
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement("SELECT balance FROM accounts WHERE uuid = ?")) {
-            ps.setString(1, uuid.toString());
-            try (ResultSet rs = ps.executeQuery()) {
-                bal = rs.next() ? rs.getDouble(1) : 0.0;
+    @Override
+    public void setChangeNode(String node) {
+        this.changeNode = node;
+    }
+
+    private void writeChanges(Connection c, List<UUID> uuids, long now) throws Exception {
+        String node = changeNode;
+        if (node == null || uuids.isEmpty()) return;
+
+        for (int at = 0; at < uuids.size(); ) {
+            int rows = shape(uuids.size() - at);
+            String sql = changesSql.computeIfAbsent(rows,
+                    n -> inList("INSERT INTO account_changes(node, uuid, at_ms) VALUES ", n, "(?, ?, ?)", ""));
+
+            PreparedStatement ps = statements.prepare(c, sql);
+            int idx = 1;
+            for (UUID uuid : uuids.subList(at, at + rows)) {
+                ps.setString(idx++, node);
+                ps.setBytes(idx++, UuidUtil.toBytes(uuid));
+                ps.setLong(idx++, now);
             }
+            ps.executeUpdate();
+            at += rows;
         }
+    }
 
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM accounts WHERE balance > ?")) {
-            ps.setDouble(1, bal);
-            try (ResultSet rs = ps.executeQuery()) {
-                int higher = rs.next() ? rs.getInt(1) : 0;
-                return higher + 1;
-            }
+    @Override
+    public long latestChangeSeq() throws Exception {
+        try (Connection c = readDs.getConnection()) {
+            Long seq = LONG.first(statements.prepare(c, "SELECT MAX(seq) FROM account_changes"));
+            return seq == null ? 0L : seq;
+        }
+    }
+
+    /** Changes written by other nodes after {@code seq}, in sequence order. */
+    @Override
+    public List<Change> changesSince(long seq, String exceptNode, int limit) throws Exception {
+        try (Connection c = readDs.getConnection()) {
+            PreparedStatement ps = statements.prepare(c,
+                    "SELECT seq, uuid, node FROM account_changes WHERE seq > ? ORDER BY seq ASC LIMIT ?");
+            ps.setLong(1, seq);
+            ps.setInt(2, Math.max(1, limit));
+
+            // Own rows are still returned (as null uuid) so the reader can tell gaps from foreign writes.
+            RowDecoder<Change> change = rs -> new Change(rs.getLong(1),
+                    exceptNode.equals(rs.getString(3)) ? null : UuidUtil.fromBytes(rs.getBytes(2)));
+            return change.all(ps);
+        }
+    }
+
+    @Override
+    public List<Row> loadByUuids(Collection<UUID> uuids) throws Exception {
+        if (uuids.isEmpty()) return List.of();
+
+        try (Connection c = readDs.getConnection()) {
+            return selectIn(c, rowsSql, "SELECT " + ROW_COLUMNS + " FROM accounts WHERE uuid IN (", List.copyOf(uuids), ROW);
+        }
+    }
+
+    @Override
+    public int pruneChanges(long olderThanMs) throws Exception {
+        try (Connection c = ds.getConnection()) {
+            PreparedStatement ps = statements.prepare(c, "DELETE FROM account_changes WHERE at_ms < ?");
+            ps.setLong(1, olderThanMs);
+            return ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public int countByMin(double min) throws Exception {
+        try (Connection c = replicaDs.getConnection()) {
+            PreparedStatement ps = statements.prepare(c, "SELECT COUNT(*) FROM accounts WHERE balance >= ?");
+            ps.setDouble(1, min);
+            Long n = LONG.first(ps);
+            return n == null ? 0 : n.intValue();
+        }
+    }
+
+    @Override
+    public List<Row> list(double min, String sort, int limit, int offset) throws Exception {
+        try (Connection c = replicaDs.getConnection()) {
+            PreparedStatement ps = statements.prepare(c, "name".equalsIgnoreCase(sort) ? LIST_BY_NAME : LIST_BY_BALANCE);
+            ps.setDouble(1, min);
+            ps.setInt(2, limit);
+            ps.setInt(3, offset);
+            return ROW.all(ps);
+        }
+    }
+
+    @Override
+    public List<Row> top(double min, int limit) throws Exception {
+        try (Connection c = replicaDs.getConnection()) {
+            PreparedStatement ps = statements.prepare(c, TOP);
+            ps.setDouble(1, min);
+            ps.setInt(2, limit);
+            return ROW.all(ps);
+        }
+    }
+
+    @Override
+    public int rankOf(UUID uuid) throws Exception {
+        try (Connection c = replicaDs.getConnection()) {
+            PreparedStatement bal = statements.prepare(c, "SELECT balance FROM accounts WHERE uuid = ?");
+            bal.setBytes(1, UuidUtil.toBytes(uuid));
+            Double balance = BALANCE.first(bal);
+
+            PreparedStatement ps = statements.prepare(c, "SELECT COUNT(*) FROM accounts WHERE balance > ?");
+            ps.setDouble(1, balance == null ? 0.0 : balance);
+            Long higher = LONG.first(ps);
+            return (higher == null ? 0 : higher.intValue()) + 1;
         }
     }
 }
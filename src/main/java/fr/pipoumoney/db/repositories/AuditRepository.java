@@ -1,245 +1,307 @@
 package fr.pipoumoney.db.repositories;
 
 import fr.pipoumoney.db.Database;
+import fr.pipoumoney.db.RowDecoder;
+import fr.pipoumoney.db.StatementCache;
+import fr.pipoumoney.storage.AuditStore;
+import fr.pipoumoney.utils.UuidUtil;
 
 import javax.sql.DataSource;
 import java.sql.*;
 import java.time.Instant;
 import java.util.*;
 
-public final class AuditRepository {
-
-    public record Tx(
-            long id,
-            Instant at,
-            String source,
-            String type,
-            UUID actor,
-            UUID target,
-            double amount,
-            boolean adminFlagged,
-            String flagReason,
-            UUID flaggedBy,
-            long flaggedAtMs
-    ) {}
-
-    public record Query(
-            UUID player,
-            String source,
-            String type,
-            Integer days,
-            Double minAmount,
-            Boolean flagged,
-            int page,
-            int perPage,
-            int limitCap
-    ) {}
-
-    public record Page(List<Tx> rows, int page, int pages, int total) {}
+public final class AuditRepository implements AuditStore {
+
+    private static final String TX_COLUMNS = """
+            id, at_epoch_ms, source_id, type_id, actor_uuid, target_uuid, amount,
+                   admin_flagged, flag_reason, flagged_by_uuid, flagged_at_ms
+        """;
+
+    private static final String INSERT_TX = """
+            INSERT INTO transactions(at_epoch_ms, source_id, type_id, actor_uuid, target_uuid, amount, admin_flagged, flag_reason, flagged_by_uuid, flagged_at_ms)
+            VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+        """;
+
+    // Query filters, one bit each: every combination is its own SQL shape and cached statement.
+    private static final int F_PLAYER = 1;
+    private static final int F_SOURCE = 1 << 1;
+    private static final int F_TYPE = 1 << 2;
+    private static final int F_DAYS = 1 << 3;
+    private static final int F_MIN_AMOUNT = 1 << 4;
+    private static final int F_FLAGGED = 1 << 5;
+
+    private static final String[] WHERE = new String[1 << 6];
+    private static final String[] COUNT_SQL = new String[WHERE.length];
+    private static final String[] PAGE_SQL = new String[WHERE.length];
+    static {
+        for (int mask = 0; mask < WHERE.length; mask++) {
+            StringBuilder where = new StringBuilder(" WHERE 1=1 ");
+            if ((mask & F_PLAYER) != 0) where.append(" AND (actor_uuid = ? OR target_uuid = ?) ");
+            if ((mask & F_SOURCE) != 0) where.append(" AND source_id = ? ");
+            if ((mask & F_TYPE) != 0) where.append(" AND type_id = ? ");
+            if ((mask & F_DAYS) != 0) where.append(" AND at_epoch_ms >= ? ");
+            if ((mask & F_MIN_AMOUNT) != 0) where.append(" AND amount >= ? ");
+            if ((mask & F_FLAGGED) != 0) where.append(" AND admin_flagged = ? ");
+            WHERE[mask] = where.toString();
+            COUNT_SQL[mask] = "SELECT COUNT(*) FROM transactions" + WHERE[mask];
+            PAGE_SQL[mask] = "SELECT " + TX_COLUMNS + " FROM transactions" + WHERE[mask] + " ORDER BY at_epoch_ms DESC LIMIT ? OFFSET ?";
+        }
+    }
+
+    private static final String BY_ID = "SELECT " + TX_COLUMNS + " FROM transactions WHERE id = ?";
+    private static final String OLDER_THAN = "SELECT " + TX_COLUMNS + " FROM transactions WHERE at_epoch_ms < ? ORDER BY id ASC LIMIT ?";
+
+    private static final RowDecoder<Long> LONG = rs -> rs.getLong(1);
 
     private final DataSource ds;
+    private final DataSource readDs;
+    private final DataSource replicaDs;
     private final boolean mysql;
+    private final TxCodeRepository codes;
+    private final StatementCache statements;
+    private final RowDecoder<Tx> tx = this::readTx;
 
     public AuditRepository(Database db) {
-        this.ds = db.dataSource();
+        this.ds = db.auditDataSource();
+        this.readDs = db.auditReadDataSource();
+        this.replicaDs = db.auditReplicaDataSource();
         this.mysql = db.isMysql();
+        this.codes = new TxCodeRepository(db);
+        this.statements = db.statements();
     }
 
-    public long insert(Instant at, String source, String type, UUID actor, UUID target, double amount) throws Exception {
-        String sql = """
-            INSERT INTO transactions(at_epoch_ms, source, type, actor_uuid, target_uuid, amount, admin_flagged, flag_reason, flagged_by_uuid, flagged_at_ms)
-            VALUES(?, ?, ?, ?, ?, ?, 0, NULL, NULL, 0)
-        """;
-
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            ps.setLong(1, at.toEpochMilli());
-            ps.setString(2, source);
-            ps.setString(3, type);
-            ps.setString(4, actor != null ? actor.toString() : null);
-            ps.setString(5, target != null ? target.toString() : null);
-            ps.setDouble(6, amount);
-            ps.executeUpdate();
-
-            try (ResultSet keys = ps.getGeneratedKeys()) {
-                if (keys != null && keys.next()) return keys.getLong(1);
-            }
-
-            if (!mysql) {
-                try (PreparedStatement lastId = c.prepareStatement("SELECT last_insert_rowid()");
-                     ResultSet rs = lastId.executeQuery()) {
-                    if (rs.next()) return rs.getLong(1);
+    /** Inserts all rows in one transaction and returns their ids in the same order. */
+    @Override
+    public long[] insertBatch(List<NewTx> rows) throws Exception {
+        long[] ids = new long[rows.size()];
+        if (rows.isEmpty()) return ids;
+
+        try (Connection c = ds.getConnection()) {
+            boolean auto = c.getAutoCommit();
+            c.setAutoCommit(false);
+            try {
+                PreparedStatement ps = statements.prepare(c, INSERT_TX, true);
+                for (int i = 0; i < rows.size(); i++) {
+                    NewTx tx = rows.get(i);
+                    long at = tx.at().toEpochMilli();
+                    ps.setLong(1, at);
+                    ps.setInt(2, codes.idOf(c, tx.source()));
+                    ps.setInt(3, codes.idOf(c, tx.type()));
+                    setUuid(ps, 4, tx.actor());
+                    setUuid(ps, 5, tx.target());
+                    ps.setDouble(6, tx.amount());
+                    ps.setInt(7, tx.flagged() ? 1 : 0);
+                    ps.setString(8, tx.flagReason());
+                    setUuid(ps, 9, tx.flaggedBy());
+                    ps.setLong(10, tx.flagged() ? at : 0L);
+                    ps.executeUpdate();
+                    ids[i] = generatedId(c, ps);
                 }
+                c.commit();
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(auto);
             }
+        }
+        return ids;
+    }
 
-            return -1L;
+    private long generatedId(Connection c, PreparedStatement ps) throws SQLException {
+        try (ResultSet keys = ps.getGeneratedKeys()) {
+            if (keys != null && keys.next()) return keys.getLong(1);
         }
+
+        if (!mysql) {
+            try (ResultSet rs = statements.prepare(c, "SELECT last_insert_rowid()").executeQuery()) {
+                if (rs.next()) return rs.getLong(1);
+            }
+        }
+
+        return -1L;
     }
 
+    @Override
     public void flag(long txId, UUID flaggedBy, String reason) throws Exception {
         long now = System.currentTimeMillis();
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement(
-                     "UPDATE transactions SET admin_flagged = 1, flag_reason = ?, flagged_by_uuid = ?, flagged_at_ms = ? WHERE id = ?"
-             )) {
+        try (Connection c = ds.getConnection()) {
+            PreparedStatement ps = statements.prepare(c,
+                    "UPDATE transactions SET admin_flagged = 1, flag_reason = ?, flagged_by_uuid = ?, flagged_at_ms = ? WHERE id = ?");
             ps.setString(1, reason);
-            ps.setString(2, flaggedBy != null ? flaggedBy.toString() : null);
+            setUuid(ps, 2, flaggedBy);
             ps.setLong(3, now);
             ps.setLong(4, txId);
             ps.executeUpdate();
         }
     }
 
+    @Override
     public void unflag(long txId, UUID flaggedBy) throws Exception {
         long now = System.currentTimeMillis();
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement(
-                     "UPDATE transactions SET admin_flagged = 0, flag_reason = NULL, flagged_by_uuid = ?, flagged_at_ms = ? WHERE id = ?"
-             )) {
-            ps.setString(1, flaggedBy != null ? flaggedBy.toString() : null);
+        try (Connection c = ds.getConnection()) {
+            PreparedStatement ps = statements.prepare(c,
+                    "UPDATE transactions SET admin_flagged = 0, flag_reason = NULL, flagged_by_uuid = ?, flagged_at_ms = ? WHERE id = ?");
+            setUuid(ps, 1, flaggedBy);
             ps.setLong(2, now);
             ps.setLong(3, txId);
             ps.executeUpdate();
         }
     }
 
+    @Override
     public Optional<Tx> getById(long id) throws Exception {
-        String sql = """
-            SELECT id, at_epoch_ms, source, type, actor_uuid, target_uuid, amount,
-                   admin_flagged, flag_reason, flagged_by_uuid, flagged_at_ms
-            FROM transactions WHERE id = ?
-        """;
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+        try (Connection c = replicaDs.getConnection()) {
+            PreparedStatement ps = statements.prepare(c, BY_ID);
             ps.setLong(1, id);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return Optional.empty();
-                return Optional.of(readTx(rs));
-            }
+            return Optional.ofNullable(tx.first(ps));
         }
     }
 
+    @Override
     public List<Long> recentIds(int limit) throws Exception {
         int lim = Math.max(1, Math.min(200, limit));
-        String sql = "SELECT id FROM transactions ORDER BY at_epoch_ms DESC LIMIT ?";
-        var out = new ArrayList<Long>(lim);
-
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
+        try (Connection c = replicaDs.getConnection()) {
+            PreparedStatement ps = statements.prepare(c, "SELECT id FROM transactions ORDER BY at_epoch_ms DESC LIMIT ?");
             ps.setInt(1, lim);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) out.add(rs.getLong(1));
-            }
+            return LONG.all(ps);
         }
-
-        return out;
     }
 
+    @Override
     public int purgeOlderThanDays(int days) throws Exception {
         long cutoff = Instant.now().minusSeconds(days * 86400L).toEpochMilli();
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement("DELETE FROM transactions WHERE at_epoch_ms < ?")) {
+        try (Connection c = ds.getConnection()) {
+            PreparedStatement ps = statements.prepare(c, "DELETE FROM transactions WHERE at_epoch_ms < ?");
             ps.setLong(1, cutoff);
             return ps.executeUpdate();
         }
     }
 
-    public Page query(Query q) throws Exception {
-        StringBuilder where = new StringBuilder(" WHERE 1=1 ");
-        List<Object> params = new ArrayList<>();
-
-        if (q.player != null) {
-            where.append(" AND (actor_uuid = ? OR target_uuid = ?) ");
-            params.add(q.player.toString());
-            params.add(q.player.toString());
-        }
-        if (q.source != null) {
-            where.append(" AND source = ? ");
-            params.add(q.source.toUpperCase(Locale.ROOT));
-        }
-        if (q.type != null) {
-            where.append(" AND type = ? ");
-            params.add(q.type.toUpperCase(Locale.ROOT));
-        }
-        if (q.days != null) {
-            long cutoff = Instant.now().minusSeconds(q.days * 86400L).toEpochMilli();
-            where.append(" AND at_epoch_ms >= ? ");
-            params.add(cutoff);
-        }
-        if (q.minAmount != null) {
-            where.append(" AND amount >= ? ");
-            params.add(q.minAmount);
-        }
-        if (q.flagged != null) {
-            where.append(" AND admin_flagged = ? ");
-            params.add(q.flagged ? 1 : 0);
+    @Override
+    public long stream(UUID player, Integer days, int fetchSize, TxSink sink) throws Exception {
+        int mask = (player != null ? F_PLAYER : 0) | (days != null ? F_DAYS : 0);
+        String sql = "SELECT " + TX_COLUMNS + " FROM transactions" + WHERE[mask] + " ORDER BY id ASC";
+
+        long count = 0;
+        try (Connection c = replicaDs.getConnection()) {
+            // MySQL Connector/J only streams row by row with MIN_VALUE, otherwise it buffers the whole result.
+            // A streaming statement holds the connection until fully read, so it is not cached.
+            int fetch = mysql ? Integer.MIN_VALUE : Math.max(1, fetchSize);
+            try (PreparedStatement ps = c.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                int idx = 1;
+                if (player != null) {
+                    byte[] p = UuidUtil.toBytes(player);
+                    ps.setBytes(idx++, p);
+                    ps.setBytes(idx++, p);
+                }
+                if (days != null) ps.setLong(idx, Instant.now().minusSeconds(days * 86400L).toEpochMilli());
+                ps.setFetchSize(fetch);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        sink.accept(readTx(rs));
+                        count++;
+                    }
+                }
+            }
         }
+        return count;
+    }
 
-        int total;
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = prepare(c, "SELECT COUNT(*) FROM transactions" + where, params);
-             ResultSet rs = ps.executeQuery()) {
-            total = rs.next() ? rs.getInt(1) : 0;
+    @Override
+    public List<Tx> loadOlderThan(long cutoffMs, int limit) throws Exception {
+        try (Connection c = readDs.getConnection()) {
+            PreparedStatement ps = statements.prepare(c, OLDER_THAN);
+            ps.setLong(1, cutoffMs);
+            ps.setInt(2, Math.max(1, limit));
+            return tx.all(ps);
         }
+    }
 
-        int perPage = Math.max(1, q.perPage);
-        int pages = Math.max(1, (int) Math.ceil(total / (double) perPage));
-        int page = Math.max(1, Math.min(pages, q.page));
-        int offset = (page - 1) * perPage;
-
-        int cap = Math.max(1, q.limitCap);
-        int safePerPage = Math.min(perPage, cap);
-
-        String sql = """
-            SELECT id, at_epoch_ms, source, type, actor_uuid, target_uuid, amount,
-                   admin_flagged, flag_reason, flagged_by_uuid, flagged_at_ms
-            FROM transactions
-        """ + where + " ORDER BY at_epoch_ms DESC LIMIT ? OFFSET ?";
-
-        List<Object> listParams = new ArrayList<>(params);
-        listParams.add(safePerPage);
-        listParams.add(offset);
-
-        var rows = new ArrayList<Tx>();
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = prepare(c, sql, listParams);
-             ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) rows.add(readTx(rs));
+    @Override
+    public int deleteArchived(long minId, long maxId, long maxAtMs) throws Exception {
+        try (Connection c = ds.getConnection()) {
+            PreparedStatement ps = statements.prepare(c,
+                    "DELETE FROM transactions WHERE id >= ? AND id <= ? AND at_epoch_ms <= ?");
+            ps.setLong(1, minId);
+            ps.setLong(2, maxId);
+            ps.setLong(3, maxAtMs);
+            return ps.executeUpdate();
         }
+    }
 
-        return new Page(rows, page, pages, total);
-    }
-
-    private Tx readTx(ResultSet rs) throws Exception {
-        long id = rs.getLong("id");
-        Instant at = Instant.ofEpochMilli(rs.getLong("at_epoch_ms"));
-        String source = rs.getString("source");
-        String type = rs.getString("type");
-        UUID actor = parseUuid(rs.getString("actor_uuid"));
-        UUID target = parseUuid(rs.getString("target_uuid"));
-        double amount = rs.getDouble("amount");
-        boolean flagged = rs.getInt("admin_flagged") != 0;
-        String reason = rs.getString("flag_reason");
-        UUID flaggedBy = parseUuid(rs.getString("flagged_by_uuid"));
-        long flaggedAt = rs.getLong("flagged_at_ms");
-        return new Tx(id, at, source, type, actor, target, amount, flagged, reason, flaggedBy, flaggedAt);
+    @Override
+    public Page query(Query q) throws Exception {
+        int mask = (q.player() != null ? F_PLAYER : 0)
+                | (q.source() != null ? F_SOURCE : 0)
+                | (q.type() != null ? F_TYPE : 0)
+                | (q.days() != null ? F_DAYS : 0)
+                | (q.minAmount() != null ? F_MIN_AMOUNT : 0)
+                | (q.flagged() != null ? F_FLAGGED : 0);
+
+        byte[] player = UuidUtil.toBytes(q.player());
+        int sourceId = q.source() == null ? 0 : codes.findId(q.source().toUpperCase(Locale.ROOT));
+        int typeId = q.type() == null ? 0 : codes.findId(q.type().toUpperCase(Locale.ROOT));
+        long cutoff = q.days() == null ? 0L : Instant.now().minusSeconds(q.days() * 86400L).toEpochMilli();
+
+        try (Connection c = replicaDs.getConnection()) {
+            PreparedStatement count = statements.prepare(c, COUNT_SQL[mask]);
+            bindFilters(count, mask, q, player, sourceId, typeId, cutoff);
+            Long n = LONG.first(count);
+            int total = n == null ? 0 : n.intValue();
+
+            int perPage = Math.max(1, q.perPage());
+            int pages = Math.max(1, (int) Math.ceil(total / (double) perPage));
+            int page = Math.max(1, Math.min(pages, q.page()));
+            int offset = (page - 1) * perPage;
+
+            int cap = Math.max(1, q.limitCap());
+            int safePerPage = Math.min(perPage, cap);
+
+            PreparedStatement list = statements.prepare(c, PAGE_SQL[mask]);
+            int idx = bindFilters(list, mask, q, player, sourceId, typeId, cutoff);
+            list.setInt(idx++, safePerPage);
+            list.setInt(idx, offset);
+
+            return new Page(tx.all(list), page, pages, total);
+        }
     }
 
-    private PreparedStatement prepare(Connection c, String sql, List<Object> params) throws Exception {
-        PreparedStatement ps = c.prepareStatement(sql);
-        for (int i = 0; i < params.size(); i++) {
-            Object v = params.get(i);
-            int idx = i + 1;
-            if (v instanceof String s) ps.setString(idx, s);
-            else if (v instanceof Integer n) ps.setInt(idx, n);
-            else if (v instanceof Long n) ps.setLong(idx, n);
-            else if (v instanceof Double d) ps.setDouble(idx, d);
-            else ps.setObject(idx, v);
+    /** Binds the filters present in {@code mask} in WHERE order and returns the next parameter index. */
+    private static int bindFilters(PreparedStatement ps, int mask, Query q,
+                                   byte[] player, int sourceId, int typeId, long cutoff) throws SQLException {
+        int idx = 1;
+        if ((mask & F_PLAYER) != 0) {
+            ps.setBytes(idx++, player);
+            ps.setBytes(idx++, player);
         }
-        return ps;
+        if ((mask & F_SOURCE) != 0) ps.setInt(idx++, sourceId);
+        if ((mask & F_TYPE) != 0) ps.setInt(idx++, typeId);
+        if ((mask & F_DAYS) != 0) ps.setLong(idx++, cutoff);
+        if ((mask & F_MIN_AMOUNT) != 0) ps.setDouble(idx++, q.minAmount());
+        if ((mask & F_FLAGGED) != 0) ps.setInt(idx++, q.flagged() ? 1 : 0);
+        return idx;
+    }
+
+    // Column order follows TX_COLUMNS.
+    private Tx readTx(ResultSet rs) throws SQLException {
+        long id = rs.getLong(1);
+        Instant at = Instant.ofEpochMilli(rs.getLong(2));
+        String source = codes.codeOf(rs.getInt(3));
+        String type = codes.codeOf(rs.getInt(4));
+        UUID actor = UuidUtil.fromBytes(rs.getBytes(5));
+        UUID target = UuidUtil.fromBytes(rs.getBytes(6));
+        double amount = rs.getDouble(7);
+        boolean flagged = rs.getInt(8) != 0;
+        String reason = rs.getString(9);
+        UUID flaggedBy = UuidUtil.fromBytes(rs.getBytes(10));
+        long flaggedAt = rs.getLong(11);
+        return new Tx(id, at, source, type, actor, target, amount, flagged, reason, flaggedBy, flaggedAt);
     }
 
-    private UUID parseUuid(String s) {
-        if (s == null) return null;
-        try { return UUID.fromString(s); } catch (Exception e) { return null; }
+    private static void setUuid(PreparedStatement ps, int idx, UUID uuid) throws SQLException {
+        if (uuid == null) ps.setNull(idx, Types.BINARY);
+        else ps.setBytes(idx, UuidUtil.toBytes(uuid));
     }
 }
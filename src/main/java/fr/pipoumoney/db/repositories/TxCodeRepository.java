@@ -0,0 +1,99 @@
+package fr.pipoumoney.db.repositories;
+
+import fr.pipoumoney.db.Database;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class TxCodeRepository {
+
+    private final DataSource ds;
+    private final boolean mysql;
+
+    private final Map<String, Integer> idsByCode = new ConcurrentHashMap<>();
+    private final Map<Integer, String> codesById = new ConcurrentHashMap<>();
+
+    public TxCodeRepository(Database db) {
+        this.ds = db.auditDataSource();
+        this.mysql = db.isMysql();
+    }
+
+    public int idOf(String code) throws Exception {
+        Integer cached = idsByCode.get(code);
+        if (cached != null) return cached;
+
+        try (Connection c = ds.getConnection()) {
+            return idOf(c, code);
+        }
+    }
+
+    /** Same as {@link #idOf(String)} on a connection the caller already holds, e.g. the writer inside a transaction. */
+    public int idOf(Connection c, String code) throws Exception {
+        Integer cached = idsByCode.get(code);
+        if (cached != null) return cached;
+
+        Integer existing = select(c, code);
+        if (existing != null) return existing;
+
+        String insert = mysql
+                ? "INSERT IGNORE INTO tx_codes(code) VALUES(?)"
+                : "INSERT OR IGNORE INTO tx_codes(code) VALUES(?)";
+        try (PreparedStatement ps = c.prepareStatement(insert)) {
+            ps.setString(1, code);
+            ps.executeUpdate();
+        }
+        Integer id = select(c, code);
+        if (id == null) throw new IllegalStateException("tx code not stored: " + code);
+        return id;
+    }
+
+    /** Id of an already known code, or -1 so that filters on unknown codes match nothing. */
+    public int findId(String code) throws Exception {
+        Integer cached = idsByCode.get(code);
+        if (cached != null) return cached;
+
+        try (Connection c = ds.getConnection()) {
+            Integer id = select(c, code);
+            return id == null ? -1 : id;
+        }
+    }
+
+    public String codeOf(int id) throws SQLException {
+        String cached = codesById.get(id);
+        if (cached != null) return cached;
+
+        reload();
+        return codesById.getOrDefault(id, "?");
+    }
+
+    public void reload() throws SQLException {
+        try (Connection c = ds.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id, code FROM tx_codes")) {
+            while (rs.next()) remember(rs.getInt(1), rs.getString(2));
+        }
+    }
+
+    private Integer select(Connection c, String code) throws Exception {
+        try (PreparedStatement ps = c.prepareStatement("SELECT id FROM tx_codes WHERE code = ?")) {
+            ps.setString(1, code);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                int id = rs.getInt(1);
+                remember(id, code);
+                return id;
+            }
+        }
+    }
+
+    private void remember(int id, String code) {
+        idsByCode.put(code, id);
+        codesById.put(id, code);
+    }
+}
@@ -0,0 +1,67 @@
+package fr.pipoumoney.listeners;
+
+import com.destroystokyo.paper.event.server.AsyncTabCompleteEvent;
+import fr.pipoumoney.commands.PipouMoneyTabCompleter;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Answers completions for the plugin's commands from Paper's async tab completion event, so
+ * they never reach the main thread. Only registered when the event class exists; on other
+ * servers the Bukkit {@link org.bukkit.command.TabCompleter} path is used.
+ */
+public final class AsyncTabCompleteListener implements Listener {
+
+    private static final String NAMESPACE = "pipoumoney:";
+
+    private final PipouMoneyTabCompleter completer;
+    // Every label and alias, lower case, mapped to its command.
+    private final Map<String, PluginCommand> labels;
+
+    public AsyncTabCompleteListener(PipouMoneyTabCompleter completer, Map<String, PluginCommand> labels) {
+        this.completer = completer;
+        this.labels = Map.copyOf(labels);
+    }
+
+    public static boolean supported() {
+        try {
+            Class.forName("com.destroystokyo.paper.event.server.AsyncTabCompleteEvent");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @EventHandler
+    public void onAsyncTabComplete(AsyncTabCompleteEvent e) {
+        if (e.isHandled() || !e.isCommand() || !(e.getSender() instanceof Player p)) return;
+
+        String buffer = e.getBuffer();
+        int space = buffer.indexOf(' ');
+        if (space < 0) return;
+
+        int start = buffer.startsWith("/") ? 1 : 0;
+        String label = buffer.substring(start, space).toLowerCase(Locale.ROOT);
+        if (label.startsWith(NAMESPACE)) label = label.substring(NAMESPACE.length());
+
+        PluginCommand command = labels.get(label);
+        if (command == null) return;
+
+        // Same check as the Bukkit path: no completions for a command the player may not run.
+        if (!command.testPermissionSilent(p)) {
+            e.setCompletions(List.of());
+            e.setHandled(true);
+            return;
+        }
+
+        String[] args = buffer.substring(space + 1).split(" ", -1);
+        e.setCompletions(completer.complete(p, command.getName(), args));
+        e.setHandled(true);
+    }
+}
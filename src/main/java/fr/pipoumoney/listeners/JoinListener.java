@@ -14,6 +14,7 @@ public final class JoinListener implements Listener {
 
     @EventHandler
     public void onJoin(PlayerJoinEvent e) {
+        plugin.onlineNames().add(e.getPlayer().getName());
         if (!plugin.cfg().listenerUpdateNameOnJoin()) return;
         plugin.accounts().updateName(e.getPlayer().getUniqueId(), e.getPlayer().getName());
         plugin.maybeAutoFlush();
@@ -14,6 +14,7 @@ public final class QuitListener implements Listener {
 
     @EventHandler
     public void onQuit(PlayerQuitEvent e) {
+        plugin.onlineNames().remove(e.getPlayer().getName());
         if (!plugin.cfg().listenerFlushOnQuit()) return;
         plugin.maybeAutoFlush();
     }
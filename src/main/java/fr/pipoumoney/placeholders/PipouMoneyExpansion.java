@@ -1,20 +1,30 @@
 package fr.pipoumoney.placeholders;
 
 import fr.pipoumoney.PipouMoney;
-import fr.pipoumoney.services.TopCacheService;
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
 import org.bukkit.OfflinePlayer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 public final class PipouMoneyExpansion extends PlaceholderExpansion {
 
+    @FunctionalInterface
+    private interface Resolver {
+        String resolve(OfflinePlayer player);
+    }
+
     private final PipouMoney plugin;
+    private final PlaceholderCache cache;
+    private final Map<String, Resolver> resolvers;
 
     public PipouMoneyExpansion(PipouMoney plugin) {
         this.plugin = plugin;
+        this.cache = new PlaceholderCache(plugin);
+        this.resolvers = buildResolvers();
     }
 
     @Override
@@ -39,65 +49,40 @@ public final class PipouMoneyExpansion extends PlaceholderExpansion {
 
     @Override
     public @Nullable String onRequest(OfflinePlayer player, @NotNull String params) {
-        if (params.equalsIgnoreCase("symbol")) {
-            return plugin.cfg().currency().symbol();
-        }
-        if (params.equalsIgnoreCase("currency_singular")) {
-            return plugin.cfg().currency().singular();
-        }
-        if (params.equalsIgnoreCase("currency_plural")) {
-            return plugin.cfg().currency().plural();
-        }
-
-        if (player != null) {
-            if (params.equalsIgnoreCase("balance")) {
-                plugin.accounts().ensure(player.getUniqueId());
-                return String.valueOf(plugin.accounts().balance(player.getUniqueId()));
-            }
-            if (params.equalsIgnoreCase("balance_formatted")) {
-                plugin.accounts().ensure(player.getUniqueId());
-                return plugin.messages().moneyWithCurrency(plugin.accounts().balance(player.getUniqueId()));
-            }
-            if (params.equalsIgnoreCase("rank")) {
-                try {
-                    return String.valueOf(plugin.accounts().rankOf(player.getUniqueId()));
-                } catch (Exception e) {
-                    return "0";
-                }
-            }
-        }
-
-        if (params.startsWith("top_")) {
-            String rest = params.substring("top_".length());
-            int idx = parseIntPrefix(rest);
-            if (idx <= 0) return null;
-
-            String suffix = rest.substring(String.valueOf(idx).length());
-            if (suffix.startsWith("_")) suffix = suffix.substring(1);
-
-            TopCacheService cache = plugin.topCache();
-            List<TopCacheService.Entry> snap = cache == null ? List.of() : cache.snapshot();
-            if (idx > snap.size()) return "";
-
-            TopCacheService.Entry e = snap.get(idx - 1);
-
-            if (suffix.isEmpty() || suffix.equalsIgnoreCase("name")) {
-                return e.name();
-            }
-            if (suffix.equalsIgnoreCase("balance")) {
-                return String.valueOf(e.balance());
-            }
-            if (suffix.equalsIgnoreCase("balance_formatted")) {
-                return plugin.messages().moneyWithCurrency(e.balance());
-            }
-            if (suffix.equalsIgnoreCase("uuid")) {
-                return e.uuid();
-            }
-        }
+        Resolver r = resolvers.get(params);
+        if (r == null) r = resolvers.get(params.toLowerCase(Locale.ROOT));
+        if (r != null) return r.resolve(player);
 
+        if (params.regionMatches(true, 0, "top_", 0, 4)) return top(params.toLowerCase(Locale.ROOT));
         return null;
     }
 
+    private String top(String key) {
+        String v = cache.top(key);
+        if (v != null) return v;
+
+        // Ranks past the end of the leaderboard stay blank rather than unknown.
+        int idx = parseIntPrefix(key.substring("top_".length()));
+        return idx > cache.topSize() ? "" : null;
+    }
+
+    private Map<String, Resolver> buildResolvers() {
+        var out = new HashMap<String, Resolver>();
+        out.put("symbol", p -> plugin.cfg().currency().symbol());
+        out.put("currency_singular", p -> plugin.cfg().currency().singular());
+        out.put("currency_plural", p -> plugin.cfg().currency().plural());
+        balance(out, "balance", PlaceholderCache.Values.RAW);
+        balance(out, "balance_formatted", PlaceholderCache.Values.FORMATTED);
+        balance(out, "balance_short", PlaceholderCache.Values.SHORT);
+        balance(out, "balance_commas", PlaceholderCache.Values.COMMAS);
+        for (int n = 0; n <= 8; n++) balance(out, "balance_fixed_" + n, PlaceholderCache.Values.FIXED + n);
+        out.put("rank", p -> p == null ? null : cache.rank(p.getUniqueId()));
+        return Map.copyOf(out);
+    }
+
+    private void balance(Map<String, Resolver> out, String key, int slot) {
+        out.put(key, p -> p == null ? null : cache.values(p.getUniqueId()).get(slot));
+    }
     private static int parseIntPrefix(String s) {
         int i = 0;
         while (i < s.length() && Character.isDigit(s.charAt(i))) i++;
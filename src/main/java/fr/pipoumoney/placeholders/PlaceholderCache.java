@@ -0,0 +1,159 @@
+package fr.pipoumoney.placeholders;
+
+import fr.pipoumoney.PipouMoney;
+import fr.pipoumoney.services.TopCacheService;
+import fr.pipoumoney.text.Messages;
+import fr.pipoumoney.utils.CompactMoney;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Placeholder strings kept between requests. Player values are reused while the cached balance
+ * is unchanged, ranks are recomputed off-thread at most once per refresh period and the
+ * {@code top_N_*} values are formatted once per leaderboard snapshot. A messages reload drops
+ * everything since the money format may have changed.
+ */
+final class PlaceholderCache {
+
+    /**
+     * Strings derived from one balance, each computed on first use. Racing threads may format
+     * the same slot twice, they store equal strings.
+     */
+    static final class Values {
+        static final int RAW = 0, FORMATTED = 1, SHORT = 2, COMMAS = 3, FIXED = 4;
+        private static final int SLOTS = FIXED + 9;
+
+        private final double balance;
+        private final long minor;
+        private final int decimals;
+        private final Messages msg;
+        private final String[] slots = new String[SLOTS];
+
+        private Values(double balance, int decimals, Messages msg) {
+            this.balance = balance;
+            this.decimals = decimals;
+            this.minor = CompactMoney.toMinor(balance, decimals);
+            this.msg = msg;
+        }
+
+        String get(int slot) {
+            String s = slots[slot];
+            if (s == null) {
+                s = switch (slot) {
+                    case RAW -> String.valueOf(balance);
+                    case FORMATTED -> msg.moneyWithCurrency(balance);
+                    case SHORT -> CompactMoney.shortForm(minor, decimals);
+                    case COMMAS -> CompactMoney.grouped(minor, decimals);
+                    default -> CompactMoney.fixed(minor, decimals, slot - FIXED);
+                };
+                slots[slot] = s;
+            }
+            return s;
+        }
+    }
+
+    private record Rank(String value, double balance, long computedAtMs) {}
+
+    private record Top(List<TopCacheService.Entry> source, Map<String, String> values) {}
+
+    // Players seen by scoreboards since the last reset, bounded for long uptimes.
+    private static final int MAX_PLAYERS = 4096;
+
+    private final PipouMoney plugin;
+
+    private final Map<UUID, Values> values = new ConcurrentHashMap<>();
+    private final Map<UUID, Rank> ranks = new ConcurrentHashMap<>();
+    private final Set<UUID> rankPending = ConcurrentHashMap.newKeySet();
+    private volatile Top top = new Top(List.of(), Map.of());
+    private volatile Messages formattedWith;
+
+    PlaceholderCache(PipouMoney plugin) {
+        this.plugin = plugin;
+    }
+
+    Values values(UUID uuid) {
+        checkMessages();
+
+        double bal = plugin.accounts().balance(uuid);
+        Values v = values.get(uuid);
+        if (v != null && v.balance == bal) return v;
+
+        if (values.size() >= MAX_PLAYERS) values.clear();
+        v = new Values(bal, plugin.cfg().format().decimals(), formattedWith);
+        values.put(uuid, v);
+        return v;
+    }
+
+    /** Last known rank, a refresh is started in the background once it is stale. */
+    String rank(UUID uuid) {
+        long now = System.currentTimeMillis();
+        double bal = plugin.accounts().balance(uuid);
+        long ttlMs = plugin.cfg().placeholders().rankRefreshSeconds() * 1000L;
+
+        Rank r = ranks.get(uuid);
+        boolean stale = r == null || r.balance() != bal || now - r.computedAtMs() >= ttlMs;
+        if (stale && rankPending.add(uuid)) {
+            plugin.runAsync(() -> {
+                try {
+                    if (ranks.size() >= MAX_PLAYERS) ranks.clear();
+                    ranks.put(uuid, new Rank(String.valueOf(plugin.accounts().rankOf(uuid)), bal, System.currentTimeMillis()));
+                } catch (Exception ignored) {
+                } finally {
+                    rankPending.remove(uuid);
+                }
+            });
+        }
+        return r == null ? "0" : r.value();
+    }
+
+    /** Pre-formatted {@code top_N[_suffix]} value with a lower-case key, null when absent. */
+    String top(String key) {
+        checkMessages();
+
+        TopCacheService cache = plugin.topCache();
+        List<TopCacheService.Entry> snap = cache == null ? List.of() : cache.snapshot();
+
+        Top t = top;
+        if (t.source() != snap) {
+            t = new Top(snap, formatTop(snap, formattedWith, plugin.cfg().format().decimals()));
+            top = t;
+        }
+        return t.values().get(key);
+    }
+
+    int topSize() {
+        return top.source().size();
+    }
+
+    private static Map<String, String> formatTop(List<TopCacheService.Entry> snap, Messages msg, int decimals) {
+        var out = new HashMap<String, String>(snap.size() * 8);
+        for (int i = 0; i < snap.size(); i++) {
+            var e = snap.get(i);
+            String prefix = "top_" + (i + 1);
+            out.put(prefix, e.name());
+            out.put(prefix + "_name", e.name());
+            out.put(prefix + "_balance", String.valueOf(e.balance()));
+            out.put(prefix + "_balance_formatted", msg.moneyWithCurrency(e.balance()));
+            out.put(prefix + "_balance_short", CompactMoney.shortForm(CompactMoney.toMinor(e.balance(), decimals), decimals));
+            out.put(prefix + "_uuid", e.uuid());
+        }
+        return out;
+    }
+
+    private void checkMessages() {
+        Messages current = plugin.messages();
+        if (current == formattedWith) return;
+
+        synchronized (this) {
+            if (current == formattedWith) return;
+            values.clear();
+            top = new Top(List.of(), Map.of());
+            formattedWith = current;
+        }
+    }
+}
@@ -1,19 +1,32 @@
 package fr.pipoumoney.services;
 
-import fr.pipoumoney.db.repositories.AccountsRepository;
+import fr.pipoumoney.storage.AccountStore;
+import fr.pipoumoney.storage.StorageUnavailableException;
 import fr.pipoumoney.utils.MoneyUtil;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 public final class AccountService {
 
     public record DisplayRow(UUID uuid, String displayName, double balance) {}
 
-    private final AccountsRepository repo;
+    private record Pending(boolean absolute, double amount) {
+        Pending plus(double delta) { return new Pending(absolute, amount + delta); }
+
+        /** Puts back a write taken by a failed flush underneath what accumulated since. */
+        static Pending merge(Pending older, Pending newer) {
+            if (older == null || (newer != null && newer.absolute())) return newer;
+            return newer == null ? older : older.plus(newer.amount());
+        }
+    }
+
+    private final AccountStore repo;
     private final int decimals;
+    private final boolean deltaMode;
 
     private final Map<UUID, Double> balances = new ConcurrentHashMap<>();
     private final Map<UUID, String> names = new ConcurrentHashMap<>();
@@ -23,16 +36,27 @@ public final class AccountService {
 
     private final Set<UUID> dirty = ConcurrentHashMap.newKeySet();
     private final AtomicInteger dirtyCount = new AtomicInteger(0);
+    private final AtomicLong dirtiedTotal = new AtomicLong(0L);
+    private final AtomicLong dirtySinceMs = new AtomicLong(0L);
+
+    // Delta mode: balance changes not yet written, those taken by a flush that has not committed
+    // yet, and the last row version seen per account.
+    private final Map<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private final Map<UUID, Pending> inFlight = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> versions = new ConcurrentHashMap<>();
 
-    public AccountService(AccountsRepository repo, int decimals) {
+    public AccountService(AccountStore repo, int decimals, boolean deltaMode) {
         this.repo = repo;
         this.decimals = Math.max(0, Math.min(8, decimals));
+        this.deltaMode = deltaMode;
     }
 
     public void warmup() throws Exception {
         balances.clear(); names.clear(); notify.clear(); locked.clear(); lastActivity.clear();
+        pending.clear(); inFlight.clear(); versions.clear();
         dirty.clear();
         dirtyCount.set(0);
+        dirtySinceMs.set(0L);
 
         var all = repo.loadAll();
         for (var e : all.entrySet()) {
@@ -43,6 +67,7 @@ public final class AccountService {
             notify.put(u, r.notificationsEnabled());
             locked.put(u, r.locked());
             lastActivity.put(u, r.lastActivityMs());
+            versions.put(u, r.version());
         }
     }
 
@@ -70,6 +95,30 @@ public final class AccountService {
         return balances.getOrDefault(uuid, MoneyUtil.round(0.0, decimals));
     }
 
+    /**
+     * Names for a batch of uuids, from the cache with a single store round trip for the ones it
+     * does not hold. Null uuids are skipped, unresolved ones map to their string form.
+     */
+    public Map<UUID, String> namesOf(Collection<UUID> uuids) {
+        var out = new HashMap<UUID, String>(uuids.size() * 2);
+        var misses = new LinkedHashSet<UUID>();
+        for (UUID u : uuids) {
+            if (u == null) continue;
+            String cached = names.get(u);
+            if (cached != null && !cached.isBlank()) out.put(u, cached);
+            else misses.add(u);
+        }
+        if (misses.isEmpty()) return out;
+
+        try {
+            for (var r : repo.loadByUuids(misses)) {
+                if (r.name() != null && !r.name().isBlank()) out.put(r.uuid(), r.name());
+            }
+        } catch (Exception ignored) {}
+        for (UUID u : misses) out.putIfAbsent(u, u.toString());
+        return out;
+    }
+
     public boolean has(UUID uuid, double amount) {
         return balance(uuid) + 1e-9 >= amount;
     }
@@ -105,14 +154,23 @@ public final class AccountService {
 
     public void set(UUID uuid, double amount) {
         ensure(uuid);
-        balances.put(uuid, MoneyUtil.round(Math.max(0.0, amount), decimals));
+        double next = MoneyUtil.round(Math.max(0.0, amount), decimals);
+        balances.compute(uuid, (k, v) -> {
+            if (deltaMode) pending.put(k, new Pending(true, next));
+            return next;
+        });
         touch(uuid);
     }
 
     public void add(UUID uuid, double amount) {
         if (amount <= 0) return;
         ensure(uuid);
-        balances.compute(uuid, (k, v) -> MoneyUtil.round((v == null ? 0.0 : v) + amount, decimals));
+        balances.compute(uuid, (k, v) -> {
+            double cur = v == null ? 0.0 : v;
+            double next = MoneyUtil.round(cur + amount, decimals);
+            recordDelta(k, next - cur);
+            return next;
+        });
         touch(uuid);
     }
 
@@ -120,28 +178,71 @@ public final class AccountService {
         if (amount <= 0) return true;
         ensure(uuid);
 
-        double cur = balance(uuid);
-        if (cur + 1e-9 < amount) return false;
+        boolean[] removed = {false};
+        balances.compute(uuid, (k, v) -> {
+            double cur = v == null ? 0.0 : v;
+            if (cur + 1e-9 < amount) return v;
+
+            double next = MoneyUtil.round(cur - amount, decimals);
+            if (next < 0) next = 0.0;
 
-        double next = MoneyUtil.round(cur - amount, decimals);
-        if (next < 0) next = 0.0;
+            removed[0] = true;
+            recordDelta(k, next - cur);
+            return next;
+        });
+        if (!removed[0]) return false;
 
-        balances.put(uuid, next);
         touch(uuid);
         return true;
     }
 
+    // Called inside balances.compute so the pending write and the cached balance change together.
+    private void recordDelta(UUID uuid, double delta) {
+        if (!deltaMode || delta == 0.0) return;
+        pending.merge(uuid, new Pending(false, delta), (old, d) -> old.plus(d.amount()));
+    }
+
     public int dirtySize() {
         return dirtyCount.get();
     }
 
-    public void flushDirty() throws Exception {
-        if (dirty.isEmpty()) return;
+    /** Accounts marked dirty since startup, the flush scheduler derives the dirty rate from it. */
+    public long dirtiedTotal() {
+        return dirtiedTotal.get();
+    }
+
+    /** Age of the oldest change not yet flushed, 0 when nothing is dirty. */
+    public long oldestDirtyAgeMs(long now) {
+        long since = dirtySinceMs.get();
+        if (since == 0L) {
+            // A change raced the reset at the end of a flush: start counting from now.
+            if (dirtyCount.get() > 0) dirtySinceMs.compareAndSet(0L, now);
+            return 0L;
+        }
+        return Math.max(0L, now - since);
+    }
+
+    public AccountStore.FlushResult flushDirty(int chunkSize) throws Exception {
+        return flushDirty(repo, chunkSize);
+    }
 
+    /** Flushes through {@code store} instead of the service's own, e.g. past the breaker on shutdown. */
+    public AccountStore.FlushResult flushDirty(AccountStore store, int chunkSize) throws Exception {
+        if (dirty.isEmpty()) return AccountStore.FlushResult.EMPTY;
+
+        // Whatever is still dirty afterwards was changed during this flush or failed with it.
+        long startedAt = System.currentTimeMillis();
+        var r = writeDirty(store, chunkSize);
+        dirtySinceMs.set(dirty.isEmpty() ? 0L : startedAt);
+        return r;
+    }
+
+    private AccountStore.FlushResult writeDirty(AccountStore store, int chunkSize) throws Exception {
         List<UUID> toFlush = new ArrayList<>(dirty);
-        if (toFlush.isEmpty()) return;
+        if (toFlush.isEmpty()) return AccountStore.FlushResult.EMPTY;
+        if (deltaMode) return flushDeltas(store, toFlush, chunkSize);
 
-        repo.upsertBatch(
+        return store.upsertBatch(
                 toFlush,
                 uuid -> {
                     String cached = names.get(uuid);
@@ -150,23 +251,144 @@ public final class AccountService {
                 uuid -> balances.getOrDefault(uuid, MoneyUtil.round(0.0, decimals)),
                 uuid -> notify.getOrDefault(uuid, true),
                 uuid -> locked.getOrDefault(uuid, false),
-                uuid -> lastActivity.getOrDefault(uuid, 0L)
+                uuid -> lastActivity.getOrDefault(uuid, 0L),
+                chunkSize,
+                chunk -> {
+                    for (UUID u : chunk) dirty.remove(u);
+                    dirtyCount.set(dirty.size());
+                }
         );
+    }
+
+    private AccountStore.FlushResult flushDeltas(AccountStore store, List<UUID> toFlush, int chunkSize) throws Exception {
+        var writes = new ArrayList<AccountStore.BalanceWrite>(toFlush.size());
+        var taken = new HashMap<UUID, Pending>();
+
+        for (UUID u : toFlush) {
+            Pending[] p = new Pending[1];
+            balances.computeIfPresent(u, (k, v) -> {
+                p[0] = pending.remove(k);
+                if (p[0] != null) inFlight.put(k, p[0]);
+                return v;
+            });
+            if (p[0] != null) taken.put(u, p[0]);
+
+            String cached = names.get(u);
+            writes.add(new AccountStore.BalanceWrite(
+                    u,
+                    (cached != null && !cached.isBlank()) ? cached : u.toString(),
+                    p[0] != null && p[0].absolute(),
+                    p[0] == null ? 0.0 : p[0].amount(),
+                    notify.getOrDefault(u, true),
+                    locked.getOrDefault(u, false),
+                    lastActivity.getOrDefault(u, 0L)
+            ));
+        }
+
+        Set<UUID> committed = new HashSet<>();
+        try {
+            return store.applyBalanceWrites(writes, chunkSize, stored -> {
+                for (var row : stored) {
+                    reconcile(row);
+                    committed.add(row.uuid());
+                    dirty.remove(row.uuid());
+                    if (pending.containsKey(row.uuid())) dirty.add(row.uuid());
+                }
+                dirtyCount.set(dirty.size());
+            });
+        } catch (Exception e) {
+            for (var en : taken.entrySet()) {
+                if (committed.contains(en.getKey())) continue;
+                balances.computeIfPresent(en.getKey(), (k, v) -> {
+                    inFlight.remove(k);
+                    pending.put(k, Pending.merge(en.getValue(), pending.get(k)));
+                    return v;
+                });
+            }
+            throw e;
+        }
+    }
 
-        for (UUID u : toFlush) dirty.remove(u);
+    /**
+     * Adopts the stored balance plus whatever changed locally since the write was taken. When a
+     * remote row at least as new as this write was applied meanwhile, it already contained the
+     * write but {@link #applyRemote} still counted it as in flight: it is taken back out.
+     */
+    private void reconcile(AccountStore.Stored row) {
+        balances.compute(row.uuid(), (k, v) -> {
+            Pending f = inFlight.remove(k);
+            Long known = versions.get(k);
+            if (known != null && known >= row.version()) {
+                if (v == null || f == null || f.absolute()) return v;
+                return MoneyUtil.round(v - f.amount(), decimals);
+            }
+            versions.put(k, row.version());
+
+            Pending p = pending.get(k);
+            if (p != null && p.absolute()) return v;
+            return MoneyUtil.round(row.balance() + (p == null ? 0.0 : p.amount()), decimals);
+        });
+    }
 
-        dirtyCount.set(dirty.size());
+    /**
+     * Adopts an account row written by another server. Local unflushed edits win over remote
+     * metadata; in delta mode local pending deltas are kept on top of the remote balance.
+     * Returns true when the cached balance changed.
+     */
+    public boolean applyRemote(AccountStore.Row row) {
+        boolean[] changed = {false};
+        balances.compute(row.uuid(), (k, v) -> {
+            Long known = versions.get(k);
+            if (known != null && known >= row.version()) return v;
+            versions.put(k, row.version());
+
+            boolean localEdits = dirty.contains(k);
+            if (!localEdits) {
+                if (row.name() != null) names.put(k, row.name());
+                notify.put(k, row.notificationsEnabled());
+                locked.put(k, row.locked());
+                lastActivity.merge(k, row.lastActivityMs(), Math::max);
+            }
+
+            double next;
+            if (deltaMode) {
+                // Deltas taken by a running flush are not in the row yet (reconcile corrects it if they were).
+                Pending p = pending.get(k);
+                Pending f = inFlight.get(k);
+                if ((p != null && p.absolute()) || (f != null && f.absolute())) return v;
+                next = MoneyUtil.round(row.balance() + (f == null ? 0.0 : f.amount()) + (p == null ? 0.0 : p.amount()), decimals);
+            } else {
+                if (localEdits) return v;
+                next = MoneyUtil.round(row.balance(), decimals);
+            }
+
+            changed[0] = v == null || v != next;
+            return next;
+        });
+        return changed[0];
     }
 
+    // While the storage circuit is open the *Db reads are answered from the cached balances,
+    // which hold every account since warmup.
+
     public int countBalancesDb(double min) throws Exception {
-        return repo.countByMin(min);
+        try {
+            return repo.countByMin(min);
+        } catch (StorageUnavailableException e) {
+            return countOnlineBalances(balances.keySet(), min);
+        }
     }
 
     public List<DisplayRow> listBalancesDb(fr.pipoumoney.config.PluginConfig.Balances cfg, int page) throws Exception {
         int perPage = cfg.perPage();
         int offset = (Math.max(1, page) - 1) * perPage;
 
-        var base = repo.list(cfg.min(), cfg.sort(), perPage, offset);
+        List<AccountStore.Row> base;
+        try {
+            base = repo.list(cfg.min(), cfg.sort(), perPage, offset);
+        } catch (StorageUnavailableException e) {
+            return listOnlineBalances(cfg, balances.keySet(), page);
+        }
 
         return base.stream()
                 .map(r -> new DisplayRow(
@@ -178,7 +400,12 @@ public final class AccountService {
     }
 
     public List<DisplayRow> topDb(fr.pipoumoney.config.PluginConfig.Balances cfg, int n) throws Exception {
-        var base = repo.top(cfg.min(), n);
+        List<AccountStore.Row> base;
+        try {
+            base = repo.top(cfg.min(), n);
+        } catch (StorageUnavailableException e) {
+            return topOnline(cfg, balances.keySet(), n);
+        }
 
         return base.stream()
                 .map(r -> new DisplayRow(
@@ -249,7 +476,14 @@ public final class AccountService {
     }
 
     public int rankOf(UUID uuid) throws Exception {
-        return repo.rankOf(uuid);
+        try {
+            return repo.rankOf(uuid);
+        } catch (StorageUnavailableException e) {
+            double bal = balances.getOrDefault(uuid, 0.0);
+            int higher = 0;
+            for (double b : balances.values()) if (b > bal) higher++;
+            return higher + 1;
+        }
     }
 
     private void sortRows(List<DisplayRow> rows, String sort) {
@@ -277,7 +511,11 @@ public final class AccountService {
     }
 
     private void markDirty(UUID uuid) {
-        if (dirty.add(uuid)) dirtyCount.incrementAndGet();
+        if (dirty.add(uuid)) {
+            dirtyCount.incrementAndGet();
+            dirtiedTotal.incrementAndGet();
+            dirtySinceMs.compareAndSet(0L, System.currentTimeMillis());
+        }
     }
 
     private String pickName(UUID uuid, String dbName) {
@@ -0,0 +1,105 @@
+package fr.pipoumoney.services;
+
+import fr.pipoumoney.storage.AccountStore;
+
+import java.util.LinkedHashSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Applies account_changes rows written by other nodes (one random node id per plugin instance). */
+public final class AccountSyncService {
+
+    // An id gap may be a transaction that has not committed yet: wait this long before skipping it.
+    // Gaps followed by a change older than this are skipped at once, whatever the wait.
+    private static final long GAP_GRACE_MS = 10_000L;
+
+    private final AccountStore repo;
+    private final AccountService accounts;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final AtomicBoolean polling = new AtomicBoolean(false);
+    private final AtomicLong applied = new AtomicLong(0L);
+    private volatile long lastSeen;
+    private volatile long lastPollAtMs;
+
+    // One wait covers every gap up to the newest seq seen when it started.
+    private long waitUpTo = -1L;
+    private long waitSinceMs;
+
+    public AccountSyncService(AccountStore repo, AccountService accounts) {
+        this.repo = repo;
+        this.accounts = accounts;
+    }
+
+    public String nodeId() { return nodeId; }
+    public long lastSeen() { return lastSeen; }
+    public long applied() { return applied.get(); }
+    public long lastPollAtMs() { return lastPollAtMs; }
+
+    /** Starts reading after the newest change, everything before is already in the warmed-up cache. */
+    public void start() throws Exception {
+        lastSeen = repo.latestChangeSeq();
+        synchronized (this) {
+            waitUpTo = -1L;
+        }
+    }
+
+    /**
+     * Reads new changes in batches and applies them. Returns the number of accounts whose
+     * cached balance changed, or -1 when a poll was already running.
+     */
+    public int poll(int batchSize) throws Exception {
+        if (!polling.compareAndSet(false, true)) return -1;
+        try {
+            int changed = 0;
+            while (true) {
+                var batch = repo.changesSince(lastSeen, nodeId, batchSize);
+                if (batch.isEmpty()) break;
+
+                var uuids = new LinkedHashSet<UUID>();
+                long next = lastSeen;
+                long highWater = batch.get(batch.size() - 1).seq();
+                boolean blocked = false;
+                for (var ch : batch) {
+                    if (ch.uuid() != null) uuids.add(ch.uuid());
+                    if (blocked) continue;
+                    if (ch.seq() != next + 1 && !gapSettled(ch, highWater)) {
+                        blocked = true;
+                        continue;
+                    }
+                    next = ch.seq();
+                }
+
+                for (var row : repo.loadByUuids(uuids)) {
+                    if (accounts.applyRemote(row)) changed++;
+                }
+                applied.addAndGet(uuids.size());
+                lastSeen = next;
+
+                if (blocked || batch.size() < batchSize) break;
+            }
+            lastPollAtMs = System.currentTimeMillis();
+            return changed;
+        } finally {
+            polling.set(false);
+        }
+    }
+
+    /**
+     * Whether the ids missing before {@code after} can be given up on. The grace period runs from
+     * when this node first saw the gap: at_ms comes from the writer's clock, which may be skewed.
+     */
+    private synchronized boolean gapSettled(AccountStore.Change after, long highWater) {
+        long now = System.currentTimeMillis();
+        if (after.seq() <= waitUpTo) return now - waitSinceMs >= GAP_GRACE_MS;
+
+        waitUpTo = highWater;
+        waitSinceMs = now;
+        return false;
+    }
+
+    public int prune(long retentionMs) throws Exception {
+        return repo.pruneChanges(System.currentTimeMillis() - retentionMs);
+    }
+}
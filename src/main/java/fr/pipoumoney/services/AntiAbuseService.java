@@ -2,11 +2,7 @@ package fr.pipoumoney.services;
 
 import fr.pipoumoney.config.PluginConfig;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 public final class AntiAbuseService {
 
@@ -14,14 +10,35 @@ public final class AntiAbuseService {
 
     private final PluginConfig.AntiAbuse cfg;
 
-    private final Map<UUID, Deque<Long>> senderTimes = new ConcurrentHashMap<>();
-    private final Map<UUID, Deque<AmountAt>> senderWindowAmounts = new ConcurrentHashMap<>();
-    private final Map<UUID, Deque<AmountAt>> senderDailyAmounts = new ConcurrentHashMap<>();
+    // Per-sender history, dropped by the wheel once the longest enabled rule has forgotten it.
+    private final TimingWheel.Table<UUID, Sender> senders;
+    private final long idleTtlMs;
+    private final long windowMs;
 
-    private record AmountAt(long atMs, double amount) {}
+    // Fixed-size bucket rings: 60 x 1 s, the configured window in 60 buckets, 96 x 15 min.
+    private static final class Sender {
+        final SlidingWindow minute = new SlidingWindow(60, 1_000L);
+        final SlidingWindow window;
+        final SlidingWindow daily = new SlidingWindow(96, 900_000L);
 
-    public AntiAbuseService(PluginConfig.AntiAbuse cfg) {
+        Sender(long windowMs) {
+            this.window = SlidingWindow.spanning(Math.max(1L, windowMs), 60);
+        }
+    }
+
+    public AntiAbuseService(PluginConfig.AntiAbuse cfg, TimingWheel wheel) {
         this.cfg = cfg;
+        this.senders = wheel.register("anti-abuse");
+
+        long ttl = 60_000L;
+        if (cfg != null && cfg.windowMaxAmount() > 0) ttl = Math.max(ttl, cfg.windowSeconds() * 1000L);
+        if (cfg != null && cfg.dailyMaxAmount() > 0) ttl = Math.max(ttl, 86_400_000L);
+        this.idleTtlMs = ttl;
+        this.windowMs = cfg == null ? 0L : cfg.windowSeconds() * 1000L;
+    }
+
+    public int trackedSenders() {
+        return senders.size();
     }
 
     public PluginConfig.AntiAbuse cfg() {
@@ -34,34 +51,30 @@ public final class AntiAbuseService {
         if (amount <= 0) return new Result(false, false, null);
 
         long now = System.currentTimeMillis();
+        Sender s = senders.touch(from, k -> new Sender(windowMs), idleTtlMs);
+        synchronized (s) {
+            return check(s, amount, now);
+        }
+    }
 
+    private Result check(Sender s, double amount, long now) {
         if (cfg.maxTransactionsPerMinute() > 0) {
-            Deque<Long> q = senderTimes.computeIfAbsent(from, k -> new ArrayDeque<>());
-            pruneTimes(q, now - 60_000L);
-            q.addLast(now);
-            if (q.size() > cfg.maxTransactionsPerMinute()) {
+            s.minute.add(now, 0.0);
+            if (s.minute.count(now) > cfg.maxTransactionsPerMinute()) {
                 return new Result(true, cfg.blockOnTrigger(), "RATE_LIMIT_PER_MINUTE");
             }
         }
 
         if (cfg.windowMaxAmount() > 0 && cfg.windowSeconds() > 0) {
-            long cutoff = now - (cfg.windowSeconds() * 1000L);
-            Deque<AmountAt> q = senderWindowAmounts.computeIfAbsent(from, k -> new ArrayDeque<>());
-            pruneAmounts(q, cutoff);
-            q.addLast(new AmountAt(now, amount));
-            double sum = sum(q);
-            if (sum - 1e-9 > cfg.windowMaxAmount()) {
+            s.window.add(now, amount);
+            if (s.window.amount(now) - 1e-9 > cfg.windowMaxAmount()) {
                 return new Result(true, cfg.blockOnTrigger(), "WINDOW_MAX_AMOUNT");
             }
         }
 
         if (cfg.dailyMaxAmount() > 0) {
-            long cutoff = now - 86_400_000L;
-            Deque<AmountAt> q = senderDailyAmounts.computeIfAbsent(from, k -> new ArrayDeque<>());
-            pruneAmounts(q, cutoff);
-            q.addLast(new AmountAt(now, amount));
-            double sum = sum(q);
-            if (sum - 1e-9 > cfg.dailyMaxAmount()) {
+            s.daily.add(now, amount);
+            if (s.daily.amount(now) - 1e-9 > cfg.dailyMaxAmount()) {
                 return new Result(true, cfg.blockOnTrigger(), "DAILY_MAX_AMOUNT");
             }
         }
@@ -72,18 +85,4 @@ public final class AntiAbuseService {
 
         return new Result(false, false, null);
     }
-
-    private static void pruneTimes(Deque<Long> q, long cutoff) {
-        while (!q.isEmpty() && q.peekFirst() < cutoff) q.pollFirst();
-    }
-
-    private static void pruneAmounts(Deque<AmountAt> q, long cutoff) {
-        while (!q.isEmpty() && q.peekFirst().atMs() < cutoff) q.pollFirst();
-    }
-
-    private static double sum(Deque<AmountAt> q) {
-        double s = 0.0;
-        for (AmountAt a : q) s += a.amount();
-        return s;
-    }
 }
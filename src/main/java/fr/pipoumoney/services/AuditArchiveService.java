@@ -0,0 +1,84 @@
+package fr.pipoumoney.services;
+
+import fr.pipoumoney.db.archive.ArchiveSegment;
+import fr.pipoumoney.db.archive.ArchiveStore;
+import fr.pipoumoney.storage.AuditStore;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+public final class AuditArchiveService {
+
+    public record Result(int segments, long rows, long durationMs) {}
+
+    private final AuditStore repo;
+    private final ArchiveStore store;
+    private final TxCacheService txCache;
+    private final Consumer<Runnable> async;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public AuditArchiveService(AuditStore repo, ArchiveStore store, TxCacheService txCache, Consumer<Runnable> async) {
+        this.repo = repo;
+        this.store = store;
+        this.txCache = txCache;
+        this.async = async;
+    }
+
+    public ArchiveStore store() { return store; }
+    public boolean isRunning() { return running.get(); }
+
+    public boolean archiveAsync(int olderThanDays, int segmentRows, Consumer<Result> onDone, Consumer<Exception> onError) {
+        if (!running.compareAndSet(false, true)) return false;
+
+        async.accept(() -> {
+            try {
+                onDone.accept(archive(olderThanDays, segmentRows));
+            } catch (Exception e) {
+                onError.accept(e);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    private Result archive(int olderThanDays, int segmentRows) throws Exception {
+        long start = System.currentTimeMillis();
+        long cutoff = Instant.now().minusSeconds(olderThanDays * 86400L).toEpochMilli();
+
+        // A crash between writing a segment and deleting its rows leaves them in both places.
+        List<ArchiveSegment.Header> existing = store.segments();
+        if (!existing.isEmpty()) {
+            var last = existing.get(existing.size() - 1);
+            repo.deleteArchived(last.minId(), last.maxId(), last.maxAt());
+        }
+
+        int segments = 0;
+        long rows = 0;
+        while (true) {
+            List<AuditStore.Tx> batch = repo.loadOlderThan(cutoff, segmentRows);
+            if (batch.isEmpty()) break;
+
+            var h = store.append(batch);
+            repo.deleteArchived(h.minId(), h.maxId(), h.maxAt());
+
+            segments++;
+            rows += batch.size();
+            if (batch.size() < segmentRows) break;
+        }
+
+        if (rows > 0) txCache.clear();
+        return new Result(segments, rows, System.currentTimeMillis() - start);
+    }
+
+    public AuditStore.Page query(AuditStore.Query q) throws Exception {
+        return store.query(q);
+    }
+
+    public Optional<AuditStore.Tx> findById(long id) throws Exception {
+        return store.findById(id);
+    }
+}
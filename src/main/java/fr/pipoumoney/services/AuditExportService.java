@@ -0,0 +1,225 @@
+package fr.pipoumoney.services;
+
+import fr.pipoumoney.storage.AuditStore;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+public final class AuditExportService {
+
+    public enum Format { CSV, NDJSON }
+
+    public record Request(UUID player, Integer days, Format format) {}
+    public record Result(File file, long rows, long bytes, long durationMs) {}
+
+    private static final DateTimeFormatter FILE_TS =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.of("Europe/Paris"));
+
+    private static final String CSV_HEADER =
+            "id,at_epoch_ms,at,source,type,actor_uuid,target_uuid,amount,admin_flagged,flag_reason,flagged_by_uuid,flagged_at_ms\n";
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final AuditStore repo;
+    private final File folder;
+    private final Consumer<Runnable> async;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public AuditExportService(AuditStore repo, File folder, Consumer<Runnable> async) {
+        this.repo = repo;
+        this.folder = folder;
+        this.async = async;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public static Format parseFormat(String raw) {
+        if (raw == null) return Format.CSV;
+        return switch (raw.trim().toLowerCase(Locale.ROOT)) {
+            case "csv" -> Format.CSV;
+            case "ndjson", "jsonl", "json" -> Format.NDJSON;
+            default -> null;
+        };
+    }
+
+    public boolean exportAsync(Request req,
+                               int fetchSize,
+                               int progressEvery,
+                               LongConsumer onProgress,
+                               Consumer<Result> onDone,
+                               Consumer<Exception> onError) {
+        if (!running.compareAndSet(false, true)) return false;
+
+        async.accept(() -> {
+            try {
+                onDone.accept(export(req, fetchSize, progressEvery, onProgress));
+            } catch (Exception e) {
+                onError.accept(e);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    private Result export(Request req, int fetchSize, int progressEvery, LongConsumer onProgress) throws Exception {
+        folder.mkdirs();
+
+        String ext = req.format() == Format.CSV ? "csv" : "ndjson";
+        String who = req.player() == null ? "all" : req.player().toString();
+        File out = new File(folder, "tx-" + who + "-" + FILE_TS.format(Instant.now()) + "." + ext);
+
+        long start = System.currentTimeMillis();
+        long every = Math.max(1, progressEvery);
+
+        try (FileChannel ch = FileChannel.open(out.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            ChannelWriter w = new ChannelWriter(ch);
+            if (req.format() == Format.CSV) w.write(CSV_HEADER);
+
+            StringBuilder line = new StringBuilder(256);
+            long rows = repo.stream(req.player(), req.days(), fetchSize, tx -> {
+                line.setLength(0);
+                if (req.format() == Format.CSV) appendCsv(line, tx);
+                else appendJson(line, tx);
+                w.write(line);
+
+                long n = w.rows++;
+                if ((n + 1) % every == 0) onProgress.accept(n + 1);
+            });
+
+            w.flush();
+            ch.force(false);
+            return new Result(out, rows, w.bytes, System.currentTimeMillis() - start);
+        }
+    }
+
+    private static void appendCsv(StringBuilder sb, AuditStore.Tx tx) {
+        sb.append(tx.id()).append(',')
+                .append(tx.at().toEpochMilli()).append(',')
+                .append(tx.at()).append(',');
+        csv(sb, tx.source()).append(',');
+        csv(sb, tx.type()).append(',');
+        uuid(sb, tx.actor()).append(',');
+        uuid(sb, tx.target()).append(',');
+        sb.append(tx.amount()).append(',')
+                .append(tx.adminFlagged() ? 1 : 0).append(',');
+        csv(sb, tx.flagReason()).append(',');
+        uuid(sb, tx.flaggedBy()).append(',')
+                .append(tx.flaggedAtMs()).append('\n');
+    }
+
+    private static void appendJson(StringBuilder sb, AuditStore.Tx tx) {
+        sb.append("{\"id\":").append(tx.id())
+                .append(",\"at_epoch_ms\":").append(tx.at().toEpochMilli())
+                .append(",\"at\":\"").append(tx.at()).append('"')
+                .append(",\"source\":");
+        json(sb, tx.source());
+        sb.append(",\"type\":");
+        json(sb, tx.type());
+        sb.append(",\"actor_uuid\":");
+        json(sb, tx.actor() == null ? null : tx.actor().toString());
+        sb.append(",\"target_uuid\":");
+        json(sb, tx.target() == null ? null : tx.target().toString());
+        sb.append(",\"amount\":").append(tx.amount())
+                .append(",\"admin_flagged\":").append(tx.adminFlagged())
+                .append(",\"flag_reason\":");
+        json(sb, tx.flagReason());
+        sb.append(",\"flagged_by_uuid\":");
+        json(sb, tx.flaggedBy() == null ? null : tx.flaggedBy().toString());
+        sb.append(",\"flagged_at_ms\":").append(tx.flaggedAtMs()).append("}\n");
+    }
+
+    private static StringBuilder uuid(StringBuilder sb, UUID u) {
+        return u == null ? sb : sb.append(u);
+    }
+
+    private static StringBuilder csv(StringBuilder sb, String s) {
+        if (s == null) return sb;
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char ch = s.charAt(i);
+            quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+        }
+        if (!quote) return sb.append(s);
+
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"') sb.append('"');
+            sb.append(ch);
+        }
+        return sb.append('"');
+    }
+
+    private static void json(StringBuilder sb, String s) {
+        if (s == null) { sb.append("null"); return; }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (ch < 0x20) sb.append(String.format(Locale.ROOT, "\\u%04x", (int) ch));
+                    else sb.append(ch);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static final class ChannelWriter {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CharsetEncoder enc = StandardCharsets.UTF_8.newEncoder();
+        private long bytes;
+        private long rows;
+
+        ChannelWriter(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        void write(CharSequence s) throws Exception {
+            CharBuffer in = CharBuffer.wrap(s);
+            enc.reset();
+            while (true) {
+                CoderResult r = enc.encode(in, buf, true);
+                if (r.isOverflow()) { drain(); continue; }
+                if (r.isError()) r.throwException();
+                break;
+            }
+            while (enc.flush(buf).isOverflow()) drain();
+        }
+
+        void flush() throws Exception {
+            drain();
+        }
+
+        private void drain() throws Exception {
+            buf.flip();
+            while (buf.hasRemaining()) bytes += ch.write(buf);
+            buf.clear();
+        }
+    }
+}
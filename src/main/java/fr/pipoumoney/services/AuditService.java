@@ -1,50 +1,155 @@
 package fr.pipoumoney.services;
 
 import fr.pipoumoney.config.PluginConfig;
-import fr.pipoumoney.db.repositories.AuditRepository;
+import fr.pipoumoney.storage.AuditStore;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 public final class AuditService {
 
     public record FlagInfo(boolean flag, String reason, UUID flaggedBy) {}
 
-    private final AuditRepository repo;
+    private static final int WRITE_BATCH = 500;
+
+    private final AuditStore repo;
+    private final TxCacheService txCache;
     private final Consumer<Runnable> async;
+    private final int maxBuffered;
     private volatile boolean enabled;
 
-    public AuditService(AuditRepository repo, Consumer<Runnable> async, boolean enabled) {
+    // Failed batches go back to the head of the queue and wait for the next retry.
+    private final ConcurrentLinkedDeque<AuditStore.NewTx> pending = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+    private final AtomicLong dropped = new AtomicLong(0L);
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    // Held around every write so the shutdown flush can wait, bounded, for a running drain.
+    private final ReentrantLock writing = new ReentrantLock();
+    private volatile boolean failing;
+
+    public AuditService(AuditStore repo, TxCacheService txCache, Consumer<Runnable> async, boolean enabled, int maxBuffered) {
         this.repo = repo;
+        this.txCache = txCache;
         this.async = async;
         this.enabled = enabled;
+        this.maxBuffered = Math.max(1, maxBuffered);
     }
 
     public void setEnabled(boolean enabled) { this.enabled = enabled; }
     public boolean isEnabled() { return enabled; }
 
+    /** Transactions waiting to be written, including batches kept back by a failed write. */
+    public int buffered() { return pendingCount.get(); }
+    public long dropped() { return dropped.get(); }
+
     public void logAsync(String source, String type, UUID actor, UUID target, double amount) {
         logAsync(source, type, actor, target, amount, null);
     }
 
     public void logAsync(String source, String type, UUID actor, UUID target, double amount, FlagInfo flag) {
         if (!enabled) return;
-        async.accept(() -> {
+
+        boolean flagged = flag != null && flag.flag();
+        pending.addLast(new AuditStore.NewTx(
+                Instant.ofEpochMilli(System.currentTimeMillis()), source, type, actor, target, amount,
+                flagged ? flag.reason() : null, flagged ? flag.flaggedBy() : null));
+        if (pendingCount.incrementAndGet() > maxBuffered) dropOldest();
+
+        // While writes fail the queue only grows, retryAsync picks it up again.
+        if (!failing && draining.compareAndSet(false, true)) async.accept(this::drain);
+    }
+
+    /** Writes the buffered transactions again, called once storage is reachable. */
+    public void retryAsync() {
+        failing = false;
+        if (!pending.isEmpty() && draining.compareAndSet(false, true)) async.accept(this::drain);
+    }
+
+    private void dropOldest() {
+        while (pendingCount.get() > maxBuffered && pending.pollFirst() != null) {
+            pendingCount.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes everything still queued on the calling thread through {@code store}, used on shutdown
+     * with the unguarded store so an open breaker does not skip the last attempt. Returns false,
+     * without writing, when a running drain does not end within {@code waitMs}.
+     */
+    public boolean flushPending(AuditStore store, long waitMs) {
+        try {
+            if (!writing.tryLock(waitMs, TimeUnit.MILLISECONDS)) return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            writeQueued(store);
+            return true;
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            writing.lock();
             try {
-                long id = repo.insert(Instant.now(), source, type, actor, target, amount);
-                if (flag != null && flag.flag() && id > 0) {
-                    repo.flag(id, flag.flaggedBy(), flag.reason());
-                }
-            } catch (Exception ignored) {}
-        });
+                writeQueued(repo);
+            } finally {
+                writing.unlock();
+                draining.set(false);
+            }
+            if (failing || pending.isEmpty() || !draining.compareAndSet(false, true)) return;
+        }
+    }
+
+    // Inserts queued between two drains share one writer transaction.
+    private void writeQueued(AuditStore store) {
+        List<AuditStore.NewTx> batch = new ArrayList<>();
+        AuditStore.NewTx next;
+        while (true) {
+            batch.clear();
+            while (batch.size() < WRITE_BATCH && (next = pending.pollFirst()) != null) batch.add(next);
+            if (batch.isEmpty()) return;
+
+            long[] ids;
+            try {
+                ids = store.insertBatch(batch);
+            } catch (Exception e) {
+                for (int i = batch.size() - 1; i >= 0; i--) pending.addFirst(batch.get(i));
+                failing = true;
+                return;
+            }
+
+            pendingCount.addAndGet(-batch.size());
+            failing = false;
+            for (int i = 0; i < ids.length; i++) {
+                var tx = batch.get(i);
+                txCache.put(new AuditStore.Tx(ids[i], tx.at(), tx.source(), tx.type(), tx.actor(), tx.target(),
+                        tx.amount(), tx.flagged(), tx.flagReason(), tx.flaggedBy(),
+                        tx.flagged() ? tx.at().toEpochMilli() : 0L));
+            }
+        }
     }
 
     public void purgeOnStartAsync(PluginConfig.Audit cfg) {
         if (!enabled || !cfg.purgeOnStart()) return;
         async.accept(() -> {
-            try { repo.purgeOlderThanDays(cfg.purgeOlderThanDays()); }
-            catch (Exception ignored) {}
+            try {
+                repo.purgeOlderThanDays(cfg.purgeOlderThanDays());
+                txCache.clear();
+            } catch (Exception ignored) {}
         });
     }
 }
@@ -0,0 +1,109 @@
+package fr.pipoumoney.services;
+
+import fr.pipoumoney.storage.AccountStore;
+
+/**
+ * Decides when dirty accounts are written back. A flush starts once {@code dirtyThreshold}
+ * accounts are waiting or the oldest change reaches {@code maxStalenessMs}, but never sooner
+ * than a gap derived from the last flush duration after the previous one. The chunk size follows
+ * the measured chunk latency towards {@code targetChunkMs}, between {@link #MIN_CHUNK} and the
+ * configured maximum.
+ */
+public final class FlushScheduler {
+
+    public enum Decision { IDLE, WAIT, BATCH, STALE }
+
+    public record Snapshot(Decision decision, int chunkSize, long minGapMs, double dirtyPerSecond, long oldestDirtyMs) {}
+
+    private static final int MIN_CHUNK = 50;
+    private static final long MIN_GAP_MS = 1000L;
+    private static final int GAP_FACTOR = 4;
+    private static final double RATE_SMOOTHING = 0.2;
+
+    private final AccountService accounts;
+
+    private volatile int dirtyThreshold;
+    private long maxStalenessMs;
+    private int maxChunk;
+    private long targetChunkMs;
+
+    private int chunkSize;
+    private long minGapMs = MIN_GAP_MS;
+    private long lastFlushEndMs;
+    private Decision lastDecision = Decision.IDLE;
+
+    private long rateSampleAtMs;
+    private long rateSampleTotal;
+    private double dirtyPerSecond;
+
+    public FlushScheduler(AccountService accounts) {
+        this.accounts = accounts;
+    }
+
+    public synchronized void configure(int dirtyThreshold, int maxStalenessSeconds, int maxChunk, int targetChunkMs) {
+        this.dirtyThreshold = Math.max(1, dirtyThreshold);
+        this.maxStalenessMs = Math.max(1, maxStalenessSeconds) * 1000L;
+        this.maxChunk = Math.max(1, maxChunk);
+        this.targetChunkMs = Math.max(1, targetChunkMs);
+        this.chunkSize = chunkSize <= 0 ? this.maxChunk : clampChunk(chunkSize);
+    }
+
+    /** Cheap pre-check for hot paths such as Vault calls, the full decision comes next. */
+    public boolean thresholdReached() {
+        return accounts.dirtySize() >= dirtyThreshold;
+    }
+
+    /** Samples the dirty rate, called once per second by the flush task. */
+    public synchronized void sample(long now) {
+        long total = accounts.dirtiedTotal();
+        if (rateSampleAtMs > 0L && now > rateSampleAtMs) {
+            double rate = (total - rateSampleTotal) * 1000.0 / (now - rateSampleAtMs);
+            dirtyPerSecond += RATE_SMOOTHING * (rate - dirtyPerSecond);
+        }
+        rateSampleAtMs = now;
+        rateSampleTotal = total;
+    }
+
+    public synchronized boolean shouldFlush(long now) {
+        lastDecision = decide(now);
+        return lastDecision == Decision.BATCH || lastDecision == Decision.STALE;
+    }
+
+    private Decision decide(long now) {
+        int dirty = accounts.dirtySize();
+        if (dirty == 0) return Decision.IDLE;
+
+        long age = accounts.oldestDirtyAgeMs(now);
+        if (age >= maxStalenessMs) return Decision.STALE;
+        if (now - lastFlushEndMs < minGapMs) return Decision.WAIT;
+        return dirty >= dirtyThreshold ? Decision.BATCH : Decision.WAIT;
+    }
+
+    public synchronized int chunkSize() {
+        return chunkSize;
+    }
+
+    /** Adapts the gap and chunk size from a finished flush. */
+    public synchronized void recordFlush(AccountStore.FlushResult r, long now) {
+        lastFlushEndMs = now;
+        if (r.chunks() <= 0) return;
+
+        // Keep the database busy at most a quarter of the time, without exceeding the staleness bound.
+        minGapMs = Math.max(MIN_GAP_MS, Math.min(maxStalenessMs / 2, r.durationMs() * GAP_FACTOR));
+
+        long perChunkMs = r.durationMs() / r.chunks();
+        if (r.slowestChunkMs() > targetChunkMs * 2 || perChunkMs > targetChunkMs) {
+            chunkSize = clampChunk(chunkSize / 2);
+        } else if (perChunkMs * 2 < targetChunkMs && r.rows() >= chunkSize) {
+            chunkSize = clampChunk(chunkSize + Math.max(1, chunkSize / 4));
+        }
+    }
+
+    private int clampChunk(int n) {
+        return Math.max(Math.min(MIN_CHUNK, maxChunk), Math.min(maxChunk, n));
+    }
+
+    public synchronized Snapshot snapshot(long now) {
+        return new Snapshot(lastDecision, chunkSize, minGapMs, dirtyPerSecond, accounts.oldestDirtyAgeMs(now));
+    }
+}
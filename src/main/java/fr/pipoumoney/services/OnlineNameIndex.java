@@ -0,0 +1,80 @@
+package fr.pipoumoney.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Names of the online players sorted case-insensitively, for tab completion from any thread.
+ * Joins and quits copy the arrays (rare), lookups binary search the lower-case keys of the
+ * current snapshot and return a view of the immutable name list.
+ */
+public final class OnlineNameIndex {
+
+    private record Snapshot(String[] keys, List<String> names) {}
+
+    private volatile Snapshot snapshot = new Snapshot(new String[0], List.of());
+
+    public synchronized void reset(Collection<String> names) {
+        var sorted = new ArrayList<String>(names.size());
+        for (String n : names) if (n != null && !n.isEmpty()) sorted.add(n);
+        sorted.sort(Comparator.comparing(OnlineNameIndex::key));
+        publish(sorted);
+    }
+
+    public synchronized void add(String name) {
+        if (name == null || name.isEmpty()) return;
+        Snapshot s = snapshot;
+        String key = key(name);
+        int at = Arrays.binarySearch(s.keys(), key);
+        if (at >= 0 && s.names().get(at).equals(name)) return;
+
+        var next = new ArrayList<String>(s.names().size() + 1);
+        next.addAll(s.names());
+        if (at >= 0) next.set(at, name);
+        else next.add(-at - 1, name);
+        publish(next);
+    }
+
+    public synchronized void remove(String name) {
+        if (name == null || name.isEmpty()) return;
+        Snapshot s = snapshot;
+        int at = Arrays.binarySearch(s.keys(), key(name));
+        if (at < 0) return;
+
+        var next = new ArrayList<String>(s.names());
+        next.remove(at);
+        publish(next);
+    }
+
+    public int size() {
+        return snapshot.names().size();
+    }
+
+    /** Names starting with {@code prefix}, ignoring case, in sorted order. */
+    public List<String> startingWith(String prefix) {
+        Snapshot s = snapshot;
+        if (prefix == null || prefix.isEmpty()) return s.names();
+
+        String p = key(prefix);
+        int from = Arrays.binarySearch(s.keys(), p);
+        if (from < 0) from = -from - 1;
+
+        int to = from;
+        while (to < s.keys().length && s.keys()[to].startsWith(p)) to++;
+        return s.names().subList(from, to);
+    }
+
+    private void publish(List<String> sorted) {
+        String[] keys = new String[sorted.size()];
+        for (int i = 0; i < keys.length; i++) keys[i] = key(sorted.get(i));
+        snapshot = new Snapshot(keys, List.copyOf(sorted));
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
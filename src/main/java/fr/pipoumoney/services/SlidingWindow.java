@@ -0,0 +1,81 @@
+package fr.pipoumoney.services;
+
+/**
+ * Count and amount of the events of the last {@code buckets * bucketMs} milliseconds, kept in a
+ * ring of fixed-width buckets with running totals: adding and reading only clear the buckets
+ * passed since the previous call, and memory does not grow with the number of events. An event
+ * leaves the window when its whole bucket does, so it may be counted up to one bucket width
+ * longer than the exact span.
+ *
+ * <p>Not thread-safe, callers lock around it.
+ */
+final class SlidingWindow {
+
+    private final long bucketMs;
+    private final int[] counts;
+    private final double[] amounts;
+
+    // Bucket number (time / bucketMs) of the newest, partly elapsed bucket. The ring keeps one
+    // bucket more than asked so the full ones behind it always cover the whole span.
+    private long head = Long.MIN_VALUE;
+    private int count;
+    private double amount;
+
+    SlidingWindow(int buckets, long bucketMs) {
+        this.bucketMs = Math.max(1L, bucketMs);
+        this.counts = new int[Math.max(1, buckets) + 1];
+        this.amounts = new double[counts.length];
+    }
+
+    /** A window of {@code spanMs} cut into at most {@code buckets} buckets of whole milliseconds. */
+    static SlidingWindow spanning(long spanMs, int buckets) {
+        long width = Math.max(1L, (spanMs + buckets - 1) / buckets);
+        return new SlidingWindow((int) Math.max(1L, (spanMs + width - 1) / width), width);
+    }
+
+    void add(long nowMs, double value) {
+        advance(nowMs);
+        int i = slot(head);
+        counts[i]++;
+        amounts[i] += value;
+        count++;
+        amount += value;
+    }
+
+    int count(long nowMs) {
+        advance(nowMs);
+        return count;
+    }
+
+    double amount(long nowMs) {
+        advance(nowMs);
+        return amount;
+    }
+
+    // A clock going backwards keeps adding to the newest bucket.
+    private void advance(long nowMs) {
+        long bucket = Math.floorDiv(nowMs, bucketMs);
+        if (head == Long.MIN_VALUE) {
+            head = bucket;
+            return;
+        }
+        if (bucket <= head) return;
+
+        long steps = Math.min(bucket - head, counts.length);
+        for (long k = 1; k <= steps; k++) clear(slot(head + k));
+        head = bucket;
+    }
+
+    private void clear(int i) {
+        count -= counts[i];
+        amount -= amounts[i];
+        counts[i] = 0;
+        amounts[i] = 0.0;
+        // Running sums of doubles drift, an empty window starts again from exact zero.
+        if (count == 0) amount = 0.0;
+    }
+
+    private int slot(long bucket) {
+        return (int) Math.floorMod(bucket, (long) counts.length);
+    }
+}
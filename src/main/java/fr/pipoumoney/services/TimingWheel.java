@@ -0,0 +1,198 @@
+package fr.pipoumoney.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Hashed timing wheel for short-lived per-player state. Each {@link Table} is a concurrent map
+ * whose entries carry a deadline; the wheel holds one slot reference per entry and
+ * {@link #advance(long)} only visits the slots that came due since the last call, so eviction
+ * is O(1) amortized per entry. Refreshing a live entry only moves its deadline: when the slot
+ * comes up the entry is put back further along instead of being removed.
+ *
+ * <p>Reads never see an expired value even if the wheel has not reached it yet.
+ */
+public final class TimingWheel {
+
+    private static final class Entry {
+        final Table<?, ?> table;
+        final Object key;
+        volatile Object value;
+        volatile long expiresAtMs;
+        long deadlineTick;
+
+        Entry(Table<?, ?> table, Object key, Object value, long expiresAtMs) {
+            this.table = table;
+            this.key = key;
+            this.value = value;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    public final class Table<K, V> {
+        private final String name;
+        private final Map<K, Entry> entries = new ConcurrentHashMap<>();
+
+        private Table(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get(K key) {
+            Entry e = entries.get(key);
+            if (e == null || e.expiresAtMs <= System.currentTimeMillis()) return null;
+            return (V) e.value;
+        }
+
+        public void put(K key, V value, long ttlMs) {
+            long exp = System.currentTimeMillis() + Math.max(1L, ttlMs);
+            Entry[] created = new Entry[1];
+            entries.compute(key, (k, e) -> {
+                if (e != null) {
+                    e.value = value;
+                    e.expiresAtMs = exp;
+                    return e;
+                }
+                created[0] = new Entry(this, k, value, exp);
+                return created[0];
+            });
+            if (created[0] != null) schedule(created[0]);
+        }
+
+        /** The live value for {@code key}, a fresh one when absent or expired; either way good for {@code ttlMs} more. */
+        @SuppressWarnings("unchecked")
+        public V touch(K key, Function<K, V> factory, long ttlMs) {
+            long now = System.currentTimeMillis();
+            long exp = now + Math.max(1L, ttlMs);
+            Entry[] created = new Entry[1];
+            Entry out = entries.compute(key, (k, e) -> {
+                if (e != null) {
+                    if (e.expiresAtMs <= now) e.value = factory.apply(k);
+                    e.expiresAtMs = exp;
+                    return e;
+                }
+                created[0] = new Entry(this, k, factory.apply(k), exp);
+                return created[0];
+            });
+            if (created[0] != null) schedule(created[0]);
+            return (V) out.value;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V remove(K key) {
+            Entry e = entries.remove(key);
+            return e == null ? null : (V) e.value;
+        }
+
+        public void clear() {
+            entries.clear();
+        }
+
+        // Called by the wheel when the entry's slot comes up; true when it must be put back.
+        @SuppressWarnings("unchecked")
+        private boolean expire(Entry e, long now) {
+            boolean[] live = {false};
+            entries.computeIfPresent((K) e.key, (k, cur) -> {
+                if (cur != e) return cur;
+                if (cur.expiresAtMs > now) {
+                    live[0] = true;
+                    return cur;
+                }
+                return null;
+            });
+            return live[0];
+        }
+    }
+
+    private final long tickMs;
+    private final List<Entry>[] slots;
+    private final int mask;
+    private final Map<String, Table<?, ?>> tables = new ConcurrentHashMap<>();
+
+    private long tick;
+    private long scheduled;
+    private long evicted;
+
+    /** {@code slots} is rounded up to a power of two. */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMs, int slots) {
+        this.tickMs = Math.max(1L, tickMs);
+        int n = Integer.highestOneBit(Math.max(2, slots) - 1) << 1;
+        this.slots = new List[n];
+        for (int i = 0; i < n; i++) this.slots[i] = new ArrayList<>();
+        this.mask = n - 1;
+        this.tick = System.currentTimeMillis() / this.tickMs;
+    }
+
+    /** A new empty table; one registered earlier under the same name is cleared and dropped. */
+    public <K, V> Table<K, V> register(String name) {
+        var t = new Table<K, V>(name);
+        Table<?, ?> prev = tables.put(name, t);
+        if (prev != null) prev.clear();
+        return t;
+    }
+
+    /** Live entries per table, by table name. */
+    public Map<String, Integer> counts() {
+        var out = new TreeMap<String, Integer>();
+        tables.forEach((name, t) -> out.put(name, t.size()));
+        return out;
+    }
+
+    public synchronized long scheduled() {
+        return scheduled;
+    }
+
+    public synchronized long evicted() {
+        return evicted;
+    }
+
+    /** Evicts what expired up to {@code now}; cheap when called more often than once per tick. */
+    public void advance(long now) {
+        var due = new ArrayList<Entry>();
+        synchronized (this) {
+            long target = now / tickMs;
+            if (target <= tick) return;
+
+            // A full turn visits every slot once, however long the wheel was idle.
+            long steps = Math.min(target - tick, slots.length);
+            for (long i = 1; i <= steps; i++) {
+                List<Entry> slot = slots[(int) ((tick + i) & mask)];
+                int kept = 0;
+                for (Entry e : slot) {
+                    if (e.deadlineTick <= target) due.add(e);
+                    else slot.set(kept++, e);
+                }
+                slot.subList(kept, slot.size()).clear();
+            }
+            tick = target;
+            scheduled -= due.size();
+        }
+
+        int gone = 0;
+        for (Entry e : due) {
+            if (e.table.expire(e, now)) schedule(e);
+            else gone++;
+        }
+        if (gone > 0) synchronized (this) { evicted += gone; }
+    }
+
+    private synchronized void schedule(Entry e) {
+        long deadline = (e.expiresAtMs + tickMs - 1) / tickMs;
+        e.deadlineTick = Math.max(deadline, tick + 1);
+        slots[(int) (e.deadlineTick & mask)].add(e);
+        scheduled++;
+    }
+}
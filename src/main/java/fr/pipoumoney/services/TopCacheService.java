@@ -1,6 +1,6 @@
 package fr.pipoumoney.services;
 
-import fr.pipoumoney.db.repositories.AccountsRepository;
+import fr.pipoumoney.storage.AccountStore;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -11,14 +11,14 @@ public final class TopCacheService {
 
     public record Entry(int rank, String name, double balance, String uuid) {}
 
-    private final AccountsRepository accountsRepo;
+    private final AccountStore accountsRepo;
     private final double minBalance;
     private final int size;
 
     private volatile List<Entry> snapshot = List.of();
     private final AtomicLong lastRefreshAtMs = new AtomicLong(0L);
 
-    public TopCacheService(AccountsRepository accountsRepo, double minBalance, int size) {
+    public TopCacheService(AccountStore accountsRepo, double minBalance, int size) {
         this.accountsRepo = accountsRepo;
         this.minBalance = minBalance;
         this.size = size;
@@ -0,0 +1,145 @@
+package fr.pipoumoney.services;
+
+import fr.pipoumoney.storage.AuditStore;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU of recently read transactions. Readers take a {@link #stamp()} before querying the store
+ * and pass it back when caching the rows, so a row read before a flag change cannot be cached
+ * after {@link #invalidate(long)} ran for it.
+ */
+public final class TxCacheService {
+
+    private record Cached(AuditStore.Tx tx, long expiresAtMs) {}
+
+    // Invalidation stamps remembered per id; older ones are folded into forgottenBefore.
+    private static final int MAX_INVALIDATIONS = 1024;
+
+    private final boolean enabled;
+    private final int maxSize;
+    private final long ttlMs;
+
+    private final LinkedHashMap<Long, Cached> lru;
+
+    private final LinkedHashMap<Long, Long> invalidatedAt;
+    private long stamp;
+    private long forgottenBefore;
+
+    private final AtomicLong hits = new AtomicLong(0L);
+    private final AtomicLong misses = new AtomicLong(0L);
+
+    public TxCacheService(boolean enabled, int maxSize, int ttlSeconds) {
+        this.enabled = enabled;
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlMs = Math.max(1, ttlSeconds) * 1000L;
+        this.lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+                return size() > TxCacheService.this.maxSize;
+            }
+        };
+        this.invalidatedAt = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                if (size() <= MAX_INVALIDATIONS) return false;
+                forgottenBefore = Math.max(forgottenBefore, eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /** Taken before reading from the store, handed back to {@link #put} / {@link #putAll}. */
+    public long stamp() {
+        synchronized (lru) {
+            return stamp;
+        }
+    }
+
+    public Optional<AuditStore.Tx> get(long id) {
+        if (!enabled) return Optional.empty();
+
+        long now = System.currentTimeMillis();
+        synchronized (lru) {
+            Cached c = lru.get(id);
+            if (c != null && c.expiresAtMs() > now) {
+                hits.incrementAndGet();
+                return Optional.of(c.tx());
+            }
+            if (c != null) lru.remove(id);
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /** Caches a row this server just wrote, nothing can have invalidated it yet. */
+    public void put(AuditStore.Tx tx) {
+        put(tx, stamp());
+    }
+
+    public void put(AuditStore.Tx tx, long readStamp) {
+        if (!enabled || tx == null || tx.id() <= 0) return;
+
+        long exp = System.currentTimeMillis() + ttlMs;
+        synchronized (lru) {
+            if (fresh(tx.id(), readStamp)) lru.put(tx.id(), new Cached(tx, exp));
+        }
+    }
+
+    public void putAll(Collection<AuditStore.Tx> txs, long readStamp) {
+        if (!enabled || txs == null || txs.isEmpty()) return;
+
+        long exp = System.currentTimeMillis() + ttlMs;
+        synchronized (lru) {
+            for (AuditStore.Tx tx : txs) {
+                if (tx != null && tx.id() > 0 && fresh(tx.id(), readStamp)) lru.put(tx.id(), new Cached(tx, exp));
+            }
+        }
+    }
+
+    public void invalidate(long id) {
+        synchronized (lru) {
+            lru.remove(id);
+            invalidatedAt.put(id, ++stamp);
+        }
+    }
+
+    public void clear() {
+        synchronized (lru) {
+            lru.clear();
+            invalidatedAt.clear();
+            forgottenBefore = ++stamp;
+        }
+    }
+
+    // Caller holds the lru lock.
+    private boolean fresh(long id, long readStamp) {
+        if (readStamp < forgottenBefore) return false;
+        Long at = invalidatedAt.get(id);
+        return at == null || at <= readStamp;
+    }
+
+    public int size() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+
+    public long hits() { return hits.get(); }
+    public long misses() { return misses.get(); }
+
+    public double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (h * 100.0) / total;
+    }
+
+    public void resetStats() {
+        hits.set(0L);
+        misses.set(0L);
+    }
+}
@@ -0,0 +1,59 @@
+package fr.pipoumoney.storage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public interface AccountStore {
+
+    record Row(UUID uuid, String name, double balance, boolean notificationsEnabled, boolean locked, long lastActivityMs, long version) {}
+
+    /** A pending balance write: either an absolute value or a delta added to the stored balance. */
+    record BalanceWrite(UUID uuid, String name, boolean absolute, double amount, boolean notificationsEnabled, boolean locked, long lastActivityMs) {}
+
+    record Stored(UUID uuid, double balance, long version) {}
+
+    record Change(long seq, UUID uuid) {}
+
+    record FlushResult(int rows, int chunks, long durationMs, long slowestChunkMs) {
+        public static final FlushResult EMPTY = new FlushResult(0, 0, 0L, 0L);
+    }
+
+    Map<UUID, Row> loadAll() throws Exception;
+
+    /** Absolute writes in chunks; {@code onChunk} receives the uuids of each committed chunk. */
+    FlushResult upsertBatch(List<UUID> uuids,
+                            Function<UUID, String> nameResolver,
+                            Function<UUID, Double> balanceResolver,
+                            Function<UUID, Boolean> notificationsEnabledResolver,
+                            Function<UUID, Boolean> lockedResolver,
+                            Function<UUID, Long> lastActivityResolver,
+                            int chunkSize,
+                            Consumer<List<UUID>> onChunk) throws Exception;
+
+    /** Delta/absolute balance writes; {@code onChunk} receives the stored rows of each committed chunk. */
+    FlushResult applyBalanceWrites(List<BalanceWrite> writes, int chunkSize, Consumer<List<Stored>> onChunk) throws Exception;
+
+    List<Row> loadByUuids(Collection<UUID> uuids) throws Exception;
+
+    int countByMin(double min) throws Exception;
+
+    List<Row> list(double min, String sort, int limit, int offset) throws Exception;
+
+    List<Row> top(double min, int limit) throws Exception;
+
+    int rankOf(UUID uuid) throws Exception;
+
+    // Change feed shared by servers on one database, stores without one return nothing.
+
+    void setChangeNode(String node);
+
+    long latestChangeSeq() throws Exception;
+
+    List<Change> changesSince(long seq, String exceptNode, int limit) throws Exception;
+
+    int pruneChanges(long olderThanMs) throws Exception;
+}
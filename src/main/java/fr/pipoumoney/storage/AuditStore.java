@@ -0,0 +1,78 @@
+package fr.pipoumoney.storage;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface AuditStore {
+
+    record Tx(
+            long id,
+            Instant at,
+            String source,
+            String type,
+            UUID actor,
+            UUID target,
+            double amount,
+            boolean adminFlagged,
+            String flagReason,
+            UUID flaggedBy,
+            long flaggedAtMs
+    ) {}
+
+    record Query(
+            UUID player,
+            String source,
+            String type,
+            Integer days,
+            Double minAmount,
+            Boolean flagged,
+            int page,
+            int perPage,
+            int limitCap
+    ) {}
+
+    record Page(List<Tx> rows, int page, int pages, int total) {}
+
+    record NewTx(
+            Instant at,
+            String source,
+            String type,
+            UUID actor,
+            UUID target,
+            double amount,
+            String flagReason,
+            UUID flaggedBy
+    ) {
+        public boolean flagged() { return flagReason != null; }
+    }
+
+    @FunctionalInterface
+    interface TxSink {
+        void accept(Tx tx) throws Exception;
+    }
+
+    /** Inserts all rows as one batch and returns their ids in the same order. */
+    long[] insertBatch(List<NewTx> rows) throws Exception;
+
+    void flag(long txId, UUID flaggedBy, String reason) throws Exception;
+
+    void unflag(long txId, UUID flaggedBy) throws Exception;
+
+    Optional<Tx> getById(long id) throws Exception;
+
+    List<Long> recentIds(int limit) throws Exception;
+
+    int purgeOlderThanDays(int days) throws Exception;
+
+    /** Feeds every matching row to {@code sink} in id order without buffering the result. */
+    long stream(UUID player, Integer days, int fetchSize, TxSink sink) throws Exception;
+
+    /** Oldest rows first, used by the archiver. */
+    List<Tx> loadOlderThan(long cutoffMs, int limit) throws Exception;
+
+    int deleteArchived(long minId, long maxId, long maxAtMs) throws Exception;
+
+    Page query(Query q) throws Exception;
+}
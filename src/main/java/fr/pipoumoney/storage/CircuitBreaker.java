@@ -0,0 +1,167 @@
+package fr.pipoumoney.storage;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Trips after {@code failureThreshold} consecutive storage failures and rejects calls until the
+ * open period is over. The next call is then let through as a trial: success closes the circuit,
+ * failure reopens it for twice as long, up to {@code maxOpenMs}. Only SQL and I/O errors count as
+ * storage failures; anything else is a bug in the caller and leaves the circuit as it was.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public record Latency(long samples, double p50Ms, double p95Ms, double p99Ms) {}
+
+    @FunctionalInterface
+    public interface Call<T> {
+        T run() throws Exception;
+    }
+
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private final int failureThreshold;
+    private final long baseOpenMs;
+    private final long maxOpenMs;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private int trips;
+    private long openUntilMs;
+    private boolean trialRunning;
+
+    private final long[] latencyNanos = new long[LATENCY_SAMPLES];
+    private long latencyCount;
+
+    private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+
+    public CircuitBreaker(int failureThreshold, long openMs, long maxOpenMs) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseOpenMs = Math.max(100L, openMs);
+        this.maxOpenMs = Math.max(this.baseOpenMs, maxOpenMs);
+    }
+
+    /** Runs after a successful trial closed the circuit, on the thread that made the call. */
+    public void onClose(Runnable listener) {
+        closeListeners.add(listener);
+    }
+
+    public <T> T call(Call<T> call) throws Exception {
+        acquire();
+        long start = System.nanoTime();
+        T out;
+        try {
+            out = call.run();
+        } catch (Exception e) {
+            if (isStorageFailure(e)) failure();
+            else inconclusive();
+            throw e;
+        }
+        if (success(System.nanoTime() - start)) {
+            for (Runnable r : closeListeners) r.run();
+        }
+        return out;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    public synchronized int failures() {
+        return failures;
+    }
+
+    /** True once an open circuit is ready for its trial call. */
+    public synchronized boolean retryDue() {
+        return state == State.OPEN && System.currentTimeMillis() >= openUntilMs;
+    }
+
+    public synchronized long retryInMs() {
+        return state == State.CLOSED ? 0L : Math.max(0L, openUntilMs - System.currentTimeMillis());
+    }
+
+    public Latency latency() {
+        long[] copy;
+        long count;
+        synchronized (this) {
+            count = latencyCount;
+            int n = (int) Math.min(count, LATENCY_SAMPLES);
+            copy = Arrays.copyOf(latencyNanos, n);
+        }
+        if (copy.length == 0) return new Latency(0L, 0.0, 0.0, 0.0);
+
+        Arrays.sort(copy);
+        return new Latency(count, percentile(copy, 50), percentile(copy, 95), percentile(copy, 99));
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))] / 1_000_000.0;
+    }
+
+    private synchronized void acquire() throws StorageUnavailableException {
+        switch (state) {
+            case CLOSED -> {}
+            case OPEN -> {
+                long now = System.currentTimeMillis();
+                if (now < openUntilMs) throw new StorageUnavailableException(openUntilMs - now);
+                state = State.HALF_OPEN;
+                trialRunning = true;
+            }
+            case HALF_OPEN -> {
+                if (trialRunning) throw new StorageUnavailableException(0L);
+                trialRunning = true;
+            }
+        }
+    }
+
+    /** Returns true when this call closed the circuit. */
+    private synchronized boolean success(long nanos) {
+        latencyNanos[(int) (latencyCount++ % LATENCY_SAMPLES)] = nanos;
+        failures = 0;
+        if (state == State.CLOSED) return false;
+
+        state = State.CLOSED;
+        trips = 0;
+        trialRunning = false;
+        return true;
+    }
+
+    private synchronized void failure() {
+        failures++;
+        switch (state) {
+            case CLOSED -> { if (failures >= failureThreshold) open(); }
+            case HALF_OPEN -> open();
+            case OPEN -> {}
+        }
+    }
+
+    // A trial that failed for another reason says nothing about storage: let the next call try.
+    private synchronized void inconclusive() {
+        if (state == State.HALF_OPEN) trialRunning = false;
+    }
+
+    private static boolean isStorageFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException || t instanceof IOException) return true;
+        }
+        return false;
+    }
+
+    private void open() {
+        trips++;
+        long openMs = baseOpenMs << Math.min(trips - 1, 20);
+        openUntilMs = System.currentTimeMillis() + Math.min(maxOpenMs, openMs);
+        state = State.OPEN;
+        trialRunning = false;
+    }
+}
@@ -0,0 +1,88 @@
+package fr.pipoumoney.storage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/** Routes every account store call through the circuit breaker. */
+public final class GuardedAccountStore implements AccountStore {
+
+    private final AccountStore delegate;
+    private final CircuitBreaker breaker;
+
+    public GuardedAccountStore(AccountStore delegate, CircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public Map<UUID, Row> loadAll() throws Exception {
+        return breaker.call(delegate::loadAll);
+    }
+
+    @Override
+    public FlushResult upsertBatch(List<UUID> uuids,
+                                   Function<UUID, String> nameResolver,
+                                   Function<UUID, Double> balanceResolver,
+                                   Function<UUID, Boolean> notificationsEnabledResolver,
+                                   Function<UUID, Boolean> lockedResolver,
+                                   Function<UUID, Long> lastActivityResolver,
+                                   int chunkSize,
+                                   Consumer<List<UUID>> onChunk) throws Exception {
+        return breaker.call(() -> delegate.upsertBatch(uuids, nameResolver, balanceResolver,
+                notificationsEnabledResolver, lockedResolver, lastActivityResolver, chunkSize, onChunk));
+    }
+
+    @Override
+    public FlushResult applyBalanceWrites(List<BalanceWrite> writes, int chunkSize, Consumer<List<Stored>> onChunk) throws Exception {
+        return breaker.call(() -> delegate.applyBalanceWrites(writes, chunkSize, onChunk));
+    }
+
+    @Override
+    public List<Row> loadByUuids(Collection<UUID> uuids) throws Exception {
+        return breaker.call(() -> delegate.loadByUuids(uuids));
+    }
+
+    @Override
+    public int countByMin(double min) throws Exception {
+        return breaker.call(() -> delegate.countByMin(min));
+    }
+
+    @Override
+    public List<Row> list(double min, String sort, int limit, int offset) throws Exception {
+        return breaker.call(() -> delegate.list(min, sort, limit, offset));
+    }
+
+    @Override
+    public List<Row> top(double min, int limit) throws Exception {
+        return breaker.call(() -> delegate.top(min, limit));
+    }
+
+    @Override
+    public int rankOf(UUID uuid) throws Exception {
+        return breaker.call(() -> delegate.rankOf(uuid));
+    }
+
+    @Override
+    public void setChangeNode(String node) {
+        delegate.setChangeNode(node);
+    }
+
+    @Override
+    public long latestChangeSeq() throws Exception {
+        return breaker.call(delegate::latestChangeSeq);
+    }
+
+    @Override
+    public List<Change> changesSince(long seq, String exceptNode, int limit) throws Exception {
+        return breaker.call(() -> delegate.changesSince(seq, exceptNode, limit));
+    }
+
+    @Override
+    public int pruneChanges(long olderThanMs) throws Exception {
+        return breaker.call(() -> delegate.pruneChanges(olderThanMs));
+    }
+}
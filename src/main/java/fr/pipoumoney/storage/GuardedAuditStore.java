@@ -0,0 +1,74 @@
+package fr.pipoumoney.storage;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/** Routes every audit store call through the circuit breaker. */
+public final class GuardedAuditStore implements AuditStore {
+
+    private final AuditStore delegate;
+    private final CircuitBreaker breaker;
+
+    public GuardedAuditStore(AuditStore delegate, CircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public long[] insertBatch(List<NewTx> rows) throws Exception {
+        return breaker.call(() -> delegate.insertBatch(rows));
+    }
+
+    @Override
+    public void flag(long txId, UUID flaggedBy, String reason) throws Exception {
+        breaker.call(() -> {
+            delegate.flag(txId, flaggedBy, reason);
+            return null;
+        });
+    }
+
+    @Override
+    public void unflag(long txId, UUID flaggedBy) throws Exception {
+        breaker.call(() -> {
+            delegate.unflag(txId, flaggedBy);
+            return null;
+        });
+    }
+
+    @Override
+    public Optional<Tx> getById(long id) throws Exception {
+        return breaker.call(() -> delegate.getById(id));
+    }
+
+    @Override
+    public List<Long> recentIds(int limit) throws Exception {
+        return breaker.call(() -> delegate.recentIds(limit));
+    }
+
+    @Override
+    public int purgeOlderThanDays(int days) throws Exception {
+        return breaker.call(() -> delegate.purgeOlderThanDays(days));
+    }
+
+    // Exports run for minutes and fail on their own sink too, they stay outside the breaker.
+    @Override
+    public long stream(UUID player, Integer days, int fetchSize, TxSink sink) throws Exception {
+        return delegate.stream(player, days, fetchSize, sink);
+    }
+
+    @Override
+    public List<Tx> loadOlderThan(long cutoffMs, int limit) throws Exception {
+        return breaker.call(() -> delegate.loadOlderThan(cutoffMs, limit));
+    }
+
+    @Override
+    public int deleteArchived(long minId, long maxId, long maxAtMs) throws Exception {
+        return breaker.call(() -> delegate.deleteArchived(minId, maxId, maxAtMs));
+    }
+
+    @Override
+    public Page query(Query q) throws Exception {
+        return breaker.call(() -> delegate.query(q));
+    }
+}
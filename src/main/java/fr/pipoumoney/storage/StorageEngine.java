@@ -0,0 +1,30 @@
+package fr.pipoumoney.storage;
+
+import fr.pipoumoney.config.PluginConfig;
+import fr.pipoumoney.db.JdbcStorageEngine;
+import fr.pipoumoney.storage.log.LogStorageEngine;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+public interface StorageEngine {
+
+    String name();
+
+    AccountStore accounts();
+
+    AuditStore audit();
+
+    boolean isOpen();
+
+    void closeQuietly();
+
+    static StorageEngine open(File dataFolder, PluginConfig cfg, Consumer<Runnable> async) throws Exception {
+        String type = cfg.storage().type().trim().toLowerCase(Locale.ROOT);
+        return switch (type) {
+            case "log", "embedded" -> LogStorageEngine.open(dataFolder, cfg.log(), async);
+            default -> JdbcStorageEngine.open(dataFolder, cfg);
+        };
+    }
+}
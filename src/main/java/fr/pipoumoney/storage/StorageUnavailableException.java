@@ -0,0 +1,9 @@
+package fr.pipoumoney.storage;
+
+/** Thrown without touching the database while the storage circuit breaker is open. */
+public final class StorageUnavailableException extends Exception {
+
+    public StorageUnavailableException(long retryInMs) {
+        super("Storage unavailable, next retry in " + Math.max(0L, retryInMs) + " ms", null, false, false);
+    }
+}
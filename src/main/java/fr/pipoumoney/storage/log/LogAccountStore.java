@@ -0,0 +1,277 @@
+package fr.pipoumoney.storage.log;
+
+import fr.pipoumoney.storage.AccountStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/** Accounts as PUT records keyed by uuid; the latest record of every account is kept in memory. */
+final class LogAccountStore implements AccountStore {
+
+    private static final byte PUT = 1;
+
+    private record Entry(Row row, int bytes) {}
+
+    private final LogFile file;
+    private final boolean syncWrites;
+    private final long compactMinBytes;
+    private final Consumer<Runnable> async;
+
+    private final Map<UUID, Entry> index = new HashMap<>();
+    private long liveBytes;
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+    LogAccountStore(Path path, boolean syncWrites, long compactMinBytes, Consumer<Runnable> async) throws IOException {
+        this.file = LogFile.open(path);
+        this.syncWrites = syncWrites;
+        this.compactMinBytes = compactMinBytes;
+        this.async = async;
+
+        file.replay((offset, size, type, payload) -> {
+            if (type != PUT) return;
+            put(decode(payload), size);
+        });
+    }
+
+    private void put(Row row, int bytes) {
+        Entry prev = index.put(row.uuid(), new Entry(row, bytes));
+        if (prev != null) liveBytes -= prev.bytes();
+        liveBytes += bytes;
+    }
+
+    @Override
+    public synchronized Map<UUID, Row> loadAll() {
+        var out = new HashMap<UUID, Row>(index.size() * 2);
+        for (var e : index.values()) out.put(e.row().uuid(), e.row());
+        return out;
+    }
+
+    @Override
+    public FlushResult upsertBatch(List<UUID> uuids,
+                                   Function<UUID, String> nameResolver,
+                                   Function<UUID, Double> balanceResolver,
+                                   Function<UUID, Boolean> notificationsEnabledResolver,
+                                   Function<UUID, Boolean> lockedResolver,
+                                   Function<UUID, Long> lastActivityResolver,
+                                   int chunkSize,
+                                   Consumer<List<UUID>> onChunk) throws Exception {
+        if (uuids == null || uuids.isEmpty()) return FlushResult.EMPTY;
+
+        int chunk = Math.max(1, chunkSize);
+        int chunks = 0;
+        long total = 0L;
+        long slowest = 0L;
+
+        for (int from = 0; from < uuids.size(); from += chunk) {
+            List<UUID> part = uuids.subList(from, Math.min(uuids.size(), from + chunk));
+            long start = System.nanoTime();
+
+            synchronized (this) {
+                var rows = new ArrayList<Row>(part.size());
+                for (UUID uuid : part) {
+                    rows.add(new Row(uuid,
+                            nameResolver.apply(uuid),
+                            balanceResolver.apply(uuid),
+                            notificationsEnabledResolver.apply(uuid),
+                            lockedResolver.apply(uuid),
+                            lastActivityResolver.apply(uuid),
+                            nextVersion(uuid)));
+                }
+                write(rows);
+            }
+
+            long ms = (System.nanoTime() - start) / 1_000_000L;
+            chunks++;
+            total += ms;
+            slowest = Math.max(slowest, ms);
+            onChunk.accept(part);
+        }
+
+        maybeCompact();
+        return new FlushResult(uuids.size(), chunks, total, slowest);
+    }
+
+    @Override
+    public FlushResult applyBalanceWrites(List<BalanceWrite> writes, int chunkSize, Consumer<List<Stored>> onChunk) throws Exception {
+        if (writes == null || writes.isEmpty()) return FlushResult.EMPTY;
+
+        int chunk = Math.max(1, chunkSize);
+        int chunks = 0;
+        long total = 0L;
+        long slowest = 0L;
+
+        for (int from = 0; from < writes.size(); from += chunk) {
+            List<BalanceWrite> part = writes.subList(from, Math.min(writes.size(), from + chunk));
+            long start = System.nanoTime();
+
+            var stored = new ArrayList<Stored>(part.size());
+            synchronized (this) {
+                var rows = new ArrayList<Row>(part.size());
+                for (BalanceWrite w : part) {
+                    Entry cur = index.get(w.uuid());
+                    double balance = w.absolute() || cur == null ? w.amount() : cur.row().balance() + w.amount();
+                    Row row = new Row(w.uuid(), w.name(), balance, w.notificationsEnabled(), w.locked(),
+                            w.lastActivityMs(), nextVersion(w.uuid()));
+                    rows.add(row);
+                    stored.add(new Stored(row.uuid(), row.balance(), row.version()));
+                }
+                write(rows);
+            }
+
+            long ms = (System.nanoTime() - start) / 1_000_000L;
+            chunks++;
+            total += ms;
+            slowest = Math.max(slowest, ms);
+            onChunk.accept(stored);
+        }
+
+        maybeCompact();
+        return new FlushResult(writes.size(), chunks, total, slowest);
+    }
+
+    private long nextVersion(UUID uuid) {
+        Entry cur = index.get(uuid);
+        return cur == null ? 1L : cur.row().version() + 1L;
+    }
+
+    private void write(List<Row> rows) throws IOException {
+        var entries = new ArrayList<LogFile.Entry>(rows.size());
+        for (Row r : rows) entries.add(new LogFile.Entry(PUT, encode(r)));
+
+        file.append(entries, syncWrites);
+        for (int i = 0; i < rows.size(); i++) put(rows.get(i), entries.get(i).size());
+    }
+
+    @Override
+    public synchronized List<Row> loadByUuids(Collection<UUID> uuids) {
+        var out = new ArrayList<Row>(uuids.size());
+        for (UUID u : uuids) {
+            Entry e = index.get(u);
+            if (e != null) out.add(e.row());
+        }
+        return out;
+    }
+
+    @Override
+    public synchronized int countByMin(double min) {
+        int n = 0;
+        for (var e : index.values()) if (e.row().balance() >= min) n++;
+        return n;
+    }
+
+    private static final Comparator<Row> BY_NAME = Comparator.comparing(Row::name, Comparator.nullsFirst(Comparator.naturalOrder()));
+    private static final Comparator<Row> BY_BALANCE_DESC = Comparator.comparingDouble(Row::balance).reversed();
+
+    @Override
+    public List<Row> list(double min, String sort, int limit, int offset) {
+        Comparator<Row> order = "name".equalsIgnoreCase(sort)
+                ? BY_NAME.thenComparing(BY_BALANCE_DESC)
+                : BY_BALANCE_DESC.thenComparing(BY_NAME);
+
+        var rows = filtered(min);
+        rows.sort(order);
+        if (offset >= rows.size()) return List.of();
+        return new ArrayList<>(rows.subList(Math.max(0, offset), Math.min(rows.size(), offset + Math.max(0, limit))));
+    }
+
+    @Override
+    public List<Row> top(double min, int limit) {
+        return list(min, "balance", limit, 0);
+    }
+
+    private synchronized List<Row> filtered(double min) {
+        var out = new ArrayList<Row>(index.size());
+        for (var e : index.values()) if (e.row().balance() >= min) out.add(e.row());
+        return out;
+    }
+
+    @Override
+    public synchronized int rankOf(UUID uuid) {
+        Entry self = index.get(uuid);
+        double bal = self == null ? 0.0 : self.row().balance();
+        int higher = 0;
+        for (var e : index.values()) if (e.row().balance() > bal) higher++;
+        return higher + 1;
+    }
+
+    // A single embedded store has no other writers: the change feed stays empty.
+
+    @Override
+    public void setChangeNode(String node) {}
+
+    @Override
+    public long latestChangeSeq() {
+        return 0L;
+    }
+
+    @Override
+    public List<Change> changesSince(long seq, String exceptNode, int limit) {
+        return List.of();
+    }
+
+    @Override
+    public int pruneChanges(long olderThanMs) {
+        return 0;
+    }
+
+    private void maybeCompact() {
+        long size = file.size();
+        if (size < compactMinBytes || size < liveBytes * 2) return;
+        if (!compacting.compareAndSet(false, true)) return;
+
+        async.accept(() -> {
+            try {
+                compact();
+            } catch (IOException ignored) {
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    synchronized void compact() throws IOException {
+        var rows = new ArrayList<Row>(index.size());
+        var entries = new ArrayList<LogFile.Entry>(index.size());
+        for (var e : index.values()) {
+            rows.add(e.row());
+            entries.add(new LogFile.Entry(PUT, encode(e.row())));
+        }
+
+        file.rewrite(entries);
+        index.clear();
+        liveBytes = 0L;
+        for (int i = 0; i < rows.size(); i++) put(rows.get(i), entries.get(i).size());
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+
+    private static byte[] encode(Row r) throws IOException {
+        try (var w = new LogCodec.Writer()) {
+            w.uuid(r.uuid()).string(r.name());
+            w.writeDouble(r.balance());
+            w.writeBoolean(r.notificationsEnabled());
+            w.writeBoolean(r.locked());
+            w.writeLong(r.lastActivityMs());
+            w.writeLong(r.version());
+            return w.bytes();
+        }
+    }
+
+    private static Row decode(ByteBuffer in) {
+        UUID uuid = LogCodec.uuid(in);
+        String name = LogCodec.string(in);
+        double balance = in.getDouble();
+        boolean notify = LogCodec.bool(in);
+        boolean locked = LogCodec.bool(in);
+        long last = in.getLong();
+        long version = in.getLong();
+        return new Row(uuid, name, balance, notify, locked, last, version);
+    }
+}
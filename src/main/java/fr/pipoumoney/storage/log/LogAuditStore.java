@@ -0,0 +1,526 @@
+package fr.pipoumoney.storage.log;
+
+import fr.pipoumoney.storage.AuditStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Transactions as INSERT records with ids assigned in append order. Only id, time, offset, size and
+ * a hash of both players of each row stay in memory: time and player filters pick the rows to read
+ * from that index, the other filters decode them. Flag changes and deletes are appended as their
+ * own records and folded into the rows on compaction.
+ */
+final class LogAuditStore implements AuditStore {
+
+    private static final byte INSERT = 1;
+    private static final byte FLAG = 2;
+    private static final byte DELETE_RANGE = 3;
+    private static final byte PURGE = 4;
+    private static final byte SEQ = 5;
+
+    // Index entries read per lock hold by a scan, so a waiting compaction never waits on a caller.
+    private static final int SCAN_WINDOW = 4096;
+
+    private record Flag(boolean flagged, String reason, UUID by, long atMs) {}
+
+    private final LogFile file;
+    private final boolean syncWrites;
+    private final long compactMinBytes;
+    private final Consumer<Runnable> async;
+
+    // Appends and scans share the read lock; compaction swaps the file under the write lock.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+    private long[] ids = new long[1024];
+    private long[] offsets = new long[1024];
+    private long[] ats = new long[1024];
+    private int[] sizes = new int[1024];
+    private int[] actorKeys = new int[1024];
+    private int[] targetKeys = new int[1024];
+    private int count;
+    private int live;
+    private long liveBytes;
+    private long lastId;
+
+    private final Map<Long, Flag> flags = new ConcurrentHashMap<>();
+
+    LogAuditStore(Path path, boolean syncWrites, long compactMinBytes, Consumer<Runnable> async) throws IOException {
+        this.file = LogFile.open(path);
+        this.syncWrites = syncWrites;
+        this.compactMinBytes = compactMinBytes;
+        this.async = async;
+
+        file.replay((offset, size, type, payload) -> {
+            switch (type) {
+                case INSERT -> {
+                    long id = payload.getLong();
+                    long at = payload.getLong();
+                    LogCodec.string(payload);
+                    LogCodec.string(payload);
+                    UUID actor = LogCodec.uuid(payload);
+                    UUID target = LogCodec.uuid(payload);
+                    index(id, at, offset, size, playerKey(actor), playerKey(target));
+                }
+                case FLAG -> {
+                    long id = payload.getLong();
+                    flags.put(id, decodeFlag(payload));
+                }
+                case DELETE_RANGE -> markDeleted(payload.getLong(), payload.getLong(), payload.getLong());
+                case PURGE -> markDeleted(Long.MIN_VALUE, Long.MAX_VALUE, payload.getLong() - 1L);
+                case SEQ -> lastId = Math.max(lastId, payload.getLong());
+                default -> {}
+            }
+        });
+    }
+
+    private void index(long id, long at, long offset, int size, int actorKey, int targetKey) {
+        if (count == ids.length) {
+            int n = count * 2;
+            ids = Arrays.copyOf(ids, n);
+            offsets = Arrays.copyOf(offsets, n);
+            ats = Arrays.copyOf(ats, n);
+            sizes = Arrays.copyOf(sizes, n);
+            actorKeys = Arrays.copyOf(actorKeys, n);
+            targetKeys = Arrays.copyOf(targetKeys, n);
+        }
+        ids[count] = id;
+        offsets[count] = offset;
+        ats[count] = at;
+        sizes[count] = size;
+        actorKeys[count] = actorKey;
+        targetKeys[count] = targetKey;
+        count++;
+        live++;
+        liveBytes += size;
+        lastId = Math.max(lastId, id);
+    }
+
+    private int markDeleted(long minId, long maxId, long maxAtMs) {
+        int from = Math.max(0, lowerBound(minId));
+        int n = 0;
+        for (int i = from; i < count && ids[i] <= maxId; i++) {
+            if (offsets[i] < 0 || ats[i] > maxAtMs) continue;
+            offsets[i] = -1L;
+            flags.remove(ids[i]);
+            live--;
+            liveBytes -= sizes[i];
+            n++;
+        }
+        return n;
+    }
+
+    private int lowerBound(long id) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ids[mid] < id) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private int indexOf(long id) {
+        int i = lowerBound(id);
+        return i < count && ids[i] == id && offsets[i] >= 0 ? i : -1;
+    }
+
+    @Override
+    public long[] insertBatch(List<NewTx> rows) throws Exception {
+        long[] out = new long[rows.size()];
+        if (rows.isEmpty()) return out;
+
+        lock.readLock().lock();
+        try {
+            synchronized (this) {
+                var entries = new ArrayList<LogFile.Entry>(rows.size());
+                for (int i = 0; i < rows.size(); i++) {
+                    NewTx tx = rows.get(i);
+                    long at = tx.at().toEpochMilli();
+                    out[i] = lastId + 1 + i;
+                    entries.add(new LogFile.Entry(INSERT, encode(new Tx(out[i], tx.at(), tx.source(), tx.type(),
+                            tx.actor(), tx.target(), tx.amount(), tx.flagged(), tx.flagReason(), tx.flaggedBy(),
+                            tx.flagged() ? at : 0L))));
+                }
+
+                long[] at = file.append(entries, syncWrites);
+                for (int i = 0; i < rows.size(); i++) {
+                    NewTx tx = rows.get(i);
+                    index(out[i], tx.at().toEpochMilli(), at[i], entries.get(i).size(),
+                            playerKey(tx.actor()), playerKey(tx.target()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return out;
+    }
+
+    @Override
+    public void flag(long txId, UUID flaggedBy, String reason) throws Exception {
+        writeFlag(txId, new Flag(true, reason, flaggedBy, System.currentTimeMillis()));
+    }
+
+    @Override
+    public void unflag(long txId, UUID flaggedBy) throws Exception {
+        writeFlag(txId, new Flag(false, null, flaggedBy, System.currentTimeMillis()));
+    }
+
+    private void writeFlag(long txId, Flag f) throws IOException {
+        lock.readLock().lock();
+        try {
+            synchronized (this) {
+                if (indexOf(txId) < 0) return;
+                try (var w = new LogCodec.Writer()) {
+                    w.writeLong(txId);
+                    w.writeBoolean(f.flagged());
+                    w.string(f.reason()).uuid(f.by());
+                    w.writeLong(f.atMs());
+                    file.append(List.of(new LogFile.Entry(FLAG, w.bytes())), syncWrites);
+                }
+                flags.put(txId, f);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Tx> getById(long id) throws Exception {
+        lock.readLock().lock();
+        try {
+            long offset;
+            int size;
+            synchronized (this) {
+                int i = indexOf(id);
+                if (i < 0) return Optional.empty();
+                offset = offsets[i];
+                size = sizes[i];
+            }
+            ByteBuffer buf = file.read(offset, size);
+            buf.get();
+            return Optional.of(decode(buf));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public synchronized List<Long> recentIds(int limit) {
+        var out = new ArrayList<Long>(Math.max(0, limit));
+        for (int i = count - 1; i >= 0 && out.size() < limit; i--) {
+            if (offsets[i] >= 0) out.add(ids[i]);
+        }
+        return out;
+    }
+
+    @Override
+    public int purgeOlderThanDays(int days) throws Exception {
+        long cutoff = Instant.now().minusSeconds(days * 86400L).toEpochMilli();
+        int n;
+        lock.readLock().lock();
+        try {
+            synchronized (this) {
+                try (var w = new LogCodec.Writer()) {
+                    w.writeLong(cutoff);
+                    file.append(List.of(new LogFile.Entry(PURGE, w.bytes())), syncWrites);
+                }
+                n = markDeleted(Long.MIN_VALUE, Long.MAX_VALUE, cutoff - 1L);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        maybeCompact();
+        return n;
+    }
+
+    @Override
+    public int deleteArchived(long minId, long maxId, long maxAtMs) throws Exception {
+        int n;
+        lock.readLock().lock();
+        try {
+            synchronized (this) {
+                try (var w = new LogCodec.Writer()) {
+                    w.writeLong(minId);
+                    w.writeLong(maxId);
+                    w.writeLong(maxAtMs);
+                    file.append(List.of(new LogFile.Entry(DELETE_RANGE, w.bytes())), syncWrites);
+                }
+                n = markDeleted(minId, maxId, maxAtMs);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        maybeCompact();
+        return n;
+    }
+
+    @Override
+    public long stream(UUID player, Integer days, int fetchSize, TxSink sink) throws Exception {
+        long cutoff = days == null ? Long.MIN_VALUE : Instant.now().minusSeconds(days * 86400L).toEpochMilli();
+        long[] n = {0L};
+        scanLive(rowFilter(cutoff, player), tx -> {
+            if (tx.at().toEpochMilli() < cutoff) return true;
+            if (player != null && !player.equals(tx.actor()) && !player.equals(tx.target())) return true;
+            sink.accept(tx);
+            n[0]++;
+            return true;
+        });
+        return n[0];
+    }
+
+    @Override
+    public List<Tx> loadOlderThan(long cutoffMs, int limit) throws Exception {
+        var out = new ArrayList<Tx>();
+        scanLive((at, actor, target) -> at < cutoffMs, tx -> {
+            if (tx.at().toEpochMilli() < cutoffMs) out.add(tx);
+            return out.size() < limit;
+        });
+        return out;
+    }
+
+    @Override
+    public Page query(Query q) throws Exception {
+        String source = q.source() == null ? null : q.source().toUpperCase(Locale.ROOT);
+        String type = q.type() == null ? null : q.type().toUpperCase(Locale.ROOT);
+        long cutoff = q.days() == null ? Long.MIN_VALUE : Instant.now().minusSeconds(q.days() * 86400L).toEpochMilli();
+
+        // Only (at, id) of matches are kept; the page itself is re-read by id.
+        var hits = new ArrayList<long[]>();
+        if (q.player() == null && source == null && type == null && q.minAmount() == null && q.flagged() == null) {
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    if (offsets[i] >= 0 && ats[i] >= cutoff) hits.add(new long[] { ats[i], ids[i] });
+                }
+            }
+        } else {
+            scanLive(rowFilter(cutoff, q.player()), tx -> {
+                if (tx.at().toEpochMilli() < cutoff) return true;
+                if (q.player() != null && !q.player().equals(tx.actor()) && !q.player().equals(tx.target())) return true;
+                if (source != null && !source.equals(tx.source())) return true;
+                if (type != null && !type.equals(tx.type())) return true;
+                if (q.minAmount() != null && tx.amount() < q.minAmount()) return true;
+                if (q.flagged() != null && q.flagged() != tx.adminFlagged()) return true;
+                hits.add(new long[] { tx.at().toEpochMilli(), tx.id() });
+                return true;
+            });
+        }
+        hits.sort((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(b[1], a[1]));
+
+        int total = hits.size();
+        int perPage = Math.max(1, q.perPage());
+        int pages = Math.max(1, (int) Math.ceil(total / (double) perPage));
+        int page = Math.max(1, Math.min(pages, q.page()));
+        int offset = (page - 1) * perPage;
+        int safePerPage = Math.min(perPage, Math.max(1, q.limitCap()));
+
+        var rows = new ArrayList<Tx>(safePerPage);
+        for (int i = offset; i < total && rows.size() < safePerPage; i++) {
+            getById(hits.get(i)[1]).ifPresent(rows::add);
+        }
+        return new Page(rows, page, pages, total);
+    }
+
+    @FunctionalInterface
+    private interface TxVisitor {
+        /** Returns false to stop the scan. */
+        boolean accept(Tx tx) throws Exception;
+    }
+
+    /** Index-only pre-filter: a hash match on a player still has to be checked on the decoded row. */
+    @FunctionalInterface
+    private interface RowFilter {
+        boolean keep(long atMs, int actorKey, int targetKey);
+    }
+
+    private static RowFilter rowFilter(long cutoff, UUID player) {
+        if (player == null) return (at, actor, target) -> at >= cutoff;
+        int key = playerKey(player);
+        return (at, actor, target) -> at >= cutoff && (actor == key || target == key);
+    }
+
+    private static int playerKey(UUID uuid) {
+        return uuid == null ? 0 : uuid.hashCode();
+    }
+
+    /**
+     * Visits the live rows {@code filter} keeps, in id order with flag changes applied. Rows are read
+     * a window at a time under the read lock and handed to {@code v} after it is released, so a slow
+     * visitor (an export writing its file) never holds back compaction or, behind it, other callers.
+     */
+    private void scanLive(RowFilter filter, TxVisitor v) throws Exception {
+        long last;
+        synchronized (this) {
+            last = lastId;
+        }
+        var batch = new ArrayList<Tx>();
+        long from = Long.MIN_VALUE;
+        while (from != Long.MAX_VALUE) {
+            batch.clear();
+            lock.readLock().lock();
+            try {
+                from = readWindow(from, last, filter, batch);
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (Tx tx : batch) {
+                if (!v.accept(tx)) return;
+            }
+        }
+    }
+
+    /** Reads the kept rows of the next window from id {@code from}; returns where the next window starts. */
+    private long readWindow(long from, long last, RowFilter filter, List<Tx> out) throws IOException {
+        long[] at = new long[SCAN_WINDOW];
+        int[] len = new int[SCAN_WINDOW];
+        int n = 0;
+        long next = Long.MAX_VALUE;
+        synchronized (this) {
+            int i = lowerBound(from);
+            int end = Math.min(count, i + SCAN_WINDOW);
+            for (; i < end && ids[i] <= last; i++) {
+                if (offsets[i] < 0 || !filter.keep(ats[i], actorKeys[i], targetKeys[i])) continue;
+                at[n] = offsets[i];
+                len[n] = sizes[i];
+                n++;
+            }
+            if (i < count && ids[i] <= last) next = ids[i];
+        }
+        if (n == 0) return next;
+
+        // Mostly kept rows are read with one sequential scan of their range, sparse ones one by one.
+        long bytes = 0L;
+        for (int k = 0; k < n; k++) bytes += len[k];
+        long rangeEnd = at[n - 1] + len[n - 1];
+        if (rangeEnd - at[0] <= 2 * bytes) {
+            int[] k = {0};
+            int kept = n;
+            file.scan(at[0], rangeEnd, false, (offset, size, type, payload) -> {
+                if (k[0] < kept && offset == at[k[0]]) {
+                    out.add(decode(payload));
+                    k[0]++;
+                }
+            });
+        } else {
+            for (int k = 0; k < n; k++) {
+                ByteBuffer buf = file.read(at[k], len[k]);
+                buf.get();
+                out.add(decode(buf));
+            }
+        }
+        return next;
+    }
+
+    private void maybeCompact() {
+        long size = file.size();
+        if (size < compactMinBytes || size < liveBytes * 2) return;
+        if (!compacting.compareAndSet(false, true)) return;
+
+        async.accept(() -> {
+            try {
+                compact();
+            } catch (Exception ignored) {
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    void compact() throws Exception {
+        lock.writeLock().lock();
+        try {
+            synchronized (this) {
+                compactLocked();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compactLocked() throws Exception {
+        // The id sequence goes first so ids are never reused once old rows are gone.
+        var rows = new ArrayList<LogFile.Entry>(live + 1);
+        try (var w = new LogCodec.Writer()) {
+            w.writeLong(lastId);
+            rows.add(new LogFile.Entry(SEQ, w.bytes()));
+        }
+        var kept = new ArrayList<long[]>(live);
+        file.scan(0L, file.size(), false, (offset, size, type, payload) -> {
+            if (type != INSERT) return;
+            int i = indexOf(payload.getLong(payload.position()));
+            if (i < 0 || offsets[i] != offset) return;
+            Tx tx = decode(payload);
+            rows.add(new LogFile.Entry(INSERT, encode(tx)));
+            kept.add(new long[] { tx.id(), tx.at().toEpochMilli(), playerKey(tx.actor()), playerKey(tx.target()) });
+        });
+
+        long[] at = file.rewrite(rows);
+
+        long keepLast = lastId;
+        count = 0;
+        live = 0;
+        liveBytes = 0L;
+        flags.clear();
+        for (int i = 0; i < kept.size(); i++) {
+            long[] k = kept.get(i);
+            index(k[0], k[1], at[i + 1], rows.get(i + 1).size(), (int) k[2], (int) k[3]);
+        }
+        lastId = keepLast;
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+
+    private static byte[] encode(Tx tx) throws IOException {
+        try (var w = new LogCodec.Writer()) {
+            w.writeLong(tx.id());
+            w.writeLong(tx.at().toEpochMilli());
+            w.string(tx.source()).string(tx.type()).uuid(tx.actor()).uuid(tx.target());
+            w.writeDouble(tx.amount());
+            w.writeBoolean(tx.adminFlagged());
+            w.string(tx.flagReason()).uuid(tx.flaggedBy());
+            w.writeLong(tx.flaggedAtMs());
+            return w.bytes();
+        }
+    }
+
+    private Tx decode(ByteBuffer in) {
+        long id = in.getLong();
+        Instant at = Instant.ofEpochMilli(in.getLong());
+        String source = LogCodec.string(in);
+        String type = LogCodec.string(in);
+        UUID actor = LogCodec.uuid(in);
+        UUID target = LogCodec.uuid(in);
+        double amount = in.getDouble();
+        boolean flagged = LogCodec.bool(in);
+        String reason = LogCodec.string(in);
+        UUID by = LogCodec.uuid(in);
+        long flaggedAt = in.getLong();
+
+        Flag f = flags.get(id);
+        if (f != null) {
+            flagged = f.flagged();
+            reason = f.reason();
+            by = f.by();
+            flaggedAt = f.atMs();
+        }
+        return new Tx(id, at, source, type, actor, target, amount, flagged, reason, by, flaggedAt);
+    }
+
+    private static Flag decodeFlag(ByteBuffer in) {
+        boolean flagged = LogCodec.bool(in);
+        String reason = LogCodec.string(in);
+        UUID by = LogCodec.uuid(in);
+        long at = in.getLong();
+        return new Flag(flagged, reason, by, at);
+    }
+}
@@ -0,0 +1,58 @@
+package fr.pipoumoney.storage.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+final class LogCodec {
+
+    private LogCodec() {}
+
+    static final class Writer extends DataOutputStream {
+        Writer() {
+            super(new ByteArrayOutputStream(96));
+        }
+
+        Writer uuid(UUID u) throws IOException {
+            writeBoolean(u != null);
+            if (u != null) {
+                writeLong(u.getMostSignificantBits());
+                writeLong(u.getLeastSignificantBits());
+            }
+            return this;
+        }
+
+        Writer string(String s) throws IOException {
+            writeBoolean(s != null);
+            if (s != null) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                writeInt(b.length);
+                write(b);
+            }
+            return this;
+        }
+
+        byte[] bytes() {
+            return ((ByteArrayOutputStream) out).toByteArray();
+        }
+    }
+
+    static UUID uuid(ByteBuffer in) {
+        return in.get() == 0 ? null : new UUID(in.getLong(), in.getLong());
+    }
+
+    static String string(ByteBuffer in) {
+        if (in.get() == 0) return null;
+        int len = in.getInt();
+        String s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return s;
+    }
+
+    static boolean bool(ByteBuffer in) {
+        return in.get() != 0;
+    }
+}
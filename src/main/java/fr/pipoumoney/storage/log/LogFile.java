@@ -0,0 +1,187 @@
+package fr.pipoumoney.storage.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only record file. Each record is {@code [length][crc32][type][payload]}, where length
+ * and crc cover type + payload. A torn tail left by a crash is cut off on {@link #replay}.
+ */
+final class LogFile implements Closeable {
+
+    static final int HEADER = 8;
+    private static final int SCAN_BUFFER = 1 << 20;
+
+    @FunctionalInterface
+    interface Visitor {
+        void accept(long offset, int size, byte type, ByteBuffer payload) throws IOException;
+    }
+
+    record Entry(byte type, byte[] payload) {
+        int size() { return HEADER + 1 + payload.length; }
+    }
+
+    private final Path path;
+    private volatile FileChannel ch;
+    private volatile long size;
+
+    private LogFile(Path path, FileChannel ch) throws IOException {
+        this.path = path;
+        this.ch = ch;
+        this.size = ch.size();
+    }
+
+    static LogFile open(Path path) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        return new LogFile(path, openChannel(path));
+    }
+
+    private static FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    long size() {
+        return size;
+    }
+
+    /** Visits every valid record and truncates whatever follows the last one. */
+    synchronized void replay(Visitor v) throws IOException {
+        long end = scan(0L, size, true, v);
+        if (end < size) {
+            ch.truncate(end);
+            ch.force(true);
+            size = end;
+        }
+    }
+
+    /** Sequentially reads records in {@code [from, to)}; returns the offset after the last valid record. */
+    long scan(long from, long to, boolean verify, Visitor v) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER);
+        buf.limit(0);
+        CRC32 crc = verify ? new CRC32() : null;
+
+        long pos = from;
+        long read = from;
+        while (pos < to) {
+            if (buf.remaining() < HEADER) {
+                read = fill(buf, read, to);
+                if (buf.remaining() < HEADER) break;
+            }
+
+            int len = buf.getInt(buf.position());
+            int sum = buf.getInt(buf.position() + 4);
+            if (len < 1 || pos + HEADER + len > to) break;
+
+            if (buf.remaining() < HEADER + len) {
+                if (HEADER + len > buf.capacity()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(HEADER + len);
+                    bigger.put(buf);
+                    bigger.flip();
+                    buf = bigger;
+                }
+                read = fill(buf, read, to);
+                if (buf.remaining() < HEADER + len) break;
+            }
+
+            int start = buf.position() + HEADER;
+            if (crc != null) {
+                crc.reset();
+                crc.update(buf.array(), start, len);
+                if ((int) crc.getValue() != sum) break;
+            }
+
+            byte type = buf.get(start);
+            ByteBuffer payload = buf.duplicate();
+            payload.position(start + 1).limit(start + len);
+            v.accept(pos, HEADER + len, type, payload.slice());
+
+            buf.position(start + len);
+            pos += HEADER + len;
+        }
+        return pos;
+    }
+
+    private long fill(ByteBuffer buf, long read, long to) throws IOException {
+        buf.compact();
+        while (buf.hasRemaining() && read < to) {
+            int max = (int) Math.min(buf.remaining(), to - read);
+            ByteBuffer dst = buf.duplicate();
+            dst.limit(dst.position() + max);
+            int n = ch.read(dst, read);
+            if (n <= 0) break;
+            buf.position(buf.position() + n);
+            read += n;
+        }
+        buf.flip();
+        return read;
+    }
+
+    /** Reads the record at {@code offset}, returning its type followed by the payload. */
+    ByteBuffer read(long offset, int recordSize) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(recordSize);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position()) < 0) throw new IOException("truncated record at " + offset);
+        }
+        buf.position(HEADER);
+        return buf.slice();
+    }
+
+    /** Appends all entries with a single write and returns the offset of each. */
+    synchronized long[] append(List<Entry> entries, boolean sync) throws IOException {
+        int total = 0;
+        for (Entry e : entries) total += e.size();
+
+        ByteBuffer buf = ByteBuffer.allocate(total);
+        long[] offsets = new long[entries.size()];
+        CRC32 crc = new CRC32();
+        long pos = size;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            crc.reset();
+            crc.update(e.type());
+            crc.update(e.payload());
+
+            offsets[i] = pos;
+            buf.putInt(1 + e.payload().length).putInt((int) crc.getValue()).put(e.type()).put(e.payload());
+            pos += e.size();
+        }
+        buf.flip();
+
+        long at = size;
+        while (buf.hasRemaining()) at += ch.write(buf, at);
+        if (sync) ch.force(false);
+        size = at;
+        return offsets;
+    }
+
+    /** Writes {@code live} to a fresh file, then atomically replaces this one with it. */
+    synchronized long[] rewrite(List<Entry> live) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        Files.deleteIfExists(tmp);
+
+        long[] offsets;
+        try (LogFile out = new LogFile(tmp, openChannel(tmp))) {
+            offsets = out.append(live, false);
+            out.ch.force(true);
+        }
+
+        ch.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ch = openChannel(path);
+        size = ch.size();
+        return offsets;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        ch.close();
+    }
+}
@@ -0,0 +1,65 @@
+package fr.pipoumoney.storage.log;
+
+import fr.pipoumoney.config.PluginConfig;
+import fr.pipoumoney.storage.AccountStore;
+import fr.pipoumoney.storage.AuditStore;
+import fr.pipoumoney.storage.StorageEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/** Embedded backend keeping accounts and transactions in two append-only log files. */
+public final class LogStorageEngine implements StorageEngine {
+
+    private final LogAccountStore accounts;
+    private final LogAuditStore audit;
+    private volatile boolean open = true;
+
+    private LogStorageEngine(LogAccountStore accounts, LogAuditStore audit) {
+        this.accounts = accounts;
+        this.audit = audit;
+    }
+
+    public static LogStorageEngine open(File dataFolder, PluginConfig.LogStore cfg, Consumer<Runnable> async) throws IOException {
+        Path dir = dataFolder.toPath().resolve(cfg.dir());
+        long compactMin = cfg.compactMinMb() * 1024L * 1024L;
+
+        var accounts = new LogAccountStore(dir.resolve("accounts.log"), cfg.syncWrites(), compactMin, async);
+        try {
+            var audit = new LogAuditStore(dir.resolve("audit.log"), cfg.syncWrites(), compactMin, async);
+            return new LogStorageEngine(accounts, audit);
+        } catch (IOException e) {
+            accounts.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "log";
+    }
+
+    @Override
+    public AccountStore accounts() {
+        return accounts;
+    }
+
+    @Override
+    public AuditStore audit() {
+        return audit;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void closeQuietly() {
+        open = false;
+        try { accounts.close(); } catch (Exception ignored) {}
+        try { audit.close(); } catch (Exception ignored) {}
+    }
+}
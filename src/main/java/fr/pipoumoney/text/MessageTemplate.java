@@ -0,0 +1,198 @@
+package fr.pipoumoney.text;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A message parsed once into literal parts and variable slots. Static tokens (prefixes,
+ * currency names) are folded into the literals at compile time, each distinct variable is
+ * looked up once per render and the result is built in a single pre-sized StringBuilder.
+ * Unknown variables are left as {@code {name}}, like the replace chain this stands in for.
+ *
+ * <p>The component form parses the legacy § codes once, on first use, into styled literal
+ * components and styled slots; rendering then only builds components for the variables. Each
+ * literal is parsed on its own with the codes still active from the literals before it, so
+ * nothing is inserted into the text and any character (resource-pack glyphs included) stays as is.
+ */
+public final class MessageTemplate {
+
+    private static final LegacyComponentSerializer LEGACY = LegacyComponentSerializer.legacySection();
+
+    private record Slot(int slot, Style style) {}
+
+    private final String[] literals;
+    private final int[] slots;
+    private final String[] names;
+    private final int literalLength;
+
+    // Component or Slot, filled on first renderComponent.
+    private volatile Object[] parts;
+    private volatile Component constant;
+
+    private MessageTemplate(String[] literals, int[] slots, String[] names) {
+        this.literals = literals;
+        this.slots = slots;
+        this.names = names;
+        int n = 0;
+        for (String l : literals) n += l.length();
+        this.literalLength = n;
+    }
+
+    public static MessageTemplate compile(String raw, Map<String, String> statics) {
+        var literals = new ArrayList<String>();
+        var slots = new ArrayList<Integer>();
+        var names = new ArrayList<String>();
+        var cur = new StringBuilder(raw.length());
+
+        int i = 0;
+        while (i < raw.length()) {
+            char ch = raw.charAt(i);
+            int close = ch == '{' ? raw.indexOf('}', i + 1) : -1;
+            String name = close > i + 1 ? raw.substring(i + 1, close) : null;
+            if (name == null || !isName(name)) {
+                cur.append(ch);
+                i++;
+                continue;
+            }
+
+            String fixed = statics.get(name);
+            if (fixed != null) {
+                cur.append(fixed);
+            } else {
+                literals.add(cur.toString());
+                cur.setLength(0);
+                int slot = names.indexOf(name);
+                if (slot < 0) { slot = names.size(); names.add(name); }
+                slots.add(slot);
+            }
+            i = close + 1;
+        }
+        literals.add(cur.toString());
+
+        int[] s = new int[slots.size()];
+        for (int k = 0; k < s.length; k++) s[k] = slots.get(k);
+        return new MessageTemplate(literals.toArray(String[]::new), s, names.toArray(String[]::new));
+    }
+
+    private static boolean isName(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (!Character.isLetterOrDigit(ch) && ch != '_' && ch != '-' && ch != '.') return false;
+        }
+        return true;
+    }
+
+    public boolean hasVariables() {
+        return names.length > 0;
+    }
+
+    public List<String> variables() {
+        return List.of(names);
+    }
+
+    public String render(Map<String, String> vars) {
+        if (slots.length == 0) return literals[0];
+
+        String[] values = resolve(vars);
+        int len = literalLength;
+        for (String v : values) len += v.length();
+
+        var sb = new StringBuilder(len + 16);
+        for (int k = 0; k < slots.length; k++) {
+            sb.append(literals[k]).append(values[slots[k]]);
+        }
+        return sb.append(literals[slots.length]).toString();
+    }
+
+    public Component renderComponent(Map<String, String> vars) {
+        Object[] p = parts();
+        if (slots.length == 0) return constant;
+
+        String[] values = resolve(vars);
+        var b = Component.text();
+        for (Object part : p) {
+            if (part instanceof Slot s) {
+                String v = values[s.slot()];
+                b.append(v.indexOf('§') < 0
+                        ? Component.text(v, s.style())
+                        : Component.text().style(s.style()).append(LEGACY.deserialize(v)).build());
+            } else {
+                b.append((Component) part);
+            }
+        }
+        return b.build();
+    }
+
+    private String[] resolve(Map<String, String> vars) {
+        String[] values = new String[names.length];
+        for (int k = 0; k < names.length; k++) {
+            String v = vars.get(names[k]);
+            values[k] = v != null ? v : "{" + names[k] + "}";
+        }
+        return values;
+    }
+
+    private Object[] parts() {
+        Object[] p = parts;
+        if (p != null) return p;
+
+        if (slots.length == 0) {
+            constant = LEGACY.deserialize(literals[0]);
+            p = new Object[] { constant };
+            parts = p;
+            return p;
+        }
+
+        var out = new ArrayList<Object>();
+        String carried = "";
+        for (int k = 0; k <= slots.length; k++) {
+            String text = carried + literals[k];
+            flatten(LEGACY.deserialize(text), Style.empty(), out);
+            if (k == slots.length) break;
+
+            carried = activeCodes(text);
+            out.add(new Slot(slots[k], styleOf(carried)));
+        }
+        p = out.toArray();
+        parts = p;
+        return p;
+    }
+
+    private static void flatten(Component c, Style inherited, List<Object> out) {
+        Style style = inherited.merge(c.style());
+        if (c instanceof TextComponent t && !t.content().isEmpty()) out.add(Component.text(t.content(), style));
+        for (Component child : c.children()) flatten(child, style, out);
+    }
+
+    /** The § codes still in effect at the end of {@code text}: the last colour or reset and the formats after it. */
+    private static String activeCodes(String text) {
+        var codes = new StringBuilder();
+        for (int i = 0; i + 1 < text.length(); i++) {
+            if (text.charAt(i) != '§') continue;
+            char c = Character.toLowerCase(text.charAt(i + 1));
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || c == 'r') {
+                codes.setLength(0);
+                if (c != 'r') codes.append('§').append(c);
+            } else if (c >= 'k' && c <= 'o') {
+                codes.append('§').append(c);
+            } else {
+                continue;
+            }
+            i++;
+        }
+        return codes.toString();
+    }
+
+    private static Style styleOf(String codes) {
+        if (codes.isEmpty()) return Style.empty();
+        var probe = new ArrayList<Object>();
+        flatten(LEGACY.deserialize(codes + " "), Style.empty(), probe);
+        return probe.isEmpty() ? Style.empty() : ((Component) probe.get(probe.size() - 1)).style();
+    }
+}
@@ -1,23 +1,39 @@
 package fr.pipoumoney.text;
 
 import fr.pipoumoney.config.PluginConfig;
+import net.kyori.adventure.text.Component;
 import org.bukkit.configuration.file.FileConfiguration;
 
-import java.text.NumberFormat;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class Messages {
 
     private final FileConfiguration cfg;
-    private final NumberFormat nf;
-    private final PluginConfig pluginCfg;
+    private final MoneyFormatter money;
+
+    // Every message is compiled once per load, /pipoumoney reload builds a new Messages.
+    private final Map<String, String> statics;
+    private final Map<String, MessageTemplate> templates = new ConcurrentHashMap<>();
 
     public Messages(FileConfiguration cfg, PluginConfig pluginCfg) {
         this.cfg = cfg;
-        this.pluginCfg = pluginCfg;
-        this.nf = NumberFormat.getNumberInstance(pluginCfg.format().locale());
-        this.nf.setMinimumFractionDigits(pluginCfg.format().decimals());
-        this.nf.setMaximumFractionDigits(pluginCfg.format().decimals());
+
+        var cur = pluginCfg.currency();
+        var currency = Map.of("symbol", cur.symbol(), "singular", cur.singular(), "plural", cur.plural());
+        this.money = new MoneyFormatter(pluginCfg.format().locale(), pluginCfg.format().decimals(),
+                MessageTemplate.compile(cur.format(), currency).render(Map.of()));
+
+        var st = new HashMap<>(currency);
+        st.put("warn", MessageTemplate.compile(cfg.getString("prefix.warn", "§6§lPipouMoney §c"), currency).render(Map.of()));
+        st.put("info", MessageTemplate.compile(cfg.getString("prefix.info", "§6§lPipouMoney §f"), currency).render(Map.of()));
+        st.put("main", MessageTemplate.compile(cfg.getString("prefix.main", "§6§lPipouMoney §e"), currency).render(Map.of()));
+        this.statics = Map.copyOf(st);
+
+        for (String key : cfg.getKeys(true)) {
+            if (cfg.isString(key)) templates.put(key, MessageTemplate.compile(cfg.getString(key), statics));
+        }
     }
 
     public String get(String path) {
@@ -25,36 +41,34 @@ public final class Messages {
     }
 
     public String fmt(String path, Map<String, String> vars) {
-        String s = cfg.getString(path, "§c[MISSING] " + path);
-
-        String warn = cfg.getString("prefix.warn", "§6§lPipouMoney §c");
-        String info = cfg.getString("prefix.info", "§6§lPipouMoney §f");
-        String main = cfg.getString("prefix.main", "§6§lPipouMoney §e");
+        return template(path).render(vars);
+    }
 
-        var cur = pluginCfg.currency();
+    /** Same text as {@link #get}, as a component reused across calls and recipients. */
+    public Component component(String path) {
+        return template(path).renderComponent(Map.of());
+    }
 
-        s = s.replace("{warn}", warn).replace("{info}", info).replace("{main}", main);
-        s = s.replace("{symbol}", cur.symbol())
-                .replace("{singular}", cur.singular())
-                .replace("{plural}", cur.plural());
+    public Component component(String path, Map<String, String> vars) {
+        return template(path).renderComponent(vars);
+    }
 
-        for (var e : vars.entrySet()) {
-            s = s.replace("{" + e.getKey() + "}", e.getValue());
-        }
-        return s;
+    public MessageTemplate template(String path) {
+        MessageTemplate t = templates.get(path);
+        if (t != null) return t;
+        return templates.computeIfAbsent(path,
+                p -> MessageTemplate.compile(cfg.getString(p, "§c[MISSING] " + p), statics));
     }
 
     public String money(double v) {
-        return nf.format(v);
+        return money.format(v);
     }
 
     public String moneyWithCurrency(double v) {
-        var cur = pluginCfg.currency();
-        String amount = money(v);
-        return cur.format()
-                .replace("{amount}", amount)
-                .replace("{symbol}", cur.symbol())
-                .replace("{singular}", cur.singular())
-                .replace("{plural}", cur.plural());
+        return money.formatWithCurrency(v);
+    }
+
+    public MoneyFormatter moneyFormatter() {
+        return money;
     }
 }
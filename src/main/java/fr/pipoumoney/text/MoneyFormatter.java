@@ -0,0 +1,127 @@
+package fr.pipoumoney.text;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Locale-aware money formatting without {@link NumberFormat} on the hot path. Separators and
+ * the grouping size are read from the locale once, amounts are converted to long minor units
+ * and written right to left into a per-thread buffer. Instances are immutable and safe to share
+ * between threads. Only the primary grouping size is honoured. NaN, infinities and amounts
+ * that do not fit long minor units fall back to a NumberFormat built for the call.
+ */
+public final class MoneyFormatter {
+
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L
+    };
+
+    // 19 digits, separators between each and a sign fit comfortably.
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[64]);
+
+    // Scaled amounts below this convert to long minor units exactly enough and never saturate.
+    private static final double FAST_LIMIT = 0x1p62;
+
+    private final Locale locale;
+    private final int decimals;
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final char minusSign;
+    private final int groupingSize;
+
+    private final String currencyPrefix;
+    private final String currencySuffix;
+
+    public MoneyFormatter(Locale locale, int decimals, String currencyFormat) {
+        this.locale = locale;
+        this.decimals = Math.max(0, Math.min(8, decimals));
+
+        var symbols = DecimalFormatSymbols.getInstance(locale);
+        this.decimalSeparator = symbols.getDecimalSeparator();
+        this.groupingSeparator = symbols.getGroupingSeparator();
+        this.minusSign = symbols.getMinusSign();
+
+        int size = 3;
+        if (NumberFormat.getNumberInstance(locale) instanceof DecimalFormat df) {
+            size = df.isGroupingUsed() ? df.getGroupingSize() : 0;
+        }
+        this.groupingSize = size;
+
+        int at = currencyFormat.indexOf("{amount}");
+        this.currencyPrefix = at < 0 ? currencyFormat : currencyFormat.substring(0, at);
+        this.currencySuffix = at < 0 ? "" : currencyFormat.substring(at + "{amount}".length());
+    }
+
+    public int decimals() {
+        return decimals;
+    }
+
+    public String format(double v) {
+        double scaled = v * POW10[decimals];
+        if (!(Math.abs(scaled) < FAST_LIMIT)) return slowFormat(v);
+        return format(Math.round(scaled));
+    }
+
+    public String format(long minor) {
+        // -Long.MIN_VALUE overflows, the hand-written path cannot print it.
+        if (minor == Long.MIN_VALUE) return slowFormat(BigDecimal.valueOf(minor, decimals));
+        char[] buf = BUFFER.get();
+        int start = write(buf, minor);
+        return new String(buf, start, buf.length - start);
+    }
+
+    /** The amount inside the configured currency format, tokens other than {amount} already applied. */
+    public String formatWithCurrency(double v) {
+        double scaled = v * POW10[decimals];
+        if (!(Math.abs(scaled) < FAST_LIMIT)) return currencyPrefix + slowFormat(v) + currencySuffix;
+
+        char[] buf = BUFFER.get();
+        int start = write(buf, Math.round(scaled));
+        int len = buf.length - start;
+
+        var sb = new StringBuilder(currencyPrefix.length() + len + currencySuffix.length());
+        return sb.append(currencyPrefix).append(buf, start, len).append(currencySuffix).toString();
+    }
+
+    // Rare path, so the format is built per call instead of cached per thread.
+    private String slowFormat(Object amount) {
+        NumberFormat nf = NumberFormat.getNumberInstance(locale);
+        nf.setMinimumFractionDigits(decimals);
+        nf.setMaximumFractionDigits(decimals);
+        nf.setRoundingMode(RoundingMode.HALF_UP);
+        nf.setGroupingUsed(groupingSize > 0);
+        return nf.format(amount);
+    }
+
+    // Fills buf from the end and returns the index of the first char.
+    private int write(char[] buf, long minor) {
+        int pos = buf.length;
+        boolean negative = minor < 0;
+        long n = negative ? -minor : minor;
+
+        if (decimals > 0) {
+            long frac = n % POW10[decimals];
+            for (int i = 0; i < decimals; i++) {
+                buf[--pos] = (char) ('0' + frac % 10);
+                frac /= 10;
+            }
+            buf[--pos] = decimalSeparator;
+        }
+
+        long whole = n / POW10[decimals];
+        int digits = 0;
+        do {
+            if (groupingSize > 0 && digits > 0 && digits % groupingSize == 0) buf[--pos] = groupingSeparator;
+            buf[--pos] = (char) ('0' + whole % 10);
+            whole /= 10;
+            digits++;
+        } while (whole > 0);
+
+        if (negative) buf[--pos] = minusSign;
+        return pos;
+    }
+}
@@ -0,0 +1,112 @@
+package fr.pipoumoney.utils;
+
+/**
+ * Scoreboard-friendly money strings built from long minor units ({@code amount * 10^decimals})
+ * with a single StringBuilder, no NumberFormat and no locale lookups.
+ */
+public final class CompactMoney {
+    private CompactMoney() {}
+
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L
+    };
+
+    private static final char[] UNITS = { 'k', 'M', 'B', 'T', 'Q' };
+
+    public static int clampDecimals(int decimals) {
+        return Math.max(0, Math.min(8, decimals));
+    }
+
+    public static long toMinor(double v, int decimals) {
+        return Math.round(v * POW10[clampDecimals(decimals)]);
+    }
+
+    /** {@code 950}, {@code 12.5}, {@code 1.2k}, {@code 3.4M}: one decimal above a thousand, trailing zeros dropped. */
+    public static String shortForm(long minor, int decimals) {
+        int d = clampDecimals(decimals);
+        var sb = new StringBuilder(12);
+        if (minor < 0) { sb.append('-'); minor = -minor; }
+
+        long whole = minor / POW10[d];
+        if (whole < 1000) {
+            appendTrimmed(sb, minor, d);
+            return sb.toString();
+        }
+
+        // Tenths of the unit rounded half up, the dropped fraction never crosses the half.
+        // 999.95k carries over to 1M.
+        int unit = 0;
+        long scale = 1000L;
+        while (unit < UNITS.length - 1 && whole >= scale * 1000L) { unit++; scale *= 1000L; }
+        long tenths = roundDiv(whole, scale / 10);
+        if (tenths >= 10_000L && unit < UNITS.length - 1) {
+            unit++;
+            scale *= 1000L;
+            tenths = roundDiv(whole, scale / 10);
+        }
+
+        sb.append(tenths / 10);
+        if (tenths % 10 != 0) sb.append('.').append(tenths % 10);
+        return sb.append(UNITS[unit]).toString();
+    }
+
+    /** Whole amount rounded half up with {@code ,} thousands separators: {@code 1,234,568}. */
+    public static String grouped(long minor, int decimals) {
+        int d = clampDecimals(decimals);
+        var sb = new StringBuilder(24);
+        if (minor < 0) { sb.append('-'); minor = -minor; }
+        appendGrouped(sb, roundDiv(minor, POW10[d]));
+        return sb.toString();
+    }
+
+    /** Exactly {@code digits} decimals, rounded half up when fewer than the stored ones. */
+    public static String fixed(long minor, int decimals, int digits) {
+        int d = clampDecimals(decimals);
+        int n = clampDecimals(digits);
+        var sb = new StringBuilder(24);
+        if (minor < 0) { sb.append('-'); minor = -minor; }
+
+        if (n < d) {
+            long scaled = roundDiv(minor, POW10[d - n]);
+            sb.append(scaled / POW10[n]);
+            if (n > 0) appendFraction(sb.append('.'), scaled % POW10[n], n);
+            return sb.toString();
+        }
+
+        sb.append(minor / POW10[d]);
+        if (n == 0) return sb.toString();
+        sb.append('.');
+        if (d > 0) appendFraction(sb, minor % POW10[d], d);
+        for (int i = d; i < n; i++) sb.append('0');
+        return sb.toString();
+    }
+
+    private static void appendTrimmed(StringBuilder sb, long minor, int d) {
+        sb.append(minor / POW10[d]);
+        long frac = minor % POW10[d];
+        if (frac == 0) return;
+
+        int n = d;
+        while (frac % 10 == 0) { frac /= 10; n--; }
+        appendFraction(sb.append('.'), frac, n);
+    }
+
+    private static void appendFraction(StringBuilder sb, long frac, int digits) {
+        for (long p = POW10[digits - 1]; p > frac && p > 1; p /= 10) sb.append('0');
+        sb.append(frac);
+    }
+
+    private static void appendGrouped(StringBuilder sb, long v) {
+        if (v < 1000) { sb.append(v); return; }
+        appendGrouped(sb, v / 1000);
+        long rest = v % 1000;
+        sb.append(',');
+        if (rest < 100) sb.append('0');
+        if (rest < 10) sb.append('0');
+        sb.append(rest);
+    }
+
+    private static long roundDiv(long v, long div) {
+        return (v + div / 2) / div;
+    }
+}
@@ -0,0 +1,40 @@
+package fr.pipoumoney.utils;
+
+import java.util.Comparator;
+import java.util.UUID;
+
+public final class UuidUtil {
+    private UuidUtil() {}
+
+    /** The order of {@link #toBytes} compared as unsigned bytes, i.e. the index order of a BINARY(16) key. */
+    public static final Comparator<UUID> BYTE_ORDER = (a, b) -> {
+        int c = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return c != 0 ? c : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    };
+
+    public static byte[] toBytes(UUID uuid) {
+        if (uuid == null) return null;
+        byte[] b = new byte[16];
+        putLong(b, 0, uuid.getMostSignificantBits());
+        putLong(b, 8, uuid.getLeastSignificantBits());
+        return b;
+    }
+
+    public static UUID fromBytes(byte[] b) {
+        if (b == null || b.length != 16) return null;
+        return new UUID(getLong(b, 0), getLong(b, 8));
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0L;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (b[off + i] & 0xFFL);
+        return v;
+    }
+}